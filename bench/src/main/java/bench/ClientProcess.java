@@ -0,0 +1,77 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+// the Client run as a child process for a fixed duration, with a
+// client.properties written for it: its output (client.log) and its run
+// results (results.json, see RunResults) stay in the given directory
+final class ClientProcess {
+
+    // beyond the duration, for the start and the shutdown hook
+    private static final int EXIT_TIMEOUT = 30; // seconds
+
+    private static final MethodHandle READ =
+            Hooks.method("RunResults", "read", String.class);
+
+    private ClientProcess() {}
+
+    // settings: added to (or overriding) the defaults below; returns the
+    // run results
+    @SuppressWarnings("unchecked")
+    static Map<String, String> run(Path dir, int port, int duration,
+                                   Map<String, String> settings)
+            throws IOException, InterruptedException {
+
+        Map<String, String> all = new LinkedHashMap<>();
+        all.put("serverIP", "127.0.0.1");
+        all.put("serverPort", Integer.toString(port));
+        all.put("printExchanges", "false");
+        all.put("duration", Integer.toString(duration));
+        all.put("resultsFile", "results.json");
+        all.putAll(settings);
+
+        Files.createDirectories(dir);
+        ServerProcess.writeProperties(dir.resolve("client.properties"), all);
+        Path results = dir.resolve("results.json");
+        Files.deleteIfExists(results);
+
+        // the directory first: its client.properties wins
+        String classPath = dir.toAbsolutePath() + File.pathSeparator +
+                ServerProcess.classPath("Client");
+        ProcessBuilder pb = new ProcessBuilder(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", classPath, "Client"));
+        pb.directory(dir.toFile());
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(dir.resolve("client.log").toFile());
+
+        Process process = pb.start();
+        if (!process.waitFor(duration + EXIT_TIMEOUT, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            throw new IOException("the client did not end, see " +
+                    dir.resolve("client.log"));
+        }
+        if (process.exitValue() != 0 || !Files.exists(results)) {
+            throw new IOException("the client failed (exit status " +
+                    process.exitValue() + "), see " + dir.resolve("client.log"));
+        }
+
+        try {
+            return (Map<String, String>) (Object) READ.invokeExact(
+                    (Object) results.toString());
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// payload compression: what the client spends per request with
+// compression=deflate and what the server spends to decompress it;
+// the payloads are random letters, as the generated corpus ones
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    private static final MethodHandle CODEC =
+            Hooks.method("Compression", "codec", String.class);
+    private static final MethodHandle COMPRESS = Hooks.method("Compression",
+            "compress", Hooks.type("Compression$Codec"), byte[].class,
+            int.class, int.class);
+    private static final MethodHandle DECOMPRESS = Hooks.method("Compression",
+            "decompress", ByteBuffer.class, int.class, int.class, int.class,
+            ByteBuffer.class);
+
+    @Param({"deflate"})
+    public String codec;
+
+    @Param({"1024", "10000", "65000"})
+    public int messageLength;
+
+    private Object c;
+    private byte payload[];
+    private ByteBuffer compressed;
+    private ByteBuffer out;
+
+    @Setup
+    public void setUp() throws Throwable {
+        c = (Object) CODEC.invokeExact((Object) codec);
+        Random rnd = new Random(1);
+        payload = new byte[messageLength];
+        for (int i = 0; i < payload.length; ++i) {
+            payload[i] = (byte) ('A' + rnd.nextInt(26));
+        }
+        byte packed[] = (byte[]) (Object) COMPRESS.invokeExact(
+                c, (Object) payload, 0, payload.length);
+        // as the server has it: in a direct receive buffer
+        compressed = ByteBuffer.allocateDirect(packed.length);
+        compressed.put(packed).flip();
+        out = ByteBuffer.allocate(messageLength);
+    }
+
+    @Benchmark
+    public Object compress() throws Throwable {
+        return (Object) COMPRESS.invokeExact(
+                c, (Object) payload, 0, payload.length);
+    }
+
+    @Benchmark
+    public Object decompress() throws Throwable {
+        return (Object) DECOMPRESS.invokeExact((Object) compressed, 0,
+                compressed.limit(), messageLength, (Object) out);
+    }
+}
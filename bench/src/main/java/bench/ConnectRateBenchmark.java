@@ -0,0 +1,93 @@
+package bench;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// connections per second over loopback with a server process (TCP, no
+// keep-alive, serverDelay=0), as the TCP client makes them: connect,
+// a short request and its response, close, from 16 threads at once.
+// -p acceptors=1,4 shows what the acceptor threads add; the server
+// prints the accept rate of each on exit (in its log)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class ConnectRateBenchmark {
+
+    private static final byte REQUEST[] = "ABCDEFGHIJKLMNOP\n".getBytes();
+
+    @State(Scope.Benchmark)
+    public static class ServerState {
+
+        @Param({"1", "4"})
+        public int acceptors;
+
+        @Param({"thread-per-request", "virtual"})
+        public String concurrencyModel;
+
+        private ServerProcess server;
+        private InetSocketAddress address;
+
+        @Setup
+        public void setUp() throws Exception {
+            server = ServerProcess.start("TCP", Map.of(
+                    "concurrencyModel", concurrencyModel,
+                    "acceptors", Integer.toString(acceptors)));
+            address = new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), server.port());
+        }
+
+        @TearDown
+        public void tearDown() { server.stop(); }
+    }
+
+    @State(Scope.Thread)
+    public static class Buffers {
+
+        private final ByteBuffer request =
+                ByteBuffer.allocateDirect(REQUEST.length).put(REQUEST).flip();
+        private final ByteBuffer response = ByteBuffer.allocateDirect(64);
+    }
+
+    @Benchmark
+    public int connection(ServerState s, Buffers b) throws IOException {
+
+        try (SocketChannel channel = SocketChannel.open(s.address)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            b.request.rewind();
+            while (b.request.hasRemaining()) { channel.write(b.request); }
+
+            ByteBuffer r = b.response;
+            r.clear();
+            while (r.position() == 0 || r.get(r.position() - 1) != '\n') {
+                if (channel.read(r) < 0) {
+                    throw new EOFException("connection closed by server");
+                }
+            }
+            return r.position();
+        }
+    }
+}
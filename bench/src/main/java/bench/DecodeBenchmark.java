@@ -0,0 +1,145 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// request decoding in the server: RequestReader splitting the received
+// bytes into requests (lines or frames), as the TCP handlers do, and
+// Server.decode() making a String of a request, as the "logger" request
+// log does. The bytes come from memory, so only the parsing is measured
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    private static final MethodHandle NEW_POOL =
+            Hooks.constructor("BufferPool", int.class, int.class);
+    private static final MethodHandle NEW_READER = Hooks.constructor(
+            "RequestReader", ReadableByteChannel.class,
+            Hooks.type("BufferPool"), int.class);
+    private static final MethodHandle NEXT_LINE =
+            Hooks.method("RequestReader", "nextLine");
+    private static final MethodHandle NEXT_FRAME =
+            Hooks.method("RequestReader", "nextFrame");
+    private static final MethodHandle BUFFER =
+            Hooks.method("RequestReader", "buffer");
+    private static final MethodHandle OFFSET =
+            Hooks.method("RequestReader", "offset");
+    private static final MethodHandle LENGTH =
+            Hooks.method("RequestReader", "length");
+    private static final MethodHandle DECODE = Hooks.method(
+            "Server", "decode", ByteBuffer.class, int.class, int.class);
+    private static final MethodHandle PUT_FRAME = Hooks.method("Framing",
+            "put", ByteBuffer.class, int.class, byte.class, byte[].class);
+
+    private static final int TCP_BUFF_SIZE =
+            (Integer) Hooks.constant("Server", "TCP_BUFF_SIZE");
+    private static final int MAX_REQUEST_SIZE =
+            (Integer) Hooks.constant("Server", "DEFAULT_MAX_REQUEST_SIZE");
+    private static final int HEADER_SIZE =
+            (Integer) Hooks.constant("Framing", "HEADER_SIZE");
+    // distinct requests in the stream
+    private static final int N_REQUESTS = 64;
+
+    @Param({"16", "1024", "16384"})
+    public int messageLength;
+
+    @Param({"line", "binary"})
+    public String framing;
+
+    private Object reader;
+    private boolean binary;
+
+    // the same requests over and over, never at the end of the stream
+    private static final class LoopChannel implements ReadableByteChannel {
+
+        private final byte data[];
+        private int position = 0;
+
+        LoopChannel(byte data[]) { this.data = data; }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            int n = Math.min(dst.remaining(), data.length - position);
+            dst.put(data, position, n);
+            position = (position + n) % data.length;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() { return true; }
+
+        @Override
+        public void close() {}
+    }
+
+    @Setup
+    public void setUp() throws Throwable {
+
+        binary = framing.equals("binary");
+        Random rnd = new Random(1);
+        int size = binary ?
+                HEADER_SIZE + messageLength : messageLength + 1;
+        ByteBuffer stream = ByteBuffer.allocate(N_REQUESTS * size);
+        for (int i = 0; i < N_REQUESTS; ++i) {
+            byte text[] = new byte[messageLength];
+            for (int k = 0; k < text.length; ++k) {
+                text[k] = (byte) ('A' + rnd.nextInt(26));
+            }
+            if (binary) {
+                PUT_FRAME.invokeExact((Object) stream, i, (byte) 0, (Object) text);
+            } else {
+                stream.put(text).put((byte) '\n');
+            }
+        }
+
+        Object pool = (Object) NEW_POOL.invokeExact(TCP_BUFF_SIZE, 1);
+        reader = (Object) NEW_READER.invokeExact(
+                (Object) new LoopChannel(stream.array()), pool,
+                MAX_REQUEST_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        Hooks.method("RequestReader", "release").invoke(reader);
+    }
+
+    @Benchmark
+    public int read() throws Throwable {
+        boolean next = binary ?
+                (boolean) NEXT_FRAME.invokeExact(reader) :
+                (boolean) NEXT_LINE.invokeExact(reader);
+        return next ? (int) LENGTH.invokeExact(reader) : -1;
+    }
+
+    @Benchmark
+    public Object readAndDecode() throws Throwable {
+        boolean next = binary ?
+                (boolean) NEXT_FRAME.invokeExact(reader) :
+                (boolean) NEXT_LINE.invokeExact(reader);
+        if (!next) { return null; }
+        return (Object) DECODE.invokeExact(
+                (Object) BUFFER.invokeExact(reader),
+                (int) OFFSET.invokeExact(reader),
+                (int) LENGTH.invokeExact(reader));
+    }
+}
@@ -0,0 +1,76 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// response encoding in the server (the pre-encoded line and the binary
+// frame with the request id) and request frame encoding in the client
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+
+    private static final MethodHandle RESPONSE =
+            Hooks.method("Server", "response", boolean.class);
+    private static final MethodHandle RESPONSE_FRAME =
+            Hooks.method("Server", "responseFrame", int.class, boolean.class);
+    private static final MethodHandle PUT_FRAME = Hooks.method("Framing",
+            "put", ByteBuffer.class, int.class, byte.class, byte[].class);
+
+    private static final int HEADER_SIZE =
+            (Integer) Hooks.constant("Framing", "HEADER_SIZE");
+
+    private int id = 0;
+
+    // the request, for requestFrame only
+    @State(Scope.Thread)
+    public static class Request {
+
+        @Param({"16", "1024", "16384"})
+        public int messageLength;
+
+        private byte payload[];
+        private ByteBuffer frame;
+
+        @Setup
+        public void setUp() {
+            payload = new byte[messageLength];
+            Arrays.fill(payload, (byte) 'A');
+            frame = ByteBuffer.allocateDirect(HEADER_SIZE + messageLength);
+        }
+    }
+
+    @Benchmark
+    public Object response() throws Throwable {
+        return (Object) RESPONSE.invokeExact(false);
+    }
+
+    @Benchmark
+    public Object responseFrame() throws Throwable {
+        return (Object) RESPONSE_FRAME.invokeExact(++id, false);
+    }
+
+    @Benchmark
+    public Object requestFrame(Request r) throws Throwable {
+        r.frame.clear();
+        PUT_FRAME.invokeExact((Object) r.frame, ++id, (byte) 0, (Object) r.payload);
+        return r.frame;
+    }
+}
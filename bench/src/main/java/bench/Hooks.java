@@ -0,0 +1,85 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+
+// the server and client classes live in the unnamed package, which can not
+// be imported from a named one (and JMH needs one): they are reached through
+// method handles instead, looked up once and kept in static final fields,
+// so the JIT inlines the calls as if they were direct. The handle types
+// are erased (all the reference types are Object), so invokeExact works
+// with an Object cast of the arguments and the result.
+final class Hooks {
+
+    private Hooks() {}
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(name + " is not on the class path", e);
+        }
+    }
+
+    // a static or instance method, private or not
+    static MethodHandle method(String type, String name, Class<?>... parameters) {
+        try {
+            Method m = find(type(type), name, parameters);
+            MethodHandle h = lookup(m.getDeclaringClass()).unreflect(m);
+            return h.asType(h.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(type + "." + name, e);
+        }
+    }
+
+    static MethodHandle constructor(String type, Class<?>... parameters) {
+        try {
+            Class<?> c = type(type);
+            MethodHandle h = lookup(c).unreflectConstructor(
+                    c.getDeclaredConstructor(parameters));
+            return h.asType(h.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("new " + type, e);
+        }
+    }
+
+    static MethodHandle getter(String type, String name) {
+        try {
+            Class<?> c = type(type);
+            Field f = c.getDeclaredField(name);
+            MethodHandle h = lookup(c).unreflectGetter(f);
+            return h.asType(h.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(type + "." + name, e);
+        }
+    }
+
+    // a String or primitive static constant
+    static Object constant(String type, String name) {
+        try {
+            Field f = type(type).getDeclaredField(name);
+            return lookup(f.getDeclaringClass()).unreflectGetter(f).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException(type + "." + name, e);
+        }
+    }
+
+    private static Method find(Class<?> c, String name, Class<?> parameters[])
+            throws NoSuchMethodException {
+        for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+            try {
+                return k.getDeclaredMethod(name, parameters);
+            } catch (NoSuchMethodException dummy) {}
+        }
+        throw new NoSuchMethodException(c.getName() + "." + name);
+    }
+
+    // full access: the classes are in the unnamed module, as this one
+    private static MethodHandles.Lookup lookup(Class<?> c)
+            throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(c, MethodHandles.lookup());
+    }
+}
@@ -0,0 +1,106 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// appending a received request to the journal, what the handlers do per
+// request with journal=on (the segments are in a temporary directory, so
+// on the file system of java.io.tmpdir); run with -t N for N handlers
+// appending at once. TcpRoundTrip -p journal=off,on shows the same cost
+// against a whole exchange
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+
+    private static final MethodHandle NEW_JOURNAL = Hooks.constructor(
+            "Journal", String.class, int.class, String.class, int.class);
+    private static final MethodHandle APPEND = Hooks.method("Journal",
+            "append", ByteBuffer.class, int.class, int.class, byte[].class);
+    private static final MethodHandle CLOSE = Hooks.method("Journal", "close");
+    private static final MethodHandle SOURCE =
+            Hooks.method("Journal", "source", SocketAddress.class);
+
+    private static final int SEGMENT_SIZE = 0x4000000; // 64 MiB
+
+    @State(Scope.Benchmark)
+    public static class JournalState {
+
+        @Param({"none", "interval", "count"})
+        public String sync;
+
+        // milliseconds or records
+        @Param({"100"})
+        public int syncEvery;
+
+        private Path dir;
+        private Object journal;
+
+        @Setup
+        public void setUp() throws Throwable {
+            dir = Files.createTempDirectory("bench-journal");
+            journal = (Object) NEW_JOURNAL.invokeExact(
+                    (Object) dir.toString(), SEGMENT_SIZE, (Object) sync,
+                    syncEvery);
+        }
+
+        @TearDown
+        public void tearDown() throws Throwable {
+            CLOSE.invokeExact(journal);
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile)
+                        .forEach(File::delete);
+            } catch (IOException | UncheckedIOException dummy) {}
+        }
+    }
+
+    // a request as a TCP handler has it: in a pooled direct buffer
+    @State(Scope.Thread)
+    public static class Request {
+
+        @Param({"16", "1024", "16384"})
+        public int messageLength;
+
+        private ByteBuffer buffer;
+        private byte source[];
+
+        @Setup
+        public void setUp() throws Throwable {
+            buffer = ByteBuffer.allocateDirect(messageLength);
+            while (buffer.hasRemaining()) { buffer.put((byte) 'A'); }
+            source = (byte[]) (Object) SOURCE.invokeExact(
+                    (Object) new InetSocketAddress("127.0.0.1", 50000));
+        }
+    }
+
+    @Benchmark
+    public void append(JournalState j, Request r) throws Throwable {
+        APPEND.invokeExact(j.journal, (Object) r.buffer, 0, r.messageLength,
+                (Object) r.source);
+    }
+}
@@ -0,0 +1,426 @@
+package bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+
+// a benchmark matrix over loopback: every combination of the protocols,
+// the server concurrency models, the server delays, the message lengths
+// and the client threads, each run as a fresh Server and Client child
+// process pair (closed loop with no pause between the exchanges, so that
+// the server and not the sleep granularity of the client threads bounds
+// the throughput; the same payloads each time), compared in
+// one report of the throughput and the latencies:
+//
+//   java -cp bench/target/benchmarks.jar bench.Matrix [settings file] [name=value ...]
+//
+// The settings (see DEFAULTS) are lists where plural; server.<name> and
+// client.<name> are passed on to all the servers or clients. The output
+// directory gets the settings as run (matrix.properties: rerunning with
+// it gives the same matrix), the report (report.txt, report.csv) and a
+// folder per cell and repetition with the client settings, output and
+// results and the server output. With baseline=<an earlier report.csv>
+// the cells are compared with it and the exit status is 1 if any
+// throughput dropped or p99 latency rose by more than the given percents,
+// or a cell found in the baseline failed or lacks a value the baseline has.
+public final class Matrix {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+    static {
+        DEFAULTS.put("protocols", "TCP,UDP");
+        DEFAULTS.put("concurrencyModels", "thread-per-request,pool,virtual,nio");
+        DEFAULTS.put("serverDelays", "0"); // milliseconds
+        DEFAULTS.put("messageLengths", "16,1024,16384");
+        DEFAULTS.put("clientThreads", "1,16,64");
+        DEFAULTS.put("duration", "10"); // seconds, measured
+        DEFAULTS.put("warmup", "3"); // seconds, before the measure
+        DEFAULTS.put("repetitions", "1"); // the medians are reported
+        DEFAULTS.put("output", "matrix");
+        DEFAULTS.put("baseline", "");
+        DEFAULTS.put("throughputDrop", "5"); // percent
+        DEFAULTS.put("latencyRise", "10"); // percent
+    }
+
+    // the client settings unless given
+    private static final Map<String, String> CLIENT_DEFAULTS = Map.of(
+            "clientThreadPause", "0",
+            "keepAlive", "false",
+            "framing", "line",
+            "payloadSeed", "1");
+
+    private static final String KEY[] = {"protocol", "concurrencyModel",
+            "serverDelay", "messageLength", "clientThreads"};
+    private static final String VALUES[] = {"throughput", "spread", "p50",
+            "p99", "p99.9", "errors", "status"};
+
+    private final Map<String, String> settings;
+    private final Path output;
+
+    private static final class Cell {
+
+        private final String key[];
+        private final List<Map<String, String>> runs = new ArrayList<>();
+        private boolean failed;
+        private String skipped;
+
+        Cell(String... key) { this.key = key; }
+
+        String protocol() { return key[0]; }
+
+        String concurrencyModel() { return key[1]; }
+
+        String name() {
+            return key[0] + "-" + key[1] + "-d" + key[2] + "-m" + key[3] +
+                    "-t" + key[4];
+        }
+
+        // the median of the repetitions, NaN if none
+        double median(String name) {
+            double v[] = runs.stream().mapToDouble(r -> number(r.get(name)))
+                    .filter(d -> !Double.isNaN(d)).sorted().toArray();
+            if (v.length == 0) { return Double.NaN; }
+            return v.length % 2 == 1 ? v[v.length / 2] :
+                    (v[v.length / 2 - 1] + v[v.length / 2]) / 2;
+        }
+
+        // of the throughput over the repetitions, percent of the median
+        // (NaN if less than two)
+        double spread() {
+            double v[] = runs.stream()
+                    .mapToDouble(r -> number(r.get("throughput"))).toArray();
+            if (v.length < 2) { return Double.NaN; }
+            double min = Arrays.stream(v).min().getAsDouble();
+            double max = Arrays.stream(v).max().getAsDouble();
+            return (max - min) / median("throughput") * 100;
+        }
+
+        long errors() {
+            return runs.stream().mapToLong(r -> (long) number(r.get("errors")))
+                    .sum();
+        }
+
+        String status() {
+            if (skipped != null) { return "skipped: " + skipped; }
+            if (failed) { return "failed, see cells/" + name(); }
+            return "ok";
+        }
+
+        // the values of the report, in VALUES order
+        String[] values() {
+            return new String[] {
+                    format("%.1f", median("throughput")),
+                    format("%.1f", spread()),
+                    format("%.0f", median("latency.total.p50")),
+                    format("%.0f", median("latency.total.p99")),
+                    format("%.0f", median("latency.total.p99.9")),
+                    Long.toString(errors()), status()};
+        }
+    }
+
+    private Matrix(Map<String, String> settings) {
+        this.settings = settings;
+        output = Paths.get(settings.get("output"));
+    }
+
+    public static void main(String args[]) {
+
+        Map<String, String> settings = new TreeMap<>(DEFAULTS);
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                if (i == 0 && !args[0].contains("=")) {
+                    Properties p = new Properties();
+                    try (InputStream in = Files.newInputStream(Paths.get(args[0]))) {
+                        p.load(in);
+                    }
+                    for (String name: p.stringPropertyNames()) {
+                        set(settings, name, p.getProperty(name));
+                    }
+                } else {
+                    String nv[] = args[i].split("=", 2);
+                    if (nv.length < 2) {
+                        throw new IllegalArgumentException(
+                                "name=value expected: " + args[i]);
+                    }
+                    set(settings, nv[0], nv[1]);
+                }
+            }
+            // checked before hours of running
+            integer(settings, "duration", 1);
+            integer(settings, "repetitions", 1);
+            integer(settings, "warmup", 0);
+            if (!(number(settings.get("throughputDrop")) >= 0) ||
+                    !(number(settings.get("latencyRise")) >= 0)) {
+                throw new IllegalArgumentException(
+                        "throughputDrop and latencyRise must be percents");
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: java -cp benchmarks.jar bench.Matrix " +
+                    "[settings file] [name=value ...], the settings: " +
+                    DEFAULTS.keySet() + ", server.<name>, client.<name>");
+            System.exit(2);
+        }
+
+        try {
+            System.exit((new Matrix(settings)).run() ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println("matrix: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    private static void set(Map<String, String> settings, String name,
+                            String value) {
+        name = name.trim();
+        if (!DEFAULTS.containsKey(name) && !name.startsWith("server.") &&
+                !name.startsWith("client.")) {
+            throw new IllegalArgumentException("unknown setting: " + name);
+        }
+        settings.put(name, value.trim());
+    }
+
+    private static void integer(Map<String, String> settings, String name,
+                                int min) {
+        try {
+            if (Integer.parseInt(settings.get(name)) >= min) { return; }
+        } catch (NumberFormatException dummy) {}
+        throw new IllegalArgumentException(name + " must be an integer, " +
+                "at least " + min);
+    }
+
+    // returns false if a cell regressed against the baseline
+    private boolean run() throws IOException {
+
+        Files.createDirectories(output);
+        Properties asRun = new Properties();
+        asRun.putAll(settings);
+        try (OutputStream out = Files.newOutputStream(output.resolve("matrix.properties"))) {
+            asRun.store(out, "bench.Matrix settings");
+        }
+
+        List<Cell> cells = new ArrayList<>();
+        for (String protocol: list("protocols")) {
+            for (String model: list("concurrencyModels")) {
+                for (String delay: list("serverDelays")) {
+                    for (String length: list("messageLengths")) {
+                        for (String threads: list("clientThreads")) {
+                            cells.add(new Cell(protocol, model, delay, length,
+                                    threads));
+                        }
+                    }
+                }
+            }
+        }
+
+        int repetitions = Integer.parseInt(settings.get("repetitions"));
+        int warmup = Integer.parseInt(settings.get("warmup"));
+        int duration = Integer.parseInt(settings.get("duration"));
+        System.out.println(String.format("matrix: %d cells x %d repetitions, " +
+                "about %d minutes", cells.size(), repetitions,
+                cells.size() * repetitions * (warmup + duration + 3) / 60 + 1));
+
+        int n = 0;
+        for (Cell cell: cells) {
+            ++n;
+            if (cell.concurrencyModel().equals("nio") &&
+                    cell.protocol().equals("TLS")) {
+                // the server refuses it
+                cell.skipped = "TLS is not served by nio";
+                continue;
+            }
+            for (int r = 0; r < repetitions; ++r) {
+                System.out.println(String.format("matrix: %d/%d %s #%d",
+                        n, cells.size(), cell.name(), r + 1));
+                try {
+                    cell.runs.add(runCell(cell, r, warmup, duration));
+                } catch (IOException e) {
+                    cell.failed = true;
+                    System.err.println("matrix: " + cell.name() + ": " +
+                            e.getMessage());
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+            }
+        }
+
+        return report(cells);
+    }
+
+    private Map<String, String> runCell(Cell cell, int repetition, int warmup,
+                                        int duration)
+            throws IOException, InterruptedException {
+
+        Path dir = output.resolve("cells").resolve(cell.name())
+                .resolve("r" + (repetition + 1));
+        Files.createDirectories(dir);
+
+        Map<String, String> server = new LinkedHashMap<>();
+        server.put("concurrencyModel", cell.concurrencyModel());
+        server.put("serverDelay", cell.key[2]);
+        server.putAll(passed("server."));
+
+        Map<String, String> client = new LinkedHashMap<>(CLIENT_DEFAULTS);
+        client.put("protocol", cell.protocol());
+        client.put("messageLength", cell.key[3]);
+        client.put("nClientThreads", cell.key[4]);
+        client.put("warmup", Integer.toString(warmup));
+        client.putAll(passed("client."));
+
+        ServerProcess s = ServerProcess.start(cell.protocol(), server);
+        try {
+            if (cell.protocol().equals("TLS")) {
+                client.put("tlsCertificate",
+                        s.dir().resolve("server.crt").toString());
+            }
+            return ClientProcess.run(dir, s.port(), warmup + duration, client);
+        } finally {
+            s.stop(dir.resolve("server.log"));
+        }
+    }
+
+    // the settings of the given prefix, without it
+    private Map<String, String> passed(String prefix) {
+        Map<String, String> m = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e: settings.entrySet()) {
+            if (e.getKey().startsWith(prefix)) {
+                m.put(e.getKey().substring(prefix.length()), e.getValue());
+            }
+        }
+        return m;
+    }
+
+    private List<String> list(String name) {
+        List<String> l = new ArrayList<>();
+        for (String v: settings.get(name).split(",")) {
+            if (!v.isBlank()) { l.add(v.trim()); }
+        }
+        return l;
+    }
+
+    private boolean report(List<Cell> cells) throws IOException {
+
+        Map<String, String[]> baseline = new HashMap<>();
+        String baselineFile = settings.get("baseline");
+        if (!baselineFile.isEmpty()) {
+            baseline = readReport(Paths.get(baselineFile));
+        }
+        double throughputDrop = number(settings.get("throughputDrop"));
+        double latencyRise = number(settings.get("latencyRise"));
+
+        StringBuilder txt = new StringBuilder();
+        txt.append(String.format("Java %s (%s), %s %s, %d processors%n",
+                System.getProperty("java.version"),
+                System.getProperty("java.vm.name"), System.getProperty("os.name"),
+                System.getProperty("os.arch"),
+                Runtime.getRuntime().availableProcessors()));
+        txt.append(String.format("%s s measured after %s s of warm-up, " +
+                "median of %s; latencies in microseconds%n",
+                settings.get("duration"), settings.get("warmup"),
+                settings.get("repetitions")));
+        txt.append(String.format("%-5s %-18s %5s %7s %7s %11s %7s %8s %8s %8s %7s",
+                "", "concurrency", "delay", "message", "client",
+                "requests/s", "spread", "p50", "p99", "p99.9", "errors"));
+        txt.append(baselineFile.isEmpty() ? "\n" :
+                String.format(" %10s %8s%n", "vs base", "p99"));
+
+        StringBuilder csv = new StringBuilder(
+                String.join(",", KEY) + "," + String.join(",", VALUES) + "\n");
+
+        boolean regressed = false;
+        for (Cell cell: cells) {
+            String v[] = cell.values();
+            txt.append(String.format("%-5s %-18s %5s %7s %7s %11s %7s %8s %8s %8s %7s",
+                    cell.key[0], cell.key[1], cell.key[2], cell.key[3],
+                    cell.key[4], v[0], v[1].equals("-") ? v[1] : v[1] + "%",
+                    v[2], v[3], v[4], v[5]));
+            String base[] = baseline.get(String.join(",", cell.key));
+            if (base != null) {
+                double throughput = change(number(base[0]), number(v[0]));
+                double p99 = change(number(base[3]), number(v[3]));
+                // a failed cell, or a value of the baseline it has not
+                // (nothing answered), is no better than a regression
+                boolean worse = cell.failed ||
+                        missing(base[0], v[0]) || missing(base[3], v[3]) ||
+                        -throughput > throughputDrop || p99 > latencyRise;
+                regressed |= worse;
+                txt.append(String.format(Locale.ROOT, " %10s %8s%s",
+                        format("%.1f%%", throughput), format("%.1f%%", p99),
+                        worse ? " REGRESSION" : ""));
+            }
+            if (!cell.status().equals("ok")) {
+                txt.append("  ").append(cell.status());
+            }
+            txt.append('\n');
+            csv.append(String.join(",", cell.key)).append(',')
+                    .append(String.join(",", Arrays.copyOf(v, v.length - 1)))
+                    .append(',').append(csvField(cell.status())).append('\n');
+        }
+        if (!baselineFile.isEmpty()) {
+            txt.append(regressed ? String.format(Locale.ROOT, "REGRESSION against %s " +
+                    "(limits: throughput -%.1f%%, p99 +%.1f%%)%n", baselineFile,
+                    throughputDrop, latencyRise) :
+                    "no regression against " + baselineFile + "\n");
+        }
+
+        Files.writeString(output.resolve("report.txt"), txt);
+        Files.writeString(output.resolve("report.csv"), csv);
+        System.out.print(txt);
+        System.out.println("matrix: report written to " +
+                output.resolve("report.txt") + " and report.csv");
+        return !regressed;
+    }
+
+    // the values of a report.csv, by the cell key
+    private static Map<String, String[]> readReport(Path file)
+            throws IOException {
+
+        Map<String, String[]> m = new HashMap<>();
+        List<String> lines = Files.readAllLines(file);
+        for (String line: lines.subList(Math.min(1, lines.size()), lines.size())) {
+            String f[] = line.split(",", KEY.length + VALUES.length);
+            if (f.length < KEY.length + VALUES.length) {
+                throw new IOException(file + ": not a matrix report: " + line);
+            }
+            m.put(String.join(",", Arrays.copyOf(f, KEY.length)),
+                    Arrays.copyOfRange(f, KEY.length, f.length));
+        }
+        return m;
+    }
+
+    private static String csvField(String s) {
+        return s.replace(',', ';').replace('\n', ' ');
+    }
+
+    // percent, NaN if either is missing
+    private static double change(double base, double current) {
+        if (base == 0) { return current == 0 ? 0 : Double.NaN; }
+        return (current - base) / base * 100;
+    }
+
+    private static boolean missing(String base, String current) {
+        return !Double.isNaN(number(base)) && Double.isNaN(number(current));
+    }
+
+    private static String format(String format, double v) {
+        return Double.isNaN(v) ? "-" : String.format(Locale.ROOT, format, v);
+    }
+
+    private static double number(String s) {
+        if (s == null) { return Double.NaN; }
+        try { return Double.parseDouble(s); }
+        catch (NumberFormatException e) { return Double.NaN; }
+    }
+}
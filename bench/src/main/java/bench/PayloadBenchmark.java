@@ -0,0 +1,82 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+
+// message generation in the client: building a payload (what used to be
+// done per request) and taking a pre-built one from the corpus (what is
+// done per request now); run with -t N to see how it scales with the
+// number of client threads
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+    private static final MethodHandle GENERATE = Hooks.method("PayloadCorpus",
+            "generate", int.class, int.class, String.class, Random.class);
+    private static final MethodHandle CURSOR =
+            Hooks.method("PayloadCorpus", "cursor", int.class);
+    private static final MethodHandle NEXT =
+            Hooks.method("PayloadCorpus$Cursor", "next");
+    private static final MethodHandle LINE =
+            Hooks.getter("PayloadCorpus$Payload", "line");
+
+    private static final int CORPUS_SIZE = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Corpus {
+
+        @Param({"16", "1024", "16384"})
+        public int messageLength;
+
+        private Object corpus;
+
+        @Setup
+        public void setUp() throws Throwable {
+            corpus = (Object) GENERATE.invokeExact(
+                    CORPUS_SIZE, messageLength, (Object) "fixed",
+                    (Object) new Random(1));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ClientThread {
+
+        private Object cursor;
+        private Random rnd;
+
+        @Setup
+        public void setUp(Corpus c, ThreadParams thread) throws Throwable {
+            cursor = (Object) CURSOR.invokeExact(
+                    c.corpus, thread.getThreadIndex() + 1);
+            rnd = new Random(thread.getThreadIndex());
+        }
+    }
+
+    @Benchmark
+    public Object build(Corpus c, ClientThread client) throws Throwable {
+        return (Object) GENERATE.invokeExact(
+                1, c.messageLength, (Object) "fixed", (Object) client.rnd);
+    }
+
+    @Benchmark
+    public Object take(ClientThread client) throws Throwable {
+        return (Object) LINE.invokeExact((Object) NEXT.invokeExact(client.cursor));
+    }
+}
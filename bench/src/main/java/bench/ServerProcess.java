@@ -0,0 +1,174 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+
+// the Server run as a child process on the loopback
+// interface, with a server.properties written for the benchmark: so the
+// server neither shares the JVM (heap, JIT, GC) with the measuring client
+// nor its static state with the other benchmarks
+final class ServerProcess {
+
+    private static final int READY_TIMEOUT = 10000; // milliseconds
+
+    private final Path dir;
+    private final Process process;
+    private final int port;
+
+    private ServerProcess(Path dir, Process process, int port) {
+        this.dir = dir;
+        this.process = process;
+        this.port = port;
+    }
+
+    // settings: added to (or overriding) the defaults below
+    static ServerProcess start(String protocol, Map<String, String> settings)
+            throws IOException, InterruptedException {
+
+        int port;
+        try (ServerSocket s = new ServerSocket(0)) { port = s.getLocalPort(); }
+
+        Map<String, String> all = new LinkedHashMap<>();
+        all.put("IP", "127.0.0.1");
+        all.put("port", Integer.toString(port));
+        all.put("protocol", protocol);
+        all.put("serverDelay", "0");
+        all.put("requestLog", "off");
+        all.putAll(settings);
+
+        Path dir = Files.createTempDirectory("bench-server");
+        writeProperties(dir.resolve("server.properties"), all);
+        Files.writeString(dir.resolve("logging.properties"),
+                "handlers=java.util.logging.ConsoleHandler\n.level=WARNING\n");
+
+        // the directory first: its server.properties wins
+        String classPath = dir + File.pathSeparator + classPath("Server");
+        ProcessBuilder pb = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Djava.util.logging.config.file=" +
+                        dir.resolve("logging.properties"),
+                "-cp", classPath, "Server");
+        pb.directory(dir.toFile());
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(dir.resolve("server.log").toFile());
+
+        ServerProcess server = new ServerProcess(dir, pb.start(), port);
+        try {
+            server.awaitReady(protocol);
+        } catch (IOException e) {
+            server.stop();
+            throw e;
+        }
+        return server;
+    }
+
+    int port() { return port; }
+
+    // the working directory of the server (e.g. its TLS certificate)
+    Path dir() { return dir; }
+
+    void stop() { stop(null); }
+
+    // log: where the server output (with the reports of its shutdown hook)
+    // is kept, if not null
+    void stop(Path log) {
+
+        process.destroy(); // TERM: the server shutdown hook runs
+        try {
+            if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException dummy) {}
+        if (log != null) {
+            try {
+                Files.copy(dir.resolve("server.log"), log,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException dummy) {}
+        }
+
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile)
+                    .forEach(File::delete);
+        } catch (IOException | UncheckedIOException dummy) {}
+    }
+
+    private void awaitReady(String protocol)
+            throws IOException, InterruptedException {
+
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT;
+        InetSocketAddress address =
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        while (System.currentTimeMillis() < deadline) {
+            if (!process.isAlive()) {
+                // the directory goes with stop(), so the log goes here
+                throw new IOException("the server exited:\n" +
+                        Files.readString(dir.resolve("server.log")));
+            }
+            if (protocol.equals("UDP") ? probeUDP(address) : probeTCP(address)) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        throw new IOException("the server did not start in " +
+                READY_TIMEOUT + " ms");
+    }
+
+    private static boolean probeTCP(InetSocketAddress address) {
+        try (Socket s = new Socket()) {
+            s.connect(address, 100);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean probeUDP(InetSocketAddress address)
+            throws IOException {
+        try (DatagramSocket s = new DatagramSocket()) {
+            s.setSoTimeout(100);
+            byte probe[] = "probe\n".getBytes();
+            s.send(new DatagramPacket(probe, probe.length, address));
+            s.receive(new DatagramPacket(new byte[64], 64));
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    static void writeProperties(Path file, Map<String, String> settings)
+            throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e: settings.entrySet()) {
+            sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        Files.writeString(file, sb);
+    }
+
+    // where a class of the unnamed package comes from (a directory or a jar)
+    static String classPath(String type) {
+        try {
+            return Path.of(Hooks.type(type).getProtectionDomain()
+                    .getCodeSource().getLocation().toURI()).toString();
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package bench;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// a full TCP exchange over loopback with a server process (serverDelay=0,
+// keep-alive, line framing): an operation sends a request on each of the
+// concurrency connections, then reads all the responses
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TcpRoundTripBenchmark {
+
+    private static final MethodHandle GENERATE = Hooks.method("PayloadCorpus",
+            "generate", int.class, int.class, String.class, Random.class);
+    private static final MethodHandle CURSOR =
+            Hooks.method("PayloadCorpus", "cursor", int.class);
+    private static final MethodHandle NEXT =
+            Hooks.method("PayloadCorpus$Cursor", "next");
+    private static final MethodHandle LINE =
+            Hooks.getter("PayloadCorpus$Payload", "line");
+
+    @State(Scope.Benchmark)
+    public static class ServerState {
+
+        // not single: it serves the keep-alive connections one at a time
+        @Param({"thread-per-request", "pool", "virtual", "nio"})
+        public String concurrencyModel;
+
+        // -p journal=off,on for the cost of the journal
+        @Param({"off"})
+        public String journal;
+
+        private ServerProcess server;
+
+        @Setup
+        public void setUp() throws Exception {
+            server = ServerProcess.start("TCP", Map.of(
+                    "concurrencyModel", concurrencyModel,
+                    "keepAlive", "true",
+                    "poolSize", "256",
+                    "journal", journal));
+        }
+
+        @TearDown
+        public void tearDown() { server.stop(); }
+    }
+
+    @State(Scope.Thread)
+    public static class Connections {
+
+        @Param({"16", "1024", "16384"})
+        public int messageLength;
+
+        @Param({"1", "16", "64"})
+        public int concurrency;
+
+        private SocketChannel channels[];
+        private ByteBuffer requests[];
+        private ByteBuffer response = ByteBuffer.allocateDirect(64);
+
+        @Setup
+        public void setUp(ServerState s) throws Throwable {
+
+            Object corpus = (Object) GENERATE.invokeExact(concurrency,
+                    messageLength, (Object) "fixed", (Object) new Random(1));
+            Object cursor = (Object) CURSOR.invokeExact(corpus, 0);
+
+            InetSocketAddress address = new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), s.server.port());
+            channels = new SocketChannel[concurrency];
+            requests = new ByteBuffer[concurrency];
+            for (int i = 0; i < concurrency; ++i) {
+                channels[i] = SocketChannel.open(address);
+                channels[i].setOption(StandardSocketOptions.TCP_NODELAY, true);
+                byte line[] = (byte[]) (Object) LINE.invokeExact(
+                        (Object) NEXT.invokeExact(cursor));
+                requests[i] = ByteBuffer.allocateDirect(line.length);
+                requests[i].put(line).flip();
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            for (SocketChannel c: channels) { c.close(); }
+        }
+    }
+
+    @Benchmark
+    public int exchange(Connections c) throws IOException {
+
+        for (int i = 0; i < c.concurrency; ++i) {
+            ByteBuffer request = c.requests[i];
+            request.rewind();
+            while (request.hasRemaining()) { c.channels[i].write(request); }
+        }
+
+        int n = 0;
+        for (int i = 0; i < c.concurrency; ++i) {
+            n += readLine(c.channels[i], c.response);
+        }
+        return n;
+    }
+
+    // a response ("OK" or "BUSY") is the only thing in flight
+    private static int readLine(SocketChannel channel, ByteBuffer b)
+            throws IOException {
+        b.clear();
+        while (b.position() == 0 || b.get(b.position() - 1) != '\n') {
+            if (channel.read(b) < 0) {
+                throw new EOFException("connection closed by server");
+            }
+        }
+        return b.position();
+    }
+}
@@ -0,0 +1,87 @@
+package bench;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// the cost of a TLS connection per message (protocol=TLS, no keep-alive)
+// over loopback with a server process: connect, handshake, a short request
+// and its response, close. -p resumption=true,false shows what the resumed
+// handshakes save; the server prints the full / resumed counts on exit
+// (in its log) and TcpRoundTrip shows the exchange without any handshake
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TlsHandshakeBenchmark {
+
+    private static final MethodHandle INIT = Hooks.method("TLSConnector",
+            "init", String.class, String[].class, boolean.class);
+    private static final MethodHandle SECURE = Hooks.method("TLSConnector",
+            "secure", Socket.class, String.class, int.class);
+
+    private static final byte REQUEST[] = "ABCDEFGHIJKLMNOP\n".getBytes();
+
+    @Param({"true", "false"})
+    public boolean resumption;
+
+    @Param({"TLSv1.3", "TLSv1.2"})
+    public String tlsProtocol;
+
+    private ServerProcess server;
+    private String host;
+
+    @Setup
+    public void setUp() throws Throwable {
+        // the server makes its key and certificate in its directory
+        server = ServerProcess.start("TLS", Map.of(
+                "concurrencyModel", "thread-per-request",
+                "tlsProtocols", tlsProtocol));
+        host = InetAddress.getLoopbackAddress().getHostAddress();
+        INIT.invokeExact((Object) server.dir().resolve("server.crt").toString(),
+                (Object) null, resumption);
+    }
+
+    @TearDown
+    public void tearDown() { server.stop(); }
+
+    @Benchmark
+    public int connection() throws Throwable {
+
+        try (Socket socket = (Socket) (Object) SECURE.invokeExact(
+                (Object) new Socket(host, server.port()), (Object) host,
+                server.port())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(REQUEST);
+            out.flush();
+            InputStream in = socket.getInputStream();
+            int n = 0, b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) { throw new EOFException("connection closed"); }
+                ++n;
+            }
+            return n;
+        }
+    }
+}
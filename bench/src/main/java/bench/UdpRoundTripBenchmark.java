@@ -0,0 +1,131 @@
+package bench;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// a full UDP exchange over loopback with a server process (serverDelay=0):
+// an operation sends a request from each of the concurrency sockets, then
+// receives all the responses. A lost datagram (the server receive buffer
+// overflowing) is sent again after RESEND_TIMEOUT, as a client would
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UdpRoundTripBenchmark {
+
+    private static final MethodHandle GENERATE = Hooks.method("PayloadCorpus",
+            "generate", int.class, int.class, String.class, Random.class);
+    private static final MethodHandle CURSOR =
+            Hooks.method("PayloadCorpus", "cursor", int.class);
+    private static final MethodHandle NEXT =
+            Hooks.method("PayloadCorpus$Cursor", "next");
+    private static final MethodHandle LINE =
+            Hooks.getter("PayloadCorpus$Payload", "line");
+
+    private static final int RESEND_TIMEOUT = 200; // milliseconds
+
+    @State(Scope.Benchmark)
+    public static class ServerState {
+
+        @Param({"single", "thread-per-request", "pool", "virtual", "nio"})
+        public String concurrencyModel;
+
+        private ServerProcess server;
+
+        @Setup
+        public void setUp() throws Exception {
+            server = ServerProcess.start("UDP", Map.of(
+                    "concurrencyModel", concurrencyModel,
+                    "udpReceiveBuffer", "4194304"));
+        }
+
+        @TearDown
+        public void tearDown() { server.stop(); }
+    }
+
+    @State(Scope.Thread)
+    public static class Sockets {
+
+        @Param({"16", "1024", "16384"})
+        public int messageLength;
+
+        @Param({"1", "16", "64"})
+        public int concurrency;
+
+        private DatagramSocket sockets[];
+        private DatagramPacket requests[];
+        private DatagramPacket response =
+                new DatagramPacket(new byte[64], 64);
+
+        @Setup
+        public void setUp(ServerState s) throws Throwable {
+
+            Object corpus = (Object) GENERATE.invokeExact(concurrency,
+                    messageLength, (Object) "fixed", (Object) new Random(1));
+            Object cursor = (Object) CURSOR.invokeExact(corpus, 0);
+
+            InetSocketAddress address = new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), s.server.port());
+            sockets = new DatagramSocket[concurrency];
+            requests = new DatagramPacket[concurrency];
+            for (int i = 0; i < concurrency; ++i) {
+                sockets[i] = new DatagramSocket();
+                sockets[i].connect(address);
+                sockets[i].setSoTimeout(RESEND_TIMEOUT);
+                byte line[] = (byte[]) (Object) LINE.invokeExact(
+                        (Object) NEXT.invokeExact(cursor));
+                requests[i] = new DatagramPacket(line, line.length);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            for (DatagramSocket socket: sockets) { socket.close(); }
+        }
+    }
+
+    @Benchmark
+    public int exchange(Sockets s) throws IOException {
+
+        for (int i = 0; i < s.concurrency; ++i) {
+            s.sockets[i].send(s.requests[i]);
+        }
+
+        int n = 0;
+        for (int i = 0; i < s.concurrency; ++i) {
+            while (true) {
+                try {
+                    s.response.setLength(s.response.getData().length);
+                    s.sockets[i].receive(s.response);
+                    break;
+                } catch (SocketTimeoutException e) {
+                    s.sockets[i].send(s.requests[i]);
+                }
+            }
+            n += s.response.getLength();
+        }
+        return n;
+    }
+}
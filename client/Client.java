@@ -1,15 +1,30 @@
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.ConnectException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 
 
@@ -23,31 +38,110 @@ class Client {
     private int pause;
     private int msgLength;
 
-    private final static AtomicLong nSent = new AtomicLong();
+    private int payloadCount;
+    private String payloadSizes;
+    private Long payloadSeed; // null: not reproducible
+    private String payloadFile;
+    // the request payloads of all the clients
+    static PayloadCorpus corpus;
+
+    private boolean keepAlive;
+    private String connectionPool;
+    private int poolIdleTimeout;
+
+    private boolean binaryFraming;
+    private int maxInFlight;
+
+    private int udpFragmentSize;
+    // requests outstanding per UDP client (see ReliableUDPClient),
+    // 0: one at a time, on a new socket each, as UDPClient
+    private int udpWindow;
+    private int udpMaxRetransmits;
+
+    // TCP connections with TLS over them (see TLSConnector)
+    static boolean tls;
+
+    // null: no compression
+    static Compression.Codec codec;
+    // the shorter payloads go uncompressed
+    static int compressionThreshold;
+
+    private String engine;
+    private int nioThreads;
+
+    private int latencyInterval;
+    private int duration; // seconds, 0: until stopped
+    private String resultsFile; // null: none
+    // as read, for the results
+    private Properties config;
+    private double targetRate;
+    // open loop: how the load changes over time
+    private LoadProfile profile;
+    private SaturationSearch search;
+    // open loop only
+    static Timeline timeline;
+    // the results are from then on (after the warm-up, if any)
+    private static volatile long measureStart;
+    private static volatile long sentAtMeasureStart;
+    private static volatile long failedAtMeasureStart;
+    private static volatile long busyAtMeasureStart;
+    // print each sentence with its response
+    static boolean printExchanges;
+
+    final static AtomicLong nSent = new AtomicLong();
+    // exchanges failed (the client thread or flow goes on with the next)
+    final static AtomicLong nFailed = new AtomicLong();
+    // the pause after a connection refused (no server yet or any more),
+    // instead of failing at once again
+    static final int REFUSED_BACKOFF = 100; // milliseconds
+    // requests refused by the server (its saturation policy answers
+    // BUSY): neither failed nor answered, so left out of the latencies
+    // and the throughput
+    final static AtomicLong nBusy = new AtomicLong();
+    // the response of the server refusing a request (trimmed)
+    static final String BUSY = "BUSY";
+    // fragmented UDP messages ids
+    final static AtomicInteger udpMessageId = new AtomicInteger();
 
-    private static final Random RND = new Random();
-    // random string charset
-    private static final String CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-    private static final String ENDL = System.getProperty("line.separator");
 
     // expecting to receive a responce in 120 seconds
-    private static final int TIMEOUT = 120000;
+    static final int TIMEOUT = 120000;
     // maximum client pause = 20 seconds;
     private static final int MAX_PAUSE = 20000;
 
     private static final String PROP_FILE = "client.properties";
 
+    // IPv4 limit for the UDP payload
+    private static final int MAX_UDP_PAYLOAD = 65507;
 
-    // generate random string of length n
-    private static String generateMessage(int n) {
+    // default number of the pre-built payloads
+    private static final int DEFAULT_PAYLOAD_COUNT = 1024;
+
+    // default idle pooled connection lifetime, milliseconds
+    private static final int DEFAULT_POOL_IDLE_TIMEOUT = 30000;
+
+    // the server certificate, see TLSConnector
+    private static final String DEFAULT_TLS_CERTIFICATE = "server.crt";
+
+    // default shortest payload to compress, bytes
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    // the run results, see RunResults
+    private static final String DEFAULT_RESULTS_FILE = "results.json";
+
+    // load profile defaults, see LoadProfile and SaturationSearch
+    private static final double DEFAULT_LOAD_STEP_SECONDS = 10;
+    private static final int DEFAULT_LOAD_STEPS = 5;
+    private static final double DEFAULT_SPIKE_SECONDS = 1;
+    private static final double DEFAULT_SEARCH_START = 100; // requests/s
+    private static final double DEFAULT_SEARCH_FACTOR = 1.5;
+    private static final int DEFAULT_SEARCH_REFINEMENTS = 3;
+    private static final double DEFAULT_SLO_P99 = 100; // milliseconds
+    private static final double DEFAULT_SLO_ERROR_RATE = 1; // percent
+
+    // default retransmissions of a windowed UDP request before it is lost
+    private static final int DEFAULT_UDP_MAX_RETRANSMITS = 5;
 
-        StringBuilder sb = new StringBuilder();
-        while (sb.length() < n) {
-            int i = (int) (RND.nextFloat() * CHARS.length());
-            sb.append(CHARS.charAt(i));
-        }
-        return sb.toString() + ENDL;
-    }
 
     // read client settings
     private void readSettings() {
@@ -59,7 +153,7 @@ class Client {
             System.exit(1);
         }
 
-        Properties config = new Properties();
+        config = new Properties();
         try {
             config.load(iProps);
         } catch (IOException e) {
@@ -99,11 +193,14 @@ class Client {
             System.exit(1);
         }
         protocol = protocol.trim().toUpperCase();
-        if (!(protocol.equals("TCP") || protocol.equals("UDP"))) {
+        if (!(protocol.equals("TCP") || protocol.equals("UDP") ||
+              protocol.equals("TLS"))) {
             System.err.println("unsupported protocol: " + protocol);
             System.exit(1);
         }
         System.out.println("protocol = " + protocol);
+        tls = protocol.equals("TLS");
+        if (tls) { readTLSSettings(config); }
 
 
         String sNThreads = config.getProperty("nClientThreads");
@@ -119,15 +216,33 @@ class Client {
         }
         System.out.println("number of client threads = " + nThreads);
 
+        // optional: open loop, the requests per second of all the threads
+        // together (0 = closed loop: exchange, pause, exchange...)
+        targetRate = 0;
+        String sRate = config.getProperty("targetRate");
+        if (sRate != null && !sRate.isEmpty()) {
+            targetRate = Double.parseDouble(sRate.trim());
+            if (!(targetRate >= 0)) {
+                System.err.println("target rate must not be negative");
+                System.exit(1);
+            }
+        }
+        System.out.println("target rate = " + targetRate + " requests/s");
+        readLoadProfile(config);
+
         String sPause = config.getProperty("clientThreadPause");
+        if ((targetRate > 0 || search != null) &&
+                (sPause == null || sPause.isEmpty())) {
+            sPause = "1"; // not used
+        }
         if (sPause == null || sPause.isEmpty()) {
             System.err.println(
                     "please specify client pause in configuration file");
             System.exit(1);
         }
         pause = Integer.parseInt(sPause);
-        if (pause < 1 || pause > MAX_PAUSE) {
-            System.err.println("client pause must lie in range [1, " +
+        if (pause < 0 || pause > MAX_PAUSE) {
+            System.err.println("client pause must lie in range [0, " +
                     MAX_PAUSE + "] milliseconds");
             System.exit(1);
         }
@@ -145,6 +260,383 @@ class Client {
             System.exit(1);
         }
         System.out.println("message length = " + msgLength);
+
+        // optional: the payloads are built once, this many of them
+        payloadCount = DEFAULT_PAYLOAD_COUNT;
+        String sPayloadCount = config.getProperty("payloadCount");
+        if (sPayloadCount != null && !sPayloadCount.isEmpty()) {
+            payloadCount = Integer.parseInt(sPayloadCount.trim());
+            if (payloadCount < 1) {
+                System.err.println("payload count must be positive");
+                System.exit(1);
+            }
+        }
+
+        // optional: their sizes, see PayloadCorpus.generate()
+        payloadSizes = config.getProperty("payloadSizes");
+        if (payloadSizes == null || payloadSizes.isEmpty()) {
+            payloadSizes = "fixed";
+        }
+        payloadSizes = payloadSizes.trim().toLowerCase();
+        if (!(payloadSizes.equals("fixed") ||
+              payloadSizes.equals("uniform") ||
+              payloadSizes.equals("exponential"))) {
+            System.err.println("unsupported payload sizes: " + payloadSizes);
+            System.exit(1);
+        }
+
+        // optional: the same payloads on every run
+        String sPayloadSeed = config.getProperty("payloadSeed");
+        if (sPayloadSeed != null && !sPayloadSeed.isEmpty()) {
+            payloadSeed = Long.parseLong(sPayloadSeed.trim());
+        }
+
+        // optional: load the payloads (a line each) instead
+        payloadFile = config.getProperty("payloadFile");
+        if (payloadFile != null && payloadFile.trim().isEmpty()) {
+            payloadFile = null;
+        }
+        if (payloadFile != null) {
+            payloadFile = payloadFile.trim();
+            System.out.println("payload file = " + payloadFile);
+        } else {
+            System.out.println("payload count = " + payloadCount);
+            System.out.println("payload sizes = " + payloadSizes);
+            System.out.println("payload seed = " +
+                    (payloadSeed == null ? "random" : payloadSeed));
+        }
+
+        // optional: "line" or "binary" (see Framing) TCP framing
+        String framing = config.getProperty("framing");
+        if (framing == null || framing.isEmpty()) { framing = "line"; }
+        framing = framing.trim().toLowerCase();
+        if (!(framing.equals("line") || framing.equals("binary"))) {
+            System.err.println("unsupported framing: " + framing);
+            System.exit(1);
+        }
+        binaryFraming = framing.equals("binary");
+        if (!protocol.equals("UDP")) {
+            System.out.println("framing = " + framing);
+        }
+
+        // optional: binary framing only, requests in flight per connection
+        maxInFlight = 1;
+        String sMaxInFlight = config.getProperty("maxInFlightPerConnection");
+        if (sMaxInFlight != null && !sMaxInFlight.isEmpty()) {
+            maxInFlight = Integer.parseInt(sMaxInFlight.trim());
+            if (maxInFlight < 1) {
+                System.err.println(
+                        "max in-flight requests per connection must be positive");
+                System.exit(1);
+            }
+        }
+        if (binaryFraming) {
+            System.out.println(
+                    "max in-flight requests per connection = " + maxInFlight);
+        }
+
+        // optional: split the UDP messages into datagrams carrying up to
+        // this many bytes (see UDPFraming), 0 = send as a single datagram
+        udpFragmentSize = 0;
+        String sFragmentSize = config.getProperty("udpFragmentSize");
+        if (sFragmentSize != null && !sFragmentSize.isEmpty()) {
+            udpFragmentSize = Integer.parseInt(sFragmentSize.trim());
+            if (udpFragmentSize < 0 ||
+                    udpFragmentSize > MAX_UDP_PAYLOAD - UDPFraming.HEADER_SIZE) {
+                System.err.println("UDP fragment size must lie in range [0, " +
+                        (MAX_UDP_PAYLOAD - UDPFraming.HEADER_SIZE) + "]");
+                System.exit(1);
+            }
+        }
+        if (protocol.equals("UDP")) {
+            System.out.println("UDP fragment size = " + udpFragmentSize);
+        }
+
+        // optional: sequenced requests outstanding per UDP client, which
+        // are retransmitted (see ReliableUDPClient), 0 = one at a time
+        udpWindow = 0;
+        String sWindow = config.getProperty("udpWindow");
+        if (sWindow != null && !sWindow.isEmpty()) {
+            udpWindow = Integer.parseInt(sWindow.trim());
+            if (udpWindow < 0) {
+                System.err.println("UDP window must not be negative");
+                System.exit(1);
+            }
+        }
+        udpMaxRetransmits = DEFAULT_UDP_MAX_RETRANSMITS;
+        String sRetransmits = config.getProperty("udpMaxRetransmits");
+        if (sRetransmits != null && !sRetransmits.isEmpty()) {
+            udpMaxRetransmits = Integer.parseInt(sRetransmits.trim());
+            if (udpMaxRetransmits < 0) {
+                System.err.println(
+                        "UDP retransmissions must not be negative");
+                System.exit(1);
+            }
+        }
+        if (protocol.equals("UDP")) {
+            System.out.println("UDP window = " + udpWindow);
+        }
+        if (protocol.equals("UDP") && udpWindow > 0) {
+            System.out.println(
+                    "UDP max retransmissions = " + udpMaxRetransmits);
+        }
+
+        // optional: compress the payloads (see Compression) of at least
+        // compressionThreshold bytes, "none" or "deflate"; UDP and binary
+        // framing only, the latter once the server says it takes them
+        String compression = config.getProperty("compression");
+        if (compression == null || compression.isEmpty()) {
+            compression = "none";
+        }
+        compression = compression.trim().toLowerCase();
+        codec = Compression.codec(compression);
+        if (codec == null && !compression.equals("none")) {
+            System.err.println("unsupported compression: " + compression);
+            System.exit(1);
+        }
+        if (codec != null && !protocol.equals("UDP") && !binaryFraming) {
+            System.out.println(
+                    "compression is not used with the line framing");
+            codec = null;
+        }
+        System.out.println("compression = " +
+                (codec == null ? "none" : codec.name()));
+
+        compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+        String sThreshold = config.getProperty("compressionThreshold");
+        if (sThreshold != null && !sThreshold.isEmpty()) {
+            compressionThreshold = Integer.parseInt(sThreshold.trim());
+            if (compressionThreshold < 0) {
+                System.err.println(
+                        "compression threshold must not be negative");
+                System.exit(1);
+            }
+        }
+        if (codec != null) {
+            System.out.println("compression threshold = " +
+                    compressionThreshold + " bytes");
+        }
+
+        // optional: reuse TCP connections (the server must keep them alive)
+        keepAlive = Boolean.parseBoolean(
+                config.getProperty("keepAlive", "false").trim());
+        System.out.println("keep-alive = " + keepAlive);
+
+        // optional: "thread" (a pool per client thread) or "shared"
+        connectionPool = config.getProperty("connectionPool");
+        if (connectionPool == null || connectionPool.isEmpty()) {
+            connectionPool = "thread";
+        }
+        connectionPool = connectionPool.trim().toLowerCase();
+        if (!(connectionPool.equals("thread") ||
+              connectionPool.equals("shared"))) {
+            System.err.println("unsupported connection pool: " + connectionPool);
+            System.exit(1);
+        }
+
+        poolIdleTimeout = DEFAULT_POOL_IDLE_TIMEOUT;
+        String sIdleTimeout = config.getProperty("poolIdleTimeout");
+        if (sIdleTimeout != null && !sIdleTimeout.isEmpty()) {
+            poolIdleTimeout = Integer.parseInt(sIdleTimeout.trim());
+            if (poolIdleTimeout < 1) {
+                System.err.println("pool idle timeout must be positive");
+                System.exit(1);
+            }
+        }
+        if (keepAlive) {
+            System.out.println("connection pool = " + connectionPool);
+            System.out.println(
+                    "pool idle timeout = " + poolIdleTimeout + " milliseconds");
+        }
+
+        // optional: print the latency percentiles of the last interval
+        // every this many seconds (0 = on exit only)
+        latencyInterval = 0;
+        String sInterval = config.getProperty("latencyInterval");
+        if (sInterval != null && !sInterval.isEmpty()) {
+            latencyInterval = Integer.parseInt(sInterval.trim());
+            if (latencyInterval < 0) {
+                System.err.println("latency interval must not be negative");
+                System.exit(1);
+            }
+        }
+        System.out.println(
+                "latency interval = " + latencyInterval + " seconds");
+
+        // optional: print the exchanged messages
+        printExchanges = Boolean.parseBoolean(
+                config.getProperty("printExchanges", "false").trim());
+        System.out.println("print exchanges = " + printExchanges);
+
+        // optional: end the run after this many seconds (0 = when stopped)
+        duration = 0;
+        String sDuration = config.getProperty("duration");
+        if (sDuration != null && !sDuration.isEmpty()) {
+            duration = Integer.parseInt(sDuration.trim());
+            if (duration < 0) {
+                System.err.println("duration must not be negative");
+                System.exit(1);
+            }
+        }
+        System.out.println("duration = " + duration + " seconds");
+
+        // optional: where the results go when the run ends (see
+        // RunResults), "off" for nowhere
+        resultsFile = config.getProperty("resultsFile");
+        if (resultsFile == null || resultsFile.isEmpty()) {
+            resultsFile = DEFAULT_RESULTS_FILE;
+        }
+        resultsFile = resultsFile.trim();
+        System.out.println("results file = " + resultsFile);
+        if (resultsFile.equals("off")) { resultsFile = null; }
+
+        // optional: "thread" (a thread per client) or "nio" (the clients
+        // are driven by a few selector threads)
+        engine = config.getProperty("clientEngine");
+        if (engine == null || engine.isEmpty()) { engine = "thread"; }
+        engine = engine.trim().toLowerCase();
+        if (!(engine.equals("thread") || engine.equals("nio"))) {
+            System.err.println("unsupported client engine: " + engine);
+            System.exit(1);
+        }
+        System.out.println("client engine = " + engine);
+
+        nioThreads = Runtime.getRuntime().availableProcessors();
+        String sNioThreads = config.getProperty("nioThreads");
+        if (sNioThreads != null && !sNioThreads.isEmpty()) {
+            nioThreads = Integer.parseInt(sNioThreads.trim());
+            if (nioThreads < 1) {
+                System.err.println("number of NIO threads must be positive");
+                System.exit(1);
+            }
+        }
+        if (engine.equals("nio")) {
+            System.out.println("NIO threads = " + nioThreads);
+        }
+        if (engine.equals("nio") && tls) {
+            System.err.println("TLS is not supported by the nio engine");
+            System.exit(1);
+        }
+        if (engine.equals("nio") && protocol.equals("UDP") && udpWindow > 0) {
+            System.err.println("the UDP window is not supported by " +
+                    "the nio engine");
+            System.exit(1);
+        }
+    }
+
+    // optional: the open loop load profile (see LoadProfile) and, for
+    // the search, the SLO (see SaturationSearch); profile stays null for
+    // the closed loop
+    private void readLoadProfile(Properties config) {
+
+        String shape = config.getProperty("loadProfile", "constant")
+                .trim().toLowerCase();
+        if (!Arrays.asList(LoadProfile.SHAPES).contains(shape)) {
+            System.err.println("unsupported load profile: " + shape);
+            System.exit(1);
+        }
+        boolean isSearch = shape.equals("search");
+        if (targetRate == 0 && !isSearch && !shape.equals("constant")) {
+            System.err.println("the " + shape + " load profile needs " +
+                    "a target rate");
+            System.exit(1);
+        }
+
+        // seconds, left out of the results
+        double warmup = readDouble(config, "warmup", 0);
+        if (!(warmup >= 0)) {
+            System.err.println("warm-up must not be negative");
+            System.exit(1);
+        }
+        System.out.println("warm-up = " + warmup + " seconds");
+        if (targetRate == 0 && !isSearch) {
+            // closed loop, only the warm-up applies
+            profile = new LoadProfile("constant", 0, 0, 0, 1, 0, warmup);
+            return;
+        }
+
+        double start = readDouble(config, "loadStart", isSearch ?
+                DEFAULT_SEARCH_START : targetRate / 10);
+        double stepSeconds = readDouble(config, "loadStepSeconds",
+                DEFAULT_LOAD_STEP_SECONDS);
+        int steps = (int) readDouble(config, "loadSteps", DEFAULT_LOAD_STEPS);
+        double spikeSeconds = readDouble(config, "spikeSeconds",
+                DEFAULT_SPIKE_SECONDS);
+        if (!(start > 0) || !(stepSeconds > 0) || steps < 1 ||
+                !(spikeSeconds > 0)) {
+            System.err.println("loadStart, loadStepSeconds, loadSteps and " +
+                    "spikeSeconds must be positive");
+            System.exit(1);
+        }
+        profile = new LoadProfile(shape, start, targetRate, stepSeconds,
+                steps, spikeSeconds, warmup);
+        System.out.println("load profile = " + profile);
+
+        if (!isSearch) { return; }
+        // the target rate, if any, caps the search
+        double sloP99 = readDouble(config, "sloP99", DEFAULT_SLO_P99);
+        double sloErrorRate = readDouble(config, "sloErrorRate",
+                DEFAULT_SLO_ERROR_RATE);
+        double factor = readDouble(config, "searchFactor",
+                DEFAULT_SEARCH_FACTOR);
+        int refinements = (int) readDouble(config, "searchRefinements",
+                DEFAULT_SEARCH_REFINEMENTS);
+        if (!(sloP99 > 0) || !(sloErrorRate >= 0) || !(factor > 1) ||
+                refinements < 0) {
+            System.err.println("sloP99 must be positive, sloErrorRate and " +
+                    "searchRefinements not negative, searchFactor above 1");
+            System.exit(1);
+        }
+        System.out.println("SLO = p99 " + sloP99 + " ms, errors " +
+                sloErrorRate + "%");
+        search = new SaturationSearch(profile, start, targetRate, factor,
+                refinements, stepSeconds, sloP99, sloErrorRate);
+    }
+
+    private static double readDouble(Properties config, String name,
+                                     double defaultValue) {
+        String s = config.getProperty(name);
+        if (s == null || s.trim().isEmpty()) { return defaultValue; }
+        try {
+            return Double.parseDouble(s.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("invalid " + name + ": " + s);
+            System.exit(1);
+            return defaultValue;
+        }
+    }
+
+    // the server certificate (see TLSConnector) and the sessions
+    private void readTLSSettings(Properties config) {
+
+        String certificate = config.getProperty("tlsCertificate");
+        if (certificate == null || certificate.isEmpty()) {
+            certificate = DEFAULT_TLS_CERTIFICATE;
+        }
+        certificate = certificate.trim();
+        System.out.println("TLS certificate = " + certificate);
+
+        // optional: e.g. TLSv1.3 (default: the JDK ones)
+        String protocols[] = null;
+        String sProtocols = config.getProperty("tlsProtocols");
+        if (sProtocols != null && !sProtocols.trim().isEmpty()) {
+            protocols = sProtocols.trim().split("\\s*,\\s*");
+            System.out.println(
+                    "TLS protocols = " + String.join(",", protocols));
+        }
+
+        // optional: resume the cached sessions (default: true)
+        boolean resumption = Boolean.parseBoolean(
+                config.getProperty("tlsResumption", "true").trim());
+        System.out.println("TLS session resumption = " + resumption);
+
+        try {
+            TLSConnector.init(certificate, protocols, resumption);
+        } catch (IOException | GeneralSecurityException e) {
+            System.err.println("cannot set up TLS with " + certificate +
+                    ": " + e.getMessage());
+            System.exit(1);
+        }
     }
 
     // need this to get received messages count on Ctrl + C
@@ -154,23 +646,300 @@ class Client {
             @Override
             public void run() {
                 System.out.println("\n\n" + nSent.get() + " messages sent");
+                // after the warm-up
+                double seconds = (System.nanoTime() - measureStart) / 1e9;
+                long sent = nSent.get() - sentAtMeasureStart;
+                System.out.println(String.format(
+                        "achieved rate = %.1f requests/s", sent / seconds) +
+                        (timeline != null ? String.format(
+                        " (%s, behind schedule by %d requests)",
+                        profile, timeline.behind()) : ""));
+                System.out.println(String.format(
+                        "throughput = %.1f responses/s, %d refused (BUSY), " +
+                        "%d failed", LatencyRecorder.answered() / seconds,
+                        nBusy.get() - busyAtMeasureStart,
+                        nFailed.get() - failedAtMeasureStart));
+                if (keepAlive && engine.equals("thread")) {
+                    System.out.println(ConnectionPool.report());
+                }
+                if (codec != null) {
+                    System.out.println(Compression.report());
+                }
+                if (tls) { System.out.println(TLSConnector.report()); }
+                if (protocol.equals("UDP") && udpWindow > 0) {
+                    System.out.println(ReliableUDPClient.report());
+                }
+                System.out.print(LatencyRecorder.report());
+                if (resultsFile != null) { writeResults(seconds, sent); }
             }
         });
     }
 
+    private void writeResults(double seconds, long sent) {
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        for (String name: new TreeSet<>(config.stringPropertyNames())) {
+            results.put("config." + name, config.getProperty(name).trim());
+        }
+        results.put("seconds", seconds);
+        results.put("sent", sent);
+        // the answered requests only, not the refused ones
+        results.put("throughput", LatencyRecorder.answered() / seconds);
+        results.put("errors", nFailed.get() - failedAtMeasureStart);
+        results.put("busy", nBusy.get() - busyAtMeasureStart);
+        if (protocol.equals("UDP") && udpWindow > 0) {
+            results.put("lost", ReliableUDPClient.lost());
+        }
+        for (Map.Entry<String, Number> e:
+                LatencyRecorder.summary().entrySet()) {
+            results.put("latency." + e.getKey(), e.getValue());
+        }
+        if (search != null) { results.putAll(search.results()); }
+        try {
+            RunResults.write(resultsFile, results);
+            System.out.println("results written to " + resultsFile);
+        } catch (IOException e) {
+            System.err.println("cannot write the results to " + resultsFile +
+                    ": " + e.getMessage());
+        }
+    }
+
+    // the failed exchanges, the refused requests and the lost windowed
+    // UDP requests so far
+    static long errors() {
+        return nFailed.get() + nBusy.get() + ReliableUDPClient.lost();
+    }
+
+    // leave what happened so far (the warm-up) out of the results
+    static void startMeasuring() {
+        measureStart = System.nanoTime();
+        sentAtMeasureStart = nSent.get();
+        failedAtMeasureStart = nFailed.get();
+        busyAtMeasureStart = nBusy.get();
+        LatencyRecorder.startMeasuring();
+    }
+
+    // open loop: the intended start times of the exchanges, one every
+    // 1 / rate seconds (the rate of the load profile at the time), taken
+    // in turn by all the client threads. The latency is measured from the
+    // intended start, so a late send (all the threads busy waiting for
+    // a slow server) counts against the server instead of silently
+    // lowering the load (the "coordinated omission")
+    static class Timeline {
+
+        private final long start = System.nanoTime();
+        private final LoadProfile profile;
+        // the intended start of the next exchange
+        private final AtomicLong next = new AtomicLong(start);
+
+        Timeline(LoadProfile profile) { this.profile = profile; }
+
+        // take the next slot, return its intended start time
+        long next() {
+            while (true) {
+                long t = next.get();
+                double rate = profile.rate((t - start) / 1e9);
+                if (next.compareAndSet(t, t + (long) (1e9 / rate))) {
+                    return t;
+                }
+            }
+        }
+
+        // drop the slots due but not taken yet, the next one is now
+        // (each search step starts afresh)
+        void restart() { next.set(System.nanoTime()); }
+
+        // wait for the next slot, return its intended start time
+        long await() {
+            long t = next();
+            long d;
+            while ((d = t - System.nanoTime()) > 0) { LockSupport.parkNanos(d); }
+            return t;
+        }
+
+        // the slots due but not taken yet (at the current rate)
+        long behind() {
+            long now = System.nanoTime();
+            long late = now - next.get();
+            return late <= 0 ? 0 :
+                    (long) (late / 1e9 * profile.rate((now - start) / 1e9));
+        }
+    }
+
+    // the (intended) start time of the next exchange: either wait for
+    // its slot (open loop) or now
+    private static long nextStart() {
+        return timeline == null ? System.nanoTime() : timeline.await();
+    }
+
+    // a connection to the server, with TLS over it for protocol=TLS
+    // (the handshake is done here)
+    static Socket connect(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        return tls ? TLSConnector.secure(socket, host, port) : socket;
+    }
+
+    // the compressed payload for the data (see Compression), null if
+    // they are to go as they are: too short or not getting any smaller
+    static byte[] compressed(byte data[]) {
+        if (codec == null || data.length < compressionThreshold) {
+            return null;
+        }
+        return Compression.compress(codec, data, 0, data.length);
+    }
+
+    // the datagrams of a UDP message: the line itself or its fragments
+    // (fragmentSize > 0); the compressed ones always go as fragments
+    static byte[][] datagrams(byte line[], int fragmentSize) {
+
+        byte packed[] = compressed(line);
+        if (packed != null) {
+            return UDPFraming.fragment(packed, udpMessageId.incrementAndGet(),
+                    fragmentSize > 0 ? fragmentSize :
+                    MAX_UDP_PAYLOAD - UDPFraming.HEADER_SIZE,
+                    UDPFraming.FLAG_COMPRESSED);
+        }
+        return fragmentSize > 0 ? UDPFraming.fragment(line,
+                udpMessageId.incrementAndGet(), fragmentSize) :
+                new byte[][] {line};
+    }
+
+    // the same for a sequenced request (see ReliableUDPClient): always
+    // fragments, with the sequence number as their message id
+    static byte[][] sequencedDatagrams(byte line[], int fragmentSize,
+                                       int sequence) {
+
+        int size = fragmentSize > 0 ? fragmentSize :
+                MAX_UDP_PAYLOAD - UDPFraming.HEADER_SIZE;
+        byte packed[] = compressed(line);
+        if (packed != null) {
+            return UDPFraming.fragment(packed, sequence, size, (byte)
+                    (UDPFraming.FLAG_SEQUENCED | UDPFraming.FLAG_COMPRESSED));
+        }
+        return UDPFraming.fragment(line, sequence, size,
+                UDPFraming.FLAG_SEQUENCED);
+    }
+
+    // after a failed exchange, see REFUSED_BACKOFF
+    private static void backOff(IOException e) {
+        if (!(e instanceof ConnectException)) { return; }
+        try { Thread.sleep(REFUSED_BACKOFF); }
+        catch (InterruptedException dummy) {}
+    }
+
+    // closed loop only; none at all for 0 (not even a yield)
+    private static void closedLoopPause(int pause) {
+        if (timeline != null || pause == 0) { return; }
+        try { Thread.sleep(pause); }
+        catch (InterruptedException dummy) {}
+    }
+
+    private void startMeasuringAfter(double seconds) {
+
+        Thread t = new Thread(() -> {
+            try { Thread.sleep((long) (seconds * 1000)); }
+            catch (InterruptedException dummy) {}
+            System.out.println("warm-up over");
+            startMeasuring();
+        }, "warm-up");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // the exit runs the hook (the reports, the results)
+    private void stopAfter(int seconds) {
+
+        Thread stopper = new Thread(() -> {
+            try { Thread.sleep(seconds * 1000L); }
+            catch (InterruptedException dummy) {}
+            System.exit(0);
+        }, "run-stopper");
+        stopper.setDaemon(true);
+        stopper.start();
+    }
+
+    private void startLatencyReporter() {
+
+        Thread reporter = new Thread(() -> {
+            while (true) {
+                try { Thread.sleep(latencyInterval * 1000L); }
+                catch (InterruptedException dummy) {}
+                System.out.print(LatencyRecorder.snapshot(latencyInterval));
+            }
+        }, "latency-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
     public void start() {
 
         readSettings();
+        buildCorpus();
+        startMeasuring();
+        if (targetRate > 0 || search != null) {
+            timeline = new Timeline(profile);
+        }
         addNSentHook();
+        if (latencyInterval > 0) { startLatencyReporter(); }
+        if (duration > 0) { stopAfter(duration); }
+        if (search != null) {
+            Thread t = new Thread(search, "saturation-search");
+            t.setDaemon(true);
+            t.start();
+        } else if (profile.warmup() > 0) {
+            startMeasuringAfter(profile.warmup());
+        }
+
+        if (engine.equals("nio")) {
+            startNio();
+            return;
+        }
+
+        // the windowed UDP clients resolve the server address once
+        InetSocketAddress udpServer = null;
+        if (protocol.equals("UDP") && udpWindow > 0) {
+            udpServer = new InetSocketAddress(host, port);
+            if (udpServer.isUnresolved()) {
+                System.err.println("cannot resolve " + host);
+                System.exit(1);
+            }
+        }
+
+        ConnectionPool sharedPool = null;
+        if (keepAlive && connectionPool.equals("shared")) {
+            sharedPool = new ConnectionPool(host, port, TIMEOUT, poolIdleTimeout);
+        }
 
         for (int i = 0; i < nThreads; ++i) {
-            if (protocol.equals("TCP")) {
+            if (!protocol.equals("UDP") && binaryFraming) {
+                (new Thread(
+                        new MultiplexedTCPClient(i + 1,
+                                                 host,
+                                                 port,
+                                                 pause,
+                                                 maxInFlight)
+                )).start();
+            } else if (!protocol.equals("UDP")) {
+                ConnectionPool pool = sharedPool;
+                if (keepAlive && pool == null) {
+                    pool = new ConnectionPool(
+                            host, port, TIMEOUT, poolIdleTimeout);
+                }
                 (new Thread(
                         new TCPClient(i + 1,
                                      host,
                                      port,
                                      pause,
-                                     msgLength)
+                                     pool)
+                )).start();
+            } else if (udpWindow > 0) {
+                (new Thread(
+                        new ReliableUDPClient(i + 1,
+                                              udpServer,
+                                              pause,
+                                              udpFragmentSize,
+                                              udpWindow,
+                                              udpMaxRetransmits)
                 )).start();
             } else if (protocol.equals("UDP")) {
                 (new Thread(
@@ -178,13 +947,60 @@ class Client {
                                      host,
                                      port,
                                      pause,
-                                     msgLength)
+                                     udpFragmentSize)
                 )).start();
             } // else {} -- not reachable
         }
     }
 
-    public static void main(String argv[]) { (new Client()).start(); }
+    private void buildCorpus() {
+
+        if (payloadFile != null) {
+            try {
+                corpus = PayloadCorpus.load(payloadFile);
+            } catch (IOException e) {
+                System.err.println("cannot load the payloads: " + e.getMessage());
+                System.exit(1);
+            }
+        } else {
+            corpus = PayloadCorpus.generate(payloadCount, msgLength,
+                    payloadSizes, payloadSeed == null ?
+                    new Random() : new Random(payloadSeed));
+        }
+        System.out.println(corpus.report());
+
+        if (protocol.equals("UDP") && udpFragmentSize == 0 &&
+                corpus.maxLength() > MAX_UDP_PAYLOAD) {
+            System.err.println("the payloads do not fit into a datagram, " +
+                    "set udpFragmentSize");
+            System.exit(1);
+        }
+    }
+
+    private void startNio() {
+        try {
+            (new NioClient(new InetSocketAddress(host, port),
+                           protocol.equals("UDP"),
+                           binaryFraming,
+                           keepAlive,
+                           maxInFlight,
+                           udpFragmentSize,
+                           pause,
+                           nThreads,
+                           nioThreads)).start();
+        } catch (IOException e) {
+            System.err.println("cannot start the NIO client: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // java Client: run; java Client compare ...: see RunResults
+    public static void main(String argv[]) {
+        if (argv.length > 0 && argv[0].equals("compare")) {
+            System.exit(RunResults.compare(argv));
+        }
+        (new Client()).start();
+    }
 
     private static class TCPClient implements Runnable {
 
@@ -192,27 +1008,68 @@ class Client {
         private final String host;
         private final int port;
         private final int pause;
-        private final int messageLength;
+        // null: a new connection per exchange
+        private final ConnectionPool pool;
+        private final PayloadCorpus.Cursor payloads;
+        private final LatencyRecorder latency = LatencyRecorder.create();
 
-        public TCPClient(int        numThread,
-                         String     host,
-                         int        port,
-                         int        pause,
-                         int        length) {
+        public TCPClient(int            numThread,
+                         String         host,
+                         int            port,
+                         int            pause,
+                         ConnectionPool pool) {
             this.numThread = numThread;
             this.host = host;
             this.port = port;
             this.pause = pause;
-            this.messageLength = length;
+            this.pool = pool;
+            payloads = corpus.cursor(numThread);
         }
 
-        private boolean exchange() {
+        private void exchange() {
 
-            String sentence = generateMessage(messageLength); // + " from #" + numThread;
+            PayloadCorpus.Payload sentence = payloads.next();
             String response;
 
-            try (Socket socket = new Socket(host, port)) {
+            long start = nextStart();
+            try {
+                response = (pool == null) ?
+                        exchangeOnce(sentence) : exchangePooled(sentence);
+            } catch (IOException e) {
+
+                System.err.println("client #" + numThread + ": " +
+                        "TCP exchange failed, " + e.getMessage());
+
+                nFailed.incrementAndGet();
+                backOff(e);
+                return;
+            }
+            if (response == null) {
+                // closed by the server without an answer
+                System.err.println("client #" + numThread + ": " +
+                        "TCP exchange failed, connection closed by server");
+                nFailed.incrementAndGet();
+                return;
+            }
+            if (BUSY.equals(response)) {
+                nBusy.incrementAndGet();
+            } else {
+                latency.record(LatencyRecorder.TOTAL,
+                        System.nanoTime() - start);
+            }
+
+            if (printExchanges) {
+                System.out.println(new String(sentence.line) + " -> " + response);
+            }
+        }
+
+        private String exchangeOnce(PayloadCorpus.Payload sentence) throws IOException {
 
+            long start = System.nanoTime();
+            try (Socket socket = connect(host, port)) {
+
+                latency.record(
+                        LatencyRecorder.CONNECT, System.nanoTime() - start);
                 socket.setSoTimeout(TIMEOUT);
 
                 DataOutputStream toServer =
@@ -220,35 +1077,296 @@ class Client {
                 BufferedReader fromServer = new BufferedReader(
                         new InputStreamReader(socket.getInputStream()));
 
-                toServer.writeBytes(sentence);
-                nSent.incrementAndGet();
+                return transfer(toServer, fromServer, sentence);
+            }
+        }
+
+        // send the sentence (in a single write), read the response line
+        private String transfer(DataOutputStream toServer,
+                                BufferedReader fromServer,
+                                PayloadCorpus.Payload sentence)
+                throws IOException {
+
+            long start = System.nanoTime();
+            toServer.write(sentence.line);
+            nSent.incrementAndGet();
+            long sent = System.nanoTime();
+
+            String response = fromServer.readLine();
+            latency.record(LatencyRecorder.SEND, sent - start);
+            if (response != null && !BUSY.equals(response)) {
+                latency.record(LatencyRecorder.WAIT, System.nanoTime() - sent);
+            }
+            return response;
+        }
 
-                response = fromServer.readLine();
+        private String exchangePooled(PayloadCorpus.Payload sentence) throws IOException {
 
+            ConnectionPool.Connection c = acquire(false);
+            try {
+                return exchangeOn(c, sentence);
             } catch (IOException e) {
+                pool.discard(c);
+                if (!c.isReused()) { throw e; }
+            }
 
-                System.err.println("client #" + numThread + ": " +
-                        "TCP exchange failed, " + e.getMessage());
-                return false;
+            // the server might have closed the idle connection meanwhile,
+            // so retry once on a fresh one
+            c = acquire(true);
+            try {
+                return exchangeOn(c, sentence);
+            } catch (IOException e) {
+                pool.discard(c);
+                throw e;
             }
+        }
+
+        private String exchangeOn(ConnectionPool.Connection c,
+                                  PayloadCorpus.Payload sentence)
+                throws IOException {
 
-            if (response != null) {
-                System.out.println(sentence + " -> " + response);
+            String response = transfer(c.output(), c.input(), sentence);
+            if (response == null) {
+                throw new EOFException("connection closed by server");
             }
+            if (BUSY.equals(response)) {
+                pool.discard(c); // closed by the server
+            } else {
+                pool.release(c);
+            }
+            return response;
+        }
+
+        // a pooled or (fresh = true) a new connection,
+        // only establishing a new one counts as the connect phase
+        private ConnectionPool.Connection acquire(boolean fresh)
+                throws IOException {
+
+            long start = System.nanoTime();
+            ConnectionPool.Connection c = fresh ? pool.connect() : pool.acquire();
+            if (!c.isReused()) {
+                latency.record(
+                        LatencyRecorder.CONNECT, System.nanoTime() - start);
+            }
+            return c;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                exchange();
+                closedLoopPause(pause);
+            }
+        }
+    }
+
+    // binary framing: up to maxInFlight requests on a single connection;
+    // this thread sends the requests, a companion one reads the responses.
+    // A connection that fails or the server refuses (BUSY) is made again,
+    // the requests in flight on a refused one are counted as refused
+    private static class MultiplexedTCPClient implements Runnable {
+
+        private final int numThread;
+        private final String host;
+        private final int port;
+        private final int pause;
+        private final int maxInFlight;
+
+        // of the current connection
+        private Semaphore window;
+        // requests in flight, by id
+        private final Map<Integer, Request> inFlight = new ConcurrentHashMap<>();
+        private volatile boolean failed;
+        private volatile boolean refused; // BUSY
+        private volatile boolean idleClosed; // by the server
+        // the server takes compressed requests (see Framing)
+        private volatile boolean peerCompresses;
+        private final PayloadCorpus.Cursor payloads;
+        // connect and send are recorded by this thread, the rest by
+        // the reader one
+        private final LatencyRecorder latency = LatencyRecorder.create();
+
+        private static class Request {
+
+            private final PayloadCorpus.Payload sentence;
+            private final long start; // System.nanoTime()
+            private long sent;
+
+            Request(PayloadCorpus.Payload sentence, long start) {
+                this.sentence = sentence;
+                this.start = start;
+            }
+        }
 
-            return true;
+        public MultiplexedTCPClient(int     numThread,
+                                    String  host,
+                                    int     port,
+                                    int     pause,
+                                    int     maxInFlight) {
+            this.numThread = numThread;
+            this.host = host;
+            this.port = port;
+            this.pause = pause;
+            this.maxInFlight = maxInFlight;
+            payloads = corpus.cursor(numThread);
         }
 
         @Override
         public void run() {
+            while (true) {
+                connection();
+                if (refused) { nBusy.addAndGet(inFlight.size()); }
+                // else the pause before the next request is over already
+                if (!idleClosed) { closedLoopPause(pause); }
+            }
+        }
+
+        // the requests on a connection until it fails or is refused
+        private void connection() {
+
+            window = new Semaphore(maxInFlight);
+            inFlight.clear();
+            failed = false;
+            refused = false;
+            idleClosed = false;
+            peerCompresses = false;
+            Thread reader = null;
 
-            boolean ok = true;
-            while (ok) {
-                ok = exchange();
-                try { Thread.sleep(pause); }
+            long connectStart = System.nanoTime();
+            try (Socket socket = connect(host, port)) {
+
+                latency.record(LatencyRecorder.CONNECT,
+                        System.nanoTime() - connectStart);
+                socket.setSoTimeout(TIMEOUT);
+
+                DataOutputStream toServer =
+                        new DataOutputStream(socket.getOutputStream());
+                DataInputStream fromServer = new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream()));
+
+                reader = new Thread(() -> readResponses(fromServer),
+                        "client-" + numThread + "-reader");
+                reader.setDaemon(true);
+                reader.start();
+
+                int id = 0;
+                while (true) {
+                    PayloadCorpus.Payload sentence = payloads.next();
+                    // a full window delays the send, not the start
+                    long start = nextStart();
+                    window.acquire();
+                    if (failed) { break; }
+
+                    Request r = new Request(sentence, start);
+                    inFlight.put(id, r);
+                    long sendStart = System.nanoTime();
+                    byte packed[] =
+                            peerCompresses ? compressed(sentence.text) : null;
+                    try {
+                        if (packed != null) {
+                            Framing.write(toServer, id,
+                                    Framing.FLAG_COMPRESSED, packed);
+                        } else {
+                            Framing.write(toServer, id, (byte) 0,
+                                    sentence.text);
+                        }
+                    } catch (IOException e) {
+                        // the server may have refused the connection and
+                        // closed it: the reader is then about to see BUSY
+                        reader.join(REFUSED_BACKOFF);
+                        throw e;
+                    }
+                    r.sent = System.nanoTime();
+                    latency.record(LatencyRecorder.SEND, r.sent - sendStart);
+                    nSent.incrementAndGet();
+                    ++id;
+
+                    closedLoopPause(pause);
+                }
+
+            } catch (IOException e) {
+                fail(e);
+                backOff(e);
+            } catch (InterruptedException dummy) {}
+
+            failed = true;
+            // the socket is closed, so the reader is done soon
+            if (reader != null) {
+                try { reader.join(); }
                 catch (InterruptedException dummy) {}
             }
         }
+
+        private void readResponses(DataInputStream fromServer) {
+
+            try {
+                while (!failed) {
+
+                    Framing.Frame frame;
+                    try {
+                        frame = Framing.read(fromServer);
+                    } catch (SocketTimeoutException e) {
+                        if (inFlight.isEmpty()) { continue; } // just idle
+                        throw e;
+                    }
+                    if (frame == null) {
+                        // idle (keepAliveTimeout): made again for the next
+                        if (inFlight.isEmpty()) {
+                            idleClosed = true;
+                            break;
+                        }
+                        throw new EOFException("connection closed by server");
+                    }
+                    if ((frame.flags & Framing.FLAG_BUSY) != 0) {
+                        // the whole connection is refused, the server
+                        // closes it
+                        if (printExchanges) {
+                            System.out.println("(connection) -> " + BUSY);
+                        }
+                        refused = true;
+                        break;
+                    }
+                    if ((frame.flags & Framing.FLAG_ACCEPTS_COMPRESSED) != 0) {
+                        peerCompresses = true;
+                    }
+
+                    long now = System.nanoTime();
+                    Request r = inFlight.remove(frame.id);
+                    if (r == null) {
+                        System.err.println("client #" + numThread + ": " +
+                                "unexpected response id " + frame.id);
+                        continue;
+                    }
+                    window.release();
+
+                    // the response may come before r.sent is set
+                    latency.record(LatencyRecorder.WAIT,
+                            now - Math.max(r.sent, r.start));
+                    latency.record(LatencyRecorder.TOTAL, now - r.start);
+
+                    if (printExchanges) {
+                        System.out.println(new String(r.sentence.text) + " -> " +
+                                (new String(frame.payload)).trim());
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+
+            // unblock the sender, if waiting for the window
+            failed = true;
+            window.release(maxInFlight);
+        }
+
+        // a connection fails once, whichever thread sees it first (the
+        // other one then sees it closed)
+        private synchronized void fail(IOException e) {
+            if (failed || refused) { return; }
+            failed = true;
+            System.err.println("client #" + numThread + ": " +
+                    "TCP exchange failed, " + e.getMessage());
+            nFailed.incrementAndGet();
+        }
     }
 
     private static class UDPClient implements Runnable {
@@ -257,65 +1375,74 @@ class Client {
         private final String host;
         private final int port;
         private final int pause;
-        private final int messageLength;
+        private final int fragmentSize; // 0: no fragmentation
+        private final PayloadCorpus.Cursor payloads;
+        private final LatencyRecorder latency = LatencyRecorder.create();
 
         public UDPClient(int        numThread,
                          String     host,
                          int        port,
                          int        pause,
-                         int        length) {
+                         int        fragmentSize) {
             this.numThread = numThread;
             this.host = host;
             this.port = port;
             this.pause = pause;
-            this.messageLength = length;
+            this.fragmentSize = fragmentSize;
+            payloads = corpus.cursor(numThread);
         }
 
 
-        private boolean exchange() {
+        private void exchange() {
 
-            String sentence = generateMessage(messageLength); // + " from #" + numThread;
+            PayloadCorpus.Payload sentence = payloads.next();
             String response;
 
+            long start = nextStart();
             try (DatagramSocket socket = new DatagramSocket()) {
 
                 socket.setSoTimeout(TIMEOUT);
 
-                byte bytes[] = sentence.getBytes();
-
-                DatagramPacket packet = new DatagramPacket(
-                    bytes, bytes.length, InetAddress.getByName(host), port);
+                InetAddress address = InetAddress.getByName(host);
 
-                socket.send(packet);
+                long sendStart = System.nanoTime();
+                for (byte d[]: datagrams(sentence.line, fragmentSize)) {
+                    socket.send(new DatagramPacket(d, d.length, address, port));
+                }
                 nSent.incrementAndGet();
+                long sent = System.nanoTime();
 
                 byte[] inBuff = new byte[1024]; // definitely enough for "OK\n"
                 DatagramPacket receivePacket =
                         new DatagramPacket(inBuff, inBuff.length);
                 socket.receive(receivePacket);
-
-                response = new String(receivePacket.getData()).trim();
+                long now = System.nanoTime();
+                latency.record(LatencyRecorder.SEND, sent - sendStart);
+                response = new String(receivePacket.getData(), 0,
+                        receivePacket.getLength()).trim();
+                if (BUSY.equals(response)) {
+                    nBusy.incrementAndGet();
+                } else {
+                    latency.record(LatencyRecorder.WAIT, now - sent);
+                    latency.record(LatencyRecorder.TOTAL, now - start);
+                }
             } catch (IOException e) {
                 System.err.println("client thread " + numThread + ": " +
                         "UDP exchange failed, " + e.getMessage());
-                return false;
+                nFailed.incrementAndGet();
+                return;
             }
 
-            if (response != null) {
-                System.out.println(sentence + " -> " + response);
+            if (response != null && printExchanges) {
+                System.out.println(new String(sentence.line) + " -> " + response);
             }
-
-            return true;
         }
 
         @Override
         public void run() {
-
-            boolean ok = true;
-            while (ok) {
-                ok = exchange();
-                try { Thread.sleep(pause); }
-                catch (InterruptedException dummy) {}
+            while (true) {
+                exchange();
+                closedLoopPause(pause);
             }
         }
     }
@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+// payload compression of the binary frames and the UDP messages, marked
+// by a flag (Framing.FLAG_COMPRESSED, UDPFraming.FLAG_COMPRESSED); such a
+// payload is
+//
+//   | codec id (byte) | original length (int) | compressed data |
+//
+// (big-endian), so the receiver decompresses it with the codec the sender
+// picked. The codecs keep their (de)compressors per thread and reuse them,
+// nothing but the compressed data is allocated per message.
+// NB: this file is shared by the client and the server, keep them in sync.
+class Compression {
+
+    static final int HEADER_SIZE = 5;
+
+    interface Codec {
+
+        byte id();
+
+        String name();
+
+        // compress length bytes of data starting at offset into out (from
+        // its position on, growing it if needed), return the buffer
+        ByteBuffer compress(byte data[], int offset, int length,
+                            ByteBuffer out);
+
+        // decompress in (position to limit) into out from its position
+        // on, growing it as the data come (never beyond original bytes in
+        // all: the claimed length is not allocated up front), return the
+        // buffer; the data must come to exactly original bytes
+        ByteBuffer decompress(ByteBuffer in, ByteBuffer out, int original)
+                throws IOException;
+    }
+
+    static final Codec DEFLATE = new Codec() {
+
+        private final ThreadLocal<Deflater> deflaters =
+                ThreadLocal.withInitial(Deflater::new);
+        private final ThreadLocal<Inflater> inflaters =
+                ThreadLocal.withInitial(Inflater::new);
+
+        @Override
+        public byte id() { return 1; }
+
+        @Override
+        public String name() { return "deflate"; }
+
+        @Override
+        public ByteBuffer compress(byte data[], int offset, int length,
+                                   ByteBuffer out) {
+            Deflater d = deflaters.get();
+            d.reset();
+            d.setInput(data, offset, length);
+            d.finish();
+            while (!d.finished()) {
+                if (!out.hasRemaining()) {
+                    out = grow(out, Integer.MAX_VALUE);
+                }
+                d.deflate(out);
+            }
+            return out;
+        }
+
+        @Override
+        public ByteBuffer decompress(ByteBuffer in, ByteBuffer out,
+                                     int original) throws IOException {
+            Inflater i = inflaters.get();
+            i.reset();
+            i.setInput(in);
+            int end = out.position() + original;
+            out.limit(Math.min(out.capacity(), end));
+            boolean longer = false;
+            try {
+                while (!i.finished()) {
+                    if (!out.hasRemaining()) {
+                        if (out.position() < end) {
+                            out = grow(out, end);
+                        } else if (i.inflate(new byte[1]) > 0) {
+                            longer = true;
+                            break;
+                        } else if (!i.finished()) {
+                            break; // truncated
+                        }
+                        continue;
+                    }
+                    if (i.inflate(out) == 0 &&
+                            (i.needsInput() || i.needsDictionary())) {
+                        break; // truncated
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("corrupt compressed data: " +
+                        e.getMessage());
+            }
+            if (longer || out.position() != end || !i.finished()) {
+                throw new IOException("compressed data do not match " +
+                        "the original length");
+            }
+            return out;
+        }
+    };
+
+    // by id; to add a codec, give it the next id
+    private static final Codec CODECS[] = {null, DEFLATE};
+
+    // the compression buffer of each thread, grown as needed
+    private static final ThreadLocal<ByteBuffer> OUT =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(0x1000));
+
+    private static final LongAdder nCompressed = new LongAdder();
+    private static final LongAdder nNotSmaller = new LongAdder();
+    private static final LongAdder originalOut = new LongAdder();
+    private static final LongAdder compressedOut = new LongAdder();
+    private static final LongAdder compressNanos = new LongAdder();
+    private static final LongAdder nDecompressed = new LongAdder();
+    private static final LongAdder originalIn = new LongAdder();
+    private static final LongAdder compressedIn = new LongAdder();
+    private static final LongAdder decompressNanos = new LongAdder();
+
+    private Compression() {}
+
+    // the codec by name, null for "none" or an unknown one
+    static Codec codec(String name) {
+        for (Codec c: CODECS) {
+            if (c != null && c.name().equals(name)) { return c; }
+        }
+        return null;
+    }
+
+    // the payload for length bytes of data starting at offset, null if
+    // it does not come out any smaller (sent uncompressed then)
+    static byte[] compress(Codec codec, byte data[], int offset, int length) {
+
+        long start = System.nanoTime();
+        ByteBuffer out = OUT.get();
+        out.clear();
+        out.put(codec.id()).putInt(length);
+        out = codec.compress(data, offset, length, out);
+        OUT.set(out);
+        compressNanos.add(System.nanoTime() - start);
+
+        if (out.position() >= length) {
+            nNotSmaller.increment();
+            return null;
+        }
+        nCompressed.increment();
+        originalOut.add(length);
+        compressedOut.add(out.position());
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    // the original length of the compressed payload b[offset, offset +
+    // length), checked against maxLength
+    static int originalLength(ByteBuffer b, int offset, int length,
+                              int maxLength) throws IOException {
+        if (length < HEADER_SIZE) {
+            throw new IOException("compressed payload too short");
+        }
+        int original = b.getInt(offset + 1);
+        if (original < 0 || original > maxLength) {
+            throw new IOException("invalid original length: " + original);
+        }
+        return original;
+    }
+
+    // decompress the payload b[offset, offset + length) of the given
+    // original length (see originalLength()) into out (from 0 on), or into
+    // a larger buffer if out is too small: returns the one with the data
+    static ByteBuffer decompress(ByteBuffer b, int offset, int length,
+                                 int original, ByteBuffer out)
+            throws IOException {
+
+        long start = System.nanoTime();
+        byte id = b.get(offset);
+        Codec codec = id > 0 && id < CODECS.length ? CODECS[id] : null;
+        if (codec == null) { throw new IOException("unknown codec: " + id); }
+        out.clear();
+        out = codec.decompress(b.slice(offset + HEADER_SIZE,
+                length - HEADER_SIZE), out, original);
+        decompressNanos.add(System.nanoTime() - start);
+
+        nDecompressed.increment();
+        originalIn.add(out.position());
+        compressedIn.add(length);
+        return out;
+    }
+
+    static String report() {
+
+        StringBuilder sb = new StringBuilder("compression: ");
+        long n = nCompressed.sum(), m = nDecompressed.sum();
+        long tried = n + nNotSmaller.sum();
+        sb.append(n).append(" messages compressed");
+        if (n > 0) {
+            sb.append(String.format(", ratio %.2f", (double)
+                    originalOut.sum() / compressedOut.sum()));
+        }
+        sb.append(", ").append(nNotSmaller.sum()).append(" not smaller");
+        if (tried > 0) {
+            sb.append(String.format(", %.1f us each",
+                    compressNanos.sum() / 1e3 / tried));
+        }
+        sb.append("; ").append(m).append(" decompressed");
+        if (m > 0) {
+            sb.append(String.format(", ratio %.2f, %.1f us each",
+                    (double) originalIn.sum() / compressedIn.sum(),
+                    decompressNanos.sum() / 1e3 / m));
+        }
+        return sb.toString();
+    }
+
+    // twice as large (at least a byte), max at most, with the data of b
+    // (0 to its position) and the position after them; the limit is the
+    // capacity
+    private static ByteBuffer grow(ByteBuffer b, int max) {
+        ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(
+                Math.max(2L * b.capacity(), 1), max));
+        b.flip();
+        return bigger.put(b);
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// keep-alive TCP (or TLS) connections to the server;
+// the idle connections are kept in LIFO order, so the busy ones stay on
+// top and the ones idle for longer than idleTimeout sink to the bottom,
+// where they are evicted. One pool may be shared by all the client threads
+// or used by a single thread.
+class ConnectionPool {
+
+    static class Connection {
+
+        private final Socket socket;
+        private final DataOutputStream toServer;
+        private final BufferedReader fromServer;
+        private boolean reused = false;
+        private long lastUsed;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            toServer = new DataOutputStream(socket.getOutputStream());
+            fromServer = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream()));
+        }
+
+        DataOutputStream output() { return toServer; }
+        BufferedReader input() { return fromServer; }
+
+        // has it been taken from the pool (i.e. may be closed by the server)
+        boolean isReused() { return reused; }
+
+        private void close() {
+            try { socket.close(); }
+            catch (IOException dummy) {}
+        }
+    }
+
+    private final static AtomicLong nOpened = new AtomicLong();
+    private final static AtomicLong nReused = new AtomicLong();
+    private final static AtomicLong nEvicted = new AtomicLong();
+    private final static AtomicLong nStale = new AtomicLong();
+
+    private final String host;
+    private final int port;
+    private final int soTimeout;
+    private final long idleTimeout; // nanoseconds
+    private final Deque<Connection> idle = new ConcurrentLinkedDeque<>();
+
+    public ConnectionPool(String host, int port, int soTimeout, int idleTimeout) {
+        this.host = host;
+        this.port = port;
+        this.soTimeout = soTimeout;
+        this.idleTimeout = idleTimeout * 1000000L;
+    }
+
+    // take an idle connection or open a new one
+    public Connection acquire() throws IOException {
+
+        long now = System.nanoTime();
+        Connection c;
+        while ((c = idle.pollFirst()) != null) {
+            if (now - c.lastUsed < idleTimeout) {
+                c.reused = true;
+                return c;
+            }
+            evict(c);
+        }
+        return connect();
+    }
+
+    // open a new connection, bypassing the pool
+    public Connection connect() throws IOException {
+
+        Socket socket = Client.connect(host, port);
+        try {
+            socket.setSoTimeout(soTimeout);
+            nOpened.incrementAndGet();
+            return new Connection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // return a healthy connection to the pool
+    public void release(Connection c) {
+
+        if (c.reused) { nReused.incrementAndGet(); }
+
+        long now = System.nanoTime();
+        c.lastUsed = now;
+        idle.offerFirst(c);
+
+        // the connections at the bottom are the longest idle ones
+        Connection oldest;
+        while ((oldest = idle.peekLast()) != null &&
+                now - oldest.lastUsed >= idleTimeout) {
+            if (idle.removeLastOccurrence(oldest)) { evict(oldest); }
+        }
+    }
+
+    // close a broken connection
+    public void discard(Connection c) {
+        if (c.reused) { nStale.incrementAndGet(); }
+        c.close();
+    }
+
+    private void evict(Connection c) {
+        nEvicted.incrementAndGet();
+        c.close();
+    }
+
+    public static String report() {
+        return nOpened.get() + " connections opened, " +
+                nReused.get() + " exchanges on reused connections " +
+                "(handshakes saved), " +
+                nEvicted.get() + " idle connections evicted, " +
+                nStale.get() + " reused connections found closed";
+    }
+}
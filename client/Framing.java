@@ -0,0 +1,98 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+// binary framing of the TCP exchange ("framing=binary"), a frame is
+//
+//   | length (int) | request id (int) | flags (byte) | payload (length bytes) |
+//
+// (big-endian). The response carries the id of its request, so a client
+// may have many requests in flight on a connection and the server may
+// answer them in any order.
+// NB: this file is shared by the client and the server, keep them in sync.
+class Framing {
+
+    static final int HEADER_SIZE = 9;
+
+    // response flag: the server refuses the connection
+    static final byte FLAG_BUSY = 0x01;
+    // request flag: the payload is compressed (see Compression)
+    static final byte FLAG_COMPRESSED = 0x02;
+    // response flag: the server takes compressed requests, so the client
+    // may compress the next ones on the connection
+    static final byte FLAG_ACCEPTS_COMPRESSED = 0x04;
+
+    // sanity limit for the payload length
+    static final int MAX_PAYLOAD = 0x4000000; // 64 MiB
+
+    // the payload buffer starts at most this large and grows as the data
+    // come, so that a bogus header alone does not allocate MAX_PAYLOAD
+    private static final int INITIAL_PAYLOAD = 8192;
+
+    static final class Frame {
+
+        final int id;
+        final byte flags;
+        final byte payload[];
+
+        Frame(int id, byte flags, byte payload[]) {
+            this.id = id;
+            this.flags = flags;
+            this.payload = payload;
+        }
+    }
+
+    private Framing() {}
+
+    // the whole frame goes in a single write
+    static void write(DataOutputStream out, int id, byte flags, byte payload[])
+            throws IOException {
+        out.write(encode(id, flags, payload).array());
+    }
+
+    // returns null on a clean end of the stream (between frames)
+    static Frame read(DataInputStream in) throws IOException {
+
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        checkLength(length);
+        int id = in.readInt();
+        byte flags = in.readByte();
+        byte payload[] = new byte[Math.min(length, INITIAL_PAYLOAD)];
+        int n = 0;
+        while (true) {
+            in.readFully(payload, n, payload.length - n);
+            n = payload.length;
+            if (n == length) { break; }
+            payload = Arrays.copyOf(payload, (int) Math.min(2L * n, length));
+        }
+        return new Frame(id, flags, payload);
+    }
+
+    static ByteBuffer encode(int id, byte flags, byte payload[]) {
+
+        ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        put(b, id, flags, payload);
+        b.flip();
+        return b;
+    }
+
+    // append the frame to the buffer, which must have room for it
+    static void put(ByteBuffer b, int id, byte flags, byte payload[]) {
+        b.putInt(payload.length).putInt(id).put(flags).put(payload);
+    }
+
+    static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("invalid frame length: " + length);
+        }
+    }
+}
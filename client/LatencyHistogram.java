@@ -0,0 +1,106 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+// log-linear histogram of the latencies (in nanoseconds): the values below
+// 128 have a bucket each, above that every power of 2 is split into 64
+// buckets, so a value is known within 1/64 (~1.6%). Fixed size, recording
+// is a couple of shifts and an array store: no allocation, no locking.
+// Single writer: each histogram is recorded by one thread only, the other
+// threads may read it (merge into their own) at any time.
+class LatencyHistogram {
+
+    private static final int SUB_BITS = 6;
+    private static final int HALF = 1 << SUB_BITS; // buckets per power of 2
+    // larger values (~18 minutes) are counted as this one
+    private static final long MAX_VALUE = (1L << 40) - 1;
+    private static final int N_BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(N_BUCKETS);
+
+    public void record(long nanos) {
+        int i = index(Math.min(Math.max(nanos, 0), MAX_VALUE));
+        // the only writer, so no read-modify-write is needed
+        counts.lazySet(i, counts.get(i) + 1);
+    }
+
+    // this += h
+    public void add(LatencyHistogram h) {
+        for (int i = 0; i < N_BUCKETS; ++i) {
+            long n = h.counts.get(i);
+            if (n != 0) { counts.lazySet(i, counts.get(i) + n); }
+        }
+    }
+
+    // this -= h, h being an earlier snapshot of this
+    public void subtract(LatencyHistogram h) {
+        for (int i = 0; i < N_BUCKETS; ++i) {
+            long n = h.counts.get(i);
+            if (n != 0) { counts.lazySet(i, counts.get(i) - n); }
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < N_BUCKETS; ++i) { counts.lazySet(i, 0); }
+    }
+
+    public long count() {
+        long n = 0;
+        for (int i = 0; i < N_BUCKETS; ++i) { n += counts.get(i); }
+        return n;
+    }
+
+    // the value (the upper bound of its bucket) not exceeded by
+    // p percent of the recorded ones; 0 if empty
+    public long percentile(double p) {
+
+        long total = count();
+        if (total == 0) { return 0; }
+        long rank = Math.max((long) Math.ceil(p / 100. * total), 1);
+        long n = 0;
+        for (int i = 0; i < N_BUCKETS; ++i) {
+            n += counts.get(i);
+            if (n >= rank) { return highest(i); }
+        }
+        return MAX_VALUE;
+    }
+
+    public long max() {
+        for (int i = N_BUCKETS - 1; i >= 0; --i) {
+            if (counts.get(i) != 0) { return highest(i); }
+        }
+        return 0;
+    }
+
+    // bucket midpoints based
+    public double mean() {
+
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < N_BUCKETS; ++i) {
+            long n = counts.get(i);
+            if (n != 0) {
+                total += n;
+                sum += n * (lowest(i) + highest(i)) / 2.;
+            }
+        }
+        return total == 0 ? 0 : sum / total;
+    }
+
+    private static int index(long v) {
+        if (v < 2 * HALF) { return (int) v; }
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return shift * HALF + (int) (v >>> shift);
+    }
+
+    private static long lowest(int i) {
+        if (i < 2 * HALF) { return i; }
+        int shift = i / HALF - 1;
+        return (long) (i - shift * HALF) << shift;
+    }
+
+    private static long highest(int i) {
+        if (i < 2 * HALF) { return i; }
+        int shift = i / HALF - 1;
+        return lowest(i) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+// the exchange latencies of a client thread, by phase: establishing the
+// connection, sending the request, waiting for the response and the
+// whole exchange. Each phase is recorded by a single thread (see
+// LatencyHistogram); the recorders of all the threads are merged for the
+// interval snapshots and the final report.
+class LatencyRecorder {
+
+    static final int CONNECT = 0;
+    static final int SEND = 1;
+    static final int WAIT = 2;
+    static final int TOTAL = 3;
+    private static final String PHASES[] = {"connect", "send", "wait", "total"};
+
+    private static final double PERCENTILES[] = {50, 90, 99, 99.9};
+
+    private static final Queue<LatencyRecorder> recorders =
+            new ConcurrentLinkedQueue<>();
+    // the merged histograms at the previous snapshot
+    private static LatencyHistogram previous[] = newHistograms();
+    // and when the measurements started (after the warm-up, if any)
+    private static volatile LatencyHistogram baseline[] = newHistograms();
+
+    private final LatencyHistogram histograms[] = newHistograms();
+
+    private LatencyRecorder() {}
+
+    // a new recorder, merged into the reports
+    public static LatencyRecorder create() {
+        LatencyRecorder r = new LatencyRecorder();
+        recorders.add(r);
+        return r;
+    }
+
+    public void record(int phase, long nanos) { histograms[phase].record(nanos); }
+
+    // the exchanges before are left out of report() and summary()
+    public static void startMeasuring() { baseline = merge(); }
+
+    // all the exchanges measured
+    public static String report() { return format(measured(), "latency"); }
+
+    // the exchanges measured which got their response
+    public static long answered() { return measured()[TOTAL].count(); }
+
+    // all the exchanges so far, the whole of each one
+    public static LatencyHistogram totals() { return merge()[TOTAL]; }
+
+    // all the exchanges measured by name ("<phase>.<statistic>", e.g.
+    // "total.p99"), microseconds but the counts, for the run results
+    public static Map<String, Number> summary() {
+
+        LatencyHistogram h[] = measured();
+        Map<String, Number> m = new LinkedHashMap<>();
+        for (int i = 0; i < PHASES.length; ++i) {
+            long n = h[i].count();
+            if (n == 0) { continue; }
+            m.put(PHASES[i] + ".count", n);
+            for (double p: PERCENTILES) {
+                m.put(PHASES[i] + "." + name(p), h[i].percentile(p) / 1e3);
+            }
+            m.put(PHASES[i] + ".max", h[i].max() / 1e3);
+            m.put(PHASES[i] + ".mean", h[i].mean() / 1e3);
+        }
+        return m;
+    }
+
+    // the exchanges since the previous snapshot
+    public static synchronized String snapshot(int seconds) {
+
+        LatencyHistogram current[] = merge();
+        LatencyHistogram interval[] = newHistograms();
+        for (int i = 0; i < PHASES.length; ++i) {
+            interval[i].add(current[i]);
+            interval[i].subtract(previous[i]);
+        }
+        previous = current;
+        return format(interval, "latency, last " + seconds + " s");
+    }
+
+    private static LatencyHistogram[] merge() {
+        LatencyHistogram merged[] = newHistograms();
+        for (LatencyRecorder r: recorders) {
+            for (int i = 0; i < PHASES.length; ++i) {
+                merged[i].add(r.histograms[i]);
+            }
+        }
+        return merged;
+    }
+
+    private static LatencyHistogram[] measured() {
+        LatencyHistogram h[] = merge();
+        LatencyHistogram b[] = baseline;
+        for (int i = 0; i < PHASES.length; ++i) { h[i].subtract(b[i]); }
+        return h;
+    }
+
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram h[] = new LatencyHistogram[PHASES.length];
+        for (int i = 0; i < h.length; ++i) { h[i] = new LatencyHistogram(); }
+        return h;
+    }
+
+    // e.g. p99, p99.9
+    private static String name(double percentile) {
+        return "p" + (percentile == (long) percentile ?
+                Long.toString((long) percentile) : Double.toString(percentile));
+    }
+
+    // a table of the percentiles, microseconds
+    private static String format(LatencyHistogram h[], String title) {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(title).append(", microseconds:\n");
+        sb.append(String.format("%-8s %10s", "", "count"));
+        for (double p: PERCENTILES) {
+            sb.append(String.format(" %10s", name(p)));
+        }
+        sb.append(String.format(" %10s %10s\n", "max", "mean"));
+
+        for (int i = 0; i < PHASES.length; ++i) {
+            long n = h[i].count();
+            if (n == 0) { continue; } // e.g. no connections for UDP
+            sb.append(String.format("%-8s %10d", PHASES[i], n));
+            for (double p: PERCENTILES) {
+                sb.append(String.format(" %10.1f", h[i].percentile(p) / 1e3));
+            }
+            sb.append(String.format(" %10.1f %10.1f\n",
+                    h[i].max() / 1e3, h[i].mean() / 1e3));
+        }
+        return sb.toString();
+    }
+}
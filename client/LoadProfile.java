@@ -0,0 +1,83 @@
+// the offered load of an open loop run over time (see Client.Timeline),
+// requests per second of all the client threads together:
+//   "constant" - the target rate all along;
+//   "ramp"     - from the start rate up to the target rate in stepSeconds,
+//                then the target rate;
+//   "step"     - steps equal steps from the start rate up to the target
+//                rate, stepSeconds each, then the target rate;
+//   "spike"    - the start rate, with spikes of the target rate for
+//                spikeSeconds at the end of every stepSeconds;
+//   "search"   - whatever the saturation search sets (see SaturationSearch).
+// Any profile may begin with a warm-up of warmup seconds at its first rate,
+// which is left out of the results.
+class LoadProfile {
+
+    static final String SHAPES[] = {"constant", "ramp", "step", "spike", "search"};
+
+    private final String shape;
+    private final double start;
+    private final double target;
+    private final double stepSeconds;
+    private final int steps;
+    private final double spikeSeconds;
+    private final double warmup;
+    private volatile double searchRate;
+
+    LoadProfile(String shape, double start, double target, double stepSeconds,
+                int steps, double spikeSeconds, double warmup) {
+        this.shape = shape;
+        this.start = start;
+        this.target = target;
+        this.stepSeconds = stepSeconds;
+        this.steps = steps;
+        this.spikeSeconds = spikeSeconds;
+        this.warmup = warmup;
+        searchRate = start;
+    }
+
+    boolean isSearch() { return shape.equals("search"); }
+
+    double warmup() { return warmup; }
+
+    void setSearchRate(double rate) { searchRate = rate; }
+
+    // at t seconds from the beginning of the run
+    double rate(double t) {
+
+        if (shape.equals("search")) { return searchRate; }
+        if (t < warmup) { return shape.equals("constant") ? target : start; }
+        t -= warmup;
+        switch (shape) {
+            case "ramp":
+                return t >= stepSeconds ? target :
+                        start + (target - start) * t / stepSeconds;
+            case "step":
+                int k = (int) (t / stepSeconds);
+                return k >= steps - 1 ? target :
+                        start + (target - start) * k / (steps - 1);
+            case "spike":
+                return t % stepSeconds >= stepSeconds - spikeSeconds ?
+                        target : start;
+            default: // "constant"
+                return target;
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (shape) {
+            case "ramp":
+            case "step":
+                return String.format("%s %.1f -> %.1f requests/s", shape,
+                        start, target);
+            case "spike":
+                return String.format("%.1f requests/s, spikes of %.1f",
+                        start, target);
+            case "search":
+                return String.format("search, now %.1f requests/s",
+                        searchRate);
+            default:
+                return String.format("target %.1f", target);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+// when a request of ReliableUDPClient is taken for lost and sent again,
+// times in nanoseconds:
+// - on the retransmission timeout, as TCP's (RFC 6298): smoothed RTT +
+//   4 x its variation, doubled on each timeout until the next measure;
+// - at once (fast retransmit) when enough responses to the requests sent
+//   after it have come, as TCP's, but RACK-like (RFC 8985): only once it
+//   is also older than the smoothed RTT and a reordering window of a
+//   quarter of it, so that the responses reordered on the way do not make
+//   it. Each duplicate response to a request sent again this way shows
+//   that it was not lost: the number of responses needed then rises, up
+//   to the window (then never).
+class LossDetector {
+
+    static final int FAST_RETRANSMIT = 3;
+    static final long INITIAL_RTO = 1000000000L; // 1 s
+    static final long MIN_RTO = 10000000L; // 10 ms
+
+    private final long maxRto;
+    private final int maxThreshold;
+
+    private long srtt = -1; // no measure yet
+    private long rttvar;
+    private long rto = INITIAL_RTO;
+    private int threshold = FAST_RETRANSMIT;
+
+    LossDetector(long maxRto, int window) {
+        this.maxRto = maxRto;
+        maxThreshold = Math.max(window, FAST_RETRANSMIT);
+    }
+
+    long rto() { return rto; }
+
+    long srtt() { return srtt; }
+
+    long rttvar() { return rttvar; }
+
+    // the responses to the later requests which make a fast retransmit
+    int threshold() { return threshold; }
+
+    // the RTT of a request sent once (Karn: those sent again tell nothing)
+    void measured(long rtt) {
+        if (srtt < 0) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            rttvar += (Math.abs(srtt - rtt) - rttvar) / 4;
+            srtt += (rtt - srtt) / 8;
+        }
+        rto = Math.max(MIN_RTO, Math.min(srtt + 4 * rttvar, maxRto));
+    }
+
+    // a retransmission timeout (once for the requests timed out together)
+    void timedOut() {
+        rto = Math.min(2 * rto, maxRto);
+    }
+
+    // when a request last sent at the given time and since overtaken by
+    // that many responses is lost (Long.MAX_VALUE: not yet known)
+    long lostAt(long sent, int overtaken) {
+        if (overtaken < threshold) { return Long.MAX_VALUE; }
+        // no RTT measured: the timeout only
+        return srtt < 0 ? sent + rto : sent + srtt + srtt / 4;
+    }
+
+    // a request sent again on a fast retransmit was answered twice
+    void spurious() {
+        threshold = Math.min(threshold + 1, maxThreshold);
+    }
+}
@@ -0,0 +1,564 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+
+// selector-based client engine: the simulated clients ("flows", one per
+// nClientThreads) are spread over a few event loops, each flow runs the
+// same exchanges as a client thread of the blocking engine (a line per
+// connection or per kept-alive connection, multiplexed frames, UDP
+// messages), but never blocks a thread while waiting. The differences:
+// a flow keeps its own connection (connectionPool is not used) and
+// a UDP flow keeps its socket for all the exchanges.
+class NioClient {
+
+    private static final int IN_BUFF_SIZE = 256;
+    // how often the loops look for the timed out exchanges
+    private static final long TIMEOUT_CHECK = 1000000000L; // 1 s
+
+    // flow states
+    private static final int IDLE = 0;       // waiting for the next start
+    private static final int CONNECTING = 1;
+    private static final int SENDING = 2;
+    private static final int WAITING = 3;    // for the response
+
+    private final InetSocketAddress server;
+    private final boolean udp;
+    private final boolean binary;
+    private final boolean keepAlive;
+    private final int maxInFlight;
+    private final int fragmentSize;
+    private final int pause;
+    private final int nFlows;
+    private final EventLoop loops[];
+
+    public NioClient(InetSocketAddress server, boolean udp, boolean binary,
+                     boolean keepAlive, int maxInFlight, int fragmentSize,
+                     int pause, int nFlows, int nLoops) {
+        this.server = server;
+        this.udp = udp;
+        this.binary = binary;
+        this.keepAlive = keepAlive || binary;
+        this.maxInFlight = maxInFlight;
+        this.fragmentSize = fragmentSize;
+        this.pause = pause;
+        this.nFlows = nFlows;
+        loops = new EventLoop[Math.min(nLoops, nFlows)];
+    }
+
+    public void start() throws IOException {
+
+        for (int i = 0; i < loops.length; ++i) { loops[i] = new EventLoop(); }
+        for (int i = 0; i < nFlows; ++i) {
+            loops[i % loops.length].flows.add(new Flow(i + 1));
+        }
+        for (int i = 0; i < loops.length; ++i) {
+            // not daemons: the client runs until stopped
+            (new Thread(loops[i], "client-loop-" + i)).start();
+        }
+    }
+
+    // a binary framing request in flight
+    private static class Request {
+
+        private final PayloadCorpus.Payload sentence;
+        private final long start; // intended, System.nanoTime()
+        private final long sent;
+
+        Request(PayloadCorpus.Payload sentence, long start, long sent) {
+            this.sentence = sentence;
+            this.start = start;
+            this.sent = sent;
+        }
+    }
+
+    // a simulated client, owned by a single event loop
+    private class Flow {
+
+        private final int num;
+        private final PayloadCorpus.Cursor payloads;
+        private SelectableChannel channel;
+        private SelectionKey key;
+        private int state = IDLE;
+        private long wakeAt;       // the next start, while IDLE
+
+        private long start;        // of the current exchange (intended)
+        private long connectStart;
+        private long sendStart;
+        private long sent;
+        private PayloadCorpus.Payload sentence;
+        private ByteBuffer out;    // not written yet
+        private byte datagrams[][]; // UDP: the message (fragments)
+        private int nextDatagram;
+        private ByteBuffer in = ByteBuffer.allocate(IN_BUFF_SIZE);
+
+        // binary framing
+        private int nextId = 0;
+        private final Map<Integer, Request> inFlight = new HashMap<>();
+        private long blockedStart = -1; // a start waiting for the window
+        // the server takes compressed requests (see Framing)
+        private boolean peerCompresses = false;
+
+        Flow(int num) {
+            this.num = num;
+            payloads = Client.corpus.cursor(num);
+        }
+    }
+
+    private class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final List<Flow> flows = new ArrayList<>();
+        // the IDLE flows by their next start
+        private final PriorityQueue<Flow> starts = new PriorityQueue<>(
+                (f1, f2) -> Long.compare(f1.wakeAt, f2.wakeAt));
+        private final LatencyRecorder latency = LatencyRecorder.create();
+        private final ByteBuffer datagram = ByteBuffer.allocateDirect(1024);
+
+        EventLoop() throws IOException { selector = Selector.open(); }
+
+        @Override
+        public void run() {
+
+            // closed loop: spread the first exchanges over a pause
+            long now = System.nanoTime();
+            for (int i = 0; i < flows.size(); ++i) {
+                Flow f = flows.get(i);
+                f.wakeAt = Client.timeline != null ? Client.timeline.next() :
+                        now + pause * 1000000L * i / flows.size();
+                starts.add(f);
+            }
+
+            long nextTimeoutCheck = now + TIMEOUT_CHECK;
+            while (true) {
+
+                now = System.nanoTime();
+                long wait = nextTimeoutCheck - now;
+                if (!starts.isEmpty()) {
+                    wait = Math.min(wait, starts.peek().wakeAt - now);
+                }
+                try {
+                    if (wait <= 0) {
+                        selector.selectNow();
+                    } else {
+                        selector.select(Math.max(wait / 1000000, 1));
+                    }
+                } catch (IOException e) {
+                    System.err.println("error while selecting: " +
+                            e.getMessage());
+                    return;
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Flow f = (Flow) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable()) {
+                            onConnected(f);
+                        }
+                        if (key.isValid() && key.isWritable()) { flush(f); }
+                        if (key.isValid() && key.isReadable()) {
+                            onReadable(f);
+                        }
+                    } catch (IOException e) {
+                        fail(f, e);
+                    }
+                }
+
+                now = System.nanoTime();
+                while (!starts.isEmpty() && starts.peek().wakeAt - now <= 0) {
+                    Flow f = starts.poll();
+                    try {
+                        startExchange(f);
+                    } catch (IOException e) {
+                        fail(f, e);
+                    }
+                }
+
+                if (now - nextTimeoutCheck >= 0) {
+                    checkTimeouts(now);
+                    nextTimeoutCheck = now + TIMEOUT_CHECK;
+                }
+            }
+        }
+
+        private void startExchange(Flow f) throws IOException {
+
+            f.start = f.wakeAt;
+            if (udp) {
+                if (f.channel == null) { openDatagram(f); }
+                sendMessage(f);
+            } else if (f.channel == null) {
+                connect(f);
+            } else if (binary) {
+                sendFrame(f, f.start);
+            } else {
+                sendLine(f);
+            }
+        }
+
+        private void openDatagram(Flow f) throws IOException {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(server); // only the server responses come in
+            f.channel = channel;
+            f.key = channel.register(selector, SelectionKey.OP_READ, f);
+        }
+
+        private void connect(Flow f) throws IOException {
+
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            f.channel = channel;
+            f.state = CONNECTING;
+            f.connectStart = System.nanoTime();
+            if (channel.connect(server)) {
+                f.key = channel.register(selector, 0, f);
+                onConnected(f);
+            } else {
+                f.key = channel.register(selector, SelectionKey.OP_CONNECT, f);
+            }
+        }
+
+        private void onConnected(Flow f) throws IOException {
+
+            ((SocketChannel) f.channel).finishConnect();
+            latency.record(LatencyRecorder.CONNECT,
+                    System.nanoTime() - f.connectStart);
+            f.in.clear();
+            if (binary) {
+                f.state = IDLE;
+                sendFrame(f, f.start);
+            } else {
+                sendLine(f);
+            }
+        }
+
+        private void sendLine(Flow f) throws IOException {
+            f.sentence = f.payloads.next();
+            f.out = ByteBuffer.wrap(f.sentence.line);
+            f.state = SENDING;
+            f.sendStart = System.nanoTime();
+            flush(f);
+        }
+
+        // binary framing: send a request if the window allows, then
+        // (independently of the response) schedule the next one
+        private void sendFrame(Flow f, long start) throws IOException {
+
+            if (f.inFlight.size() >= maxInFlight) {
+                f.blockedStart = start; // sent on a response
+                updateInterest(f);
+                return;
+            }
+            f.blockedStart = -1;
+
+            PayloadCorpus.Payload sentence = f.payloads.next();
+            int id = f.nextId++;
+            long sendStart = System.nanoTime();
+            byte flags = 0;
+            byte payload[] =
+                    f.peerCompresses ? Client.compressed(sentence.text) : null;
+            if (payload != null) {
+                flags = Framing.FLAG_COMPRESSED;
+            } else {
+                payload = sentence.text;
+            }
+            // appended to what is still not written, in the flow's buffer
+            int size = Framing.HEADER_SIZE + payload.length;
+            if (f.out == null) { f.out = ByteBuffer.allocate(0); }
+            if (f.out.capacity() - f.out.remaining() < size) {
+                ByteBuffer b = ByteBuffer.allocate(
+                        Math.max(2 * f.out.capacity(), f.out.remaining() + size));
+                b.put(f.out).flip();
+                f.out = b;
+            }
+            f.out.compact();
+            Framing.put(f.out, id, flags, payload);
+            f.out.flip();
+            writeOut(f);
+            long now = System.nanoTime();
+            latency.record(LatencyRecorder.SEND, now - sendStart);
+            f.inFlight.put(id, new Request(sentence, start, now));
+            Client.nSent.incrementAndGet();
+
+            scheduleNext(f, now);
+        }
+
+        private void sendMessage(Flow f) throws IOException {
+
+            f.sentence = f.payloads.next();
+            f.datagrams = Client.datagrams(f.sentence.line, fragmentSize);
+            f.nextDatagram = 0;
+            f.state = SENDING;
+            f.sendStart = System.nanoTime();
+            flush(f);
+        }
+
+        private void flush(Flow f) throws IOException {
+
+            if (udp) {
+                DatagramChannel channel = (DatagramChannel) f.channel;
+                while (f.state == SENDING &&
+                        f.nextDatagram < f.datagrams.length) {
+                    if (channel.write(ByteBuffer.wrap(
+                            f.datagrams[f.nextDatagram])) == 0) {
+                        break; // no room in the socket buffer
+                    }
+                    ++f.nextDatagram;
+                }
+                if (f.state == SENDING &&
+                        f.nextDatagram == f.datagrams.length) {
+                    sent(f);
+                }
+            } else {
+                writeOut(f);
+                if (f.state == SENDING && !f.out.hasRemaining()) { sent(f); }
+            }
+            updateInterest(f);
+        }
+
+        private void writeOut(Flow f) throws IOException {
+            if (f.out != null && f.out.hasRemaining()) {
+                ((SocketChannel) f.channel).write(f.out);
+            }
+        }
+
+        // a line or UDP request is sent
+        private void sent(Flow f) {
+            f.sent = System.nanoTime();
+            latency.record(LatencyRecorder.SEND, f.sent - f.sendStart);
+            Client.nSent.incrementAndGet();
+            f.state = WAITING;
+        }
+
+        private void onReadable(Flow f) throws IOException {
+
+            if (udp) {
+                datagram.clear();
+                ((DatagramChannel) f.channel).read(datagram);
+                if (f.state != WAITING) { return; } // a stray one
+                datagram.flip();
+                byte data[] = new byte[datagram.remaining()];
+                datagram.get(data);
+                completed(f, (new String(data)).trim());
+                return;
+            }
+
+            if (!f.in.hasRemaining()) { grow(f); }
+            int n = ((SocketChannel) f.channel).read(f.in);
+            if (n < 0) {
+                if (f.state == WAITING || !f.inFlight.isEmpty()) {
+                    throw new EOFException("connection closed by server");
+                }
+                // an idle kept-alive connection, open a new one next time
+                close(f);
+                return;
+            }
+
+            if (binary) {
+                while (nextFrame(f)) {}
+            } else {
+                nextLine(f);
+            }
+        }
+
+        private void nextLine(Flow f) {
+
+            for (int i = 0; i < f.in.position(); ++i) {
+                if (f.in.get(i) == '\n') {
+                    String response = new String(f.in.array(), 0, i).trim();
+                    consume(f, i + 1);
+                    if (f.state == WAITING) { completed(f, response); }
+                    return;
+                }
+            }
+        }
+
+        private boolean nextFrame(Flow f) throws IOException {
+
+            if (f.in.position() < Framing.HEADER_SIZE) { return false; }
+            int length = f.in.getInt(0);
+            Framing.checkLength(length);
+            int size = Framing.HEADER_SIZE + length;
+            if (f.in.position() < size) {
+                if (f.in.capacity() < size) { grow(f); }
+                return false;
+            }
+
+            int id = f.in.getInt(4);
+            byte flags = f.in.get(8);
+            String response = new String(
+                    f.in.array(), Framing.HEADER_SIZE, length).trim();
+            consume(f, size);
+            if ((flags & Framing.FLAG_BUSY) != 0) {
+                refused(f);
+                return false;
+            }
+            if ((flags & Framing.FLAG_ACCEPTS_COMPRESSED) != 0) {
+                f.peerCompresses = true;
+            }
+
+            long now = System.nanoTime();
+            Request r = f.inFlight.remove(id);
+            if (r == null) {
+                System.err.println("client #" + f.num + ": " +
+                        "unexpected response id " + id);
+                return true;
+            }
+            latency.record(LatencyRecorder.WAIT, now - r.sent);
+            latency.record(LatencyRecorder.TOTAL, now - r.start);
+            if (Client.printExchanges) {
+                System.out.println(new String(r.sentence.text) + " -> " + response);
+            }
+
+            if (f.blockedStart >= 0) { sendFrame(f, f.blockedStart); }
+            return true;
+        }
+
+        // binary framing: the server refuses the whole connection (and
+        // closes it), its requests in flight are counted as refused; the
+        // next start opens a new one
+        private void refused(Flow f) {
+
+            if (Client.printExchanges) {
+                System.out.println("(connection) -> " + Client.BUSY);
+            }
+            Client.nBusy.addAndGet(f.inFlight.size());
+            close(f);
+            if (f.blockedStart >= 0) {
+                f.state = IDLE;
+                f.wakeAt = f.blockedStart;
+                f.blockedStart = -1;
+                starts.add(f);
+            }
+        }
+
+        // a line or UDP exchange is over
+        private void completed(Flow f, String response) {
+
+            long now = System.nanoTime();
+            boolean busy = Client.BUSY.equals(response);
+            if (busy) {
+                // refused: neither answered nor timed
+                Client.nBusy.incrementAndGet();
+            } else {
+                latency.record(LatencyRecorder.WAIT, now - f.sent);
+                latency.record(LatencyRecorder.TOTAL, now - f.start);
+            }
+            if (response != null && Client.printExchanges) {
+                System.out.println(new String(f.sentence.line) + " -> " + response);
+            }
+            // the server closes a refused connection
+            if (!udp && (!keepAlive || busy)) { close(f); }
+            scheduleNext(f, now);
+        }
+
+        private void scheduleNext(Flow f, long now) {
+            f.state = IDLE;
+            f.wakeAt = nextWakeAt(now);
+            starts.add(f);
+            updateInterest(f);
+        }
+
+        private long nextWakeAt(long now) {
+            return Client.timeline != null ?
+                    Client.timeline.next() : now + pause * 1000000L;
+        }
+
+        private void updateInterest(Flow f) {
+
+            if (f.key == null || !f.key.isValid()) { return; }
+            int ops = SelectionKey.OP_READ;
+            if (f.state == CONNECTING) {
+                ops = SelectionKey.OP_CONNECT;
+            } else if ((f.state == SENDING && udp) ||
+                    (!udp && f.out != null && f.out.hasRemaining())) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            f.key.interestOps(ops);
+        }
+
+        private void checkTimeouts(long now) {
+
+            long timeout = Client.TIMEOUT * 1000000L;
+            for (Flow f: flows) {
+                boolean late = f.state == WAITING && now - f.sent > timeout;
+                for (Request r: f.inFlight.values()) {
+                    late |= now - r.sent > timeout;
+                }
+                if (late) {
+                    fail(f, new SocketTimeoutException("Read timed out"));
+                }
+            }
+        }
+
+        // the flow goes on with the next start, on a new connection (or
+        // UDP socket)
+        private void fail(Flow f, IOException e) {
+
+            System.err.println("client #" + f.num + ": " +
+                    (udp ? "UDP" : "TCP") + " exchange failed, " +
+                    e.getMessage());
+            Client.nFailed.incrementAndGet();
+            close(f);
+
+            long now = System.nanoTime();
+            // binary framing: the next start may be scheduled already, or
+            // waiting for the window
+            long wakeAt = starts.remove(f) ? f.wakeAt :
+                    f.blockedStart >= 0 ? f.blockedStart : nextWakeAt(now);
+            if (e instanceof ConnectException) {
+                wakeAt = Math.max(wakeAt,
+                        now + Client.REFUSED_BACKOFF * 1000000L);
+            }
+            f.blockedStart = -1;
+            f.state = IDLE;
+            f.wakeAt = wakeAt;
+            starts.add(f);
+        }
+
+        private void close(Flow f) {
+            if (f.channel == null) { return; }
+            if (f.key != null) { f.key.cancel(); }
+            try { f.channel.close(); }
+            catch (IOException dummy) {}
+            f.channel = null;
+            f.key = null;
+            f.out = null;
+            f.in.clear();
+            f.inFlight.clear();
+            f.peerCompresses = false; // asked again on the next connection
+        }
+
+        private void consume(Flow f, int n) {
+            f.in.flip();
+            f.in.position(n);
+            f.in.compact();
+        }
+
+        private void grow(Flow f) {
+            ByteBuffer bigger = ByteBuffer.allocate(2 * f.in.capacity() +
+                    (binary ? f.in.getInt(0) + Framing.HEADER_SIZE : 0));
+            f.in.flip();
+            bigger.put(f.in);
+            f.in = bigger;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+
+// the request payloads, built (or loaded from a file) once at startup and
+// then shared read-only by all the clients. Each client walks the corpus
+// with its own cursor, so taking a payload is an index increment: no
+// shared random generator, no locking, no allocation, no encoding.
+class PayloadCorpus {
+
+    // random text charset
+    private static final String CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final String ENDL = System.getProperty("line.separator");
+    // the exponential sizes are capped at this many times the mean
+    private static final int MAX_SIZE_FACTOR = 10;
+
+    static final class Payload {
+
+        final byte text[]; // binary framing
+        final byte line[]; // text + ENDL: line framing and UDP
+
+        private Payload(byte text[]) {
+            this.text = text;
+            line = new byte[text.length + ENDL.length()];
+            System.arraycopy(text, 0, line, 0, text.length);
+            for (int i = 0; i < ENDL.length(); ++i) {
+                line[text.length + i] = (byte) ENDL.charAt(i);
+            }
+        }
+    }
+
+    // a client's own position in the corpus
+    final class Cursor {
+
+        private int next;
+
+        private Cursor(int first) { next = first; }
+
+        Payload next() {
+            Payload p = payloads[next];
+            if (++next == payloads.length) { next = 0; }
+            return p;
+        }
+    }
+
+    private final Payload payloads[];
+    private final String source;
+
+    private PayloadCorpus(Payload payloads[], String source) {
+        this.payloads = payloads;
+        this.source = source;
+    }
+
+    // count random payloads; sizes "fixed" (all of the given length),
+    // "uniform" (in [1, 2 * length - 1]) or "exponential" (mean length,
+    // at most MAX_SIZE_FACTOR * length)
+    static PayloadCorpus generate(int count, int length, String sizes,
+                                  Random rnd) {
+
+        Payload payloads[] = new Payload[count];
+        for (int k = 0; k < count; ++k) {
+            int n = length;
+            if (sizes.equals("uniform")) {
+                n = 1 + rnd.nextInt(2 * length - 1);
+            } else if (sizes.equals("exponential")) {
+                double x = -Math.log(1 - rnd.nextDouble()) * length;
+                n = (int) Math.max(1, Math.min(Math.round(x),
+                        (long) MAX_SIZE_FACTOR * length));
+            }
+            byte text[] = new byte[n];
+            for (int i = 0; i < n; ++i) {
+                text[i] = (byte) CHARS.charAt(rnd.nextInt(CHARS.length()));
+            }
+            payloads[k] = new Payload(text);
+        }
+        return new PayloadCorpus(payloads, sizes + " sizes");
+    }
+
+    // a payload per (non empty) line of the file
+    static PayloadCorpus load(String fileName) throws IOException {
+
+        List<String> lines = Files.readAllLines(Paths.get(fileName));
+        lines.removeIf(String::isEmpty);
+        if (lines.isEmpty()) {
+            throw new IOException("no payloads in " + fileName);
+        }
+        Payload payloads[] = new Payload[lines.size()];
+        for (int k = 0; k < payloads.length; ++k) {
+            payloads[k] = new Payload(lines.get(k).getBytes());
+        }
+        return new PayloadCorpus(payloads, fileName);
+    }
+
+    // client number i starts at its own offset, so the clients do not
+    // send the same sequence in step
+    Cursor cursor(int i) {
+        return new Cursor((int) ((long) i * 7919 % payloads.length));
+    }
+
+    int maxLength() {
+        int max = 0;
+        for (Payload p: payloads) { max = Math.max(max, p.line.length); }
+        return max;
+    }
+
+    String report() {
+        long total = 0;
+        int min = Integer.MAX_VALUE, max = 0;
+        for (Payload p: payloads) {
+            total += p.text.length;
+            min = Math.min(min, p.text.length);
+            max = Math.max(max, p.text.length);
+        }
+        return "payload corpus: " + payloads.length + " payloads (" + source +
+                "), " + min + " to " + max + " bytes, mean " +
+                total / payloads.length;
+    }
+}
@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// windowed UDP client (udpWindow > 0): unlike UDPClient it keeps one
+// connected channel to the (once resolved) server address and up to
+// window requests outstanding. The requests are sequenced fragments (see
+// UDPFraming.FLAG_SEQUENCED), the server echoes the sequence number in
+// the response, so the responses may come in any order. The window slides
+// as TCP's: a request is sent only if it is within window of the oldest
+// one not answered yet.
+// A request not answered within the retransmission timeout, or overtaken
+// by enough responses to the later ones (see LossDetector), is sent again,
+// up to maxRetransmits times, then counted as lost.
+// Closed loop: a slot of the window is reused pause milliseconds after its
+// request is over (window 1: the exchanges of UDPClient); open loop: the
+// requests go at the timeline slots, later if the window is full.
+class ReliableUDPClient implements Runnable {
+
+    private static final long MAX_RTO = Client.TIMEOUT * 1000000L;
+    private static final int IN_BUFF_SIZE = 256;
+
+    private static final LongAdder nAnswered = new LongAdder();
+    private static final LongAdder nLost = new LongAdder();
+    private static final LongAdder nTimeoutRetransmits = new LongAdder();
+    private static final LongAdder nFastRetransmits = new LongAdder();
+    private static final LongAdder nSpurious = new LongAdder();
+    private static final LongAdder nReordered = new LongAdder();
+    private static final LongAdder nDuplicates = new LongAdder();
+    private static final LongAdder nUnsent = new LongAdder();
+
+    private final int numThread;
+    private final InetSocketAddress server;
+    private final int pause;
+    private final int fragmentSize; // 0: the whole message in one datagram
+    private final int maxRetransmits;
+    private final PayloadCorpus.Cursor payloads;
+    private final LatencyRecorder latency = LatencyRecorder.create();
+
+    // the window: the request of sequence number s is in slot s % length
+    private final Request slots[];
+    private int base = 0;    // the oldest request not answered
+    private int next = 0;    // the sequence number of the next request
+    private int inFlight = 0;
+    private int highestAnswered = -1;
+    private long nTransmissions = 0; // the order of the transmissions
+
+    // closed loop: when the free slots may be used again, a ring of
+    // window - inFlight times from readyHead on
+    private final long readyAt[];
+    private int readyHead = 0;
+    // open loop: the intended start of the next request, if taken
+    private long nextStart = -1;
+
+    private final LossDetector detector;
+
+    private DatagramChannel channel;
+    private Selector selector;
+    private final ByteBuffer in = ByteBuffer.allocate(IN_BUFF_SIZE);
+
+    private static final class Request {
+
+        private boolean active = false;
+        private int sequence;
+        private PayloadCorpus.Payload sentence;
+        private byte datagrams[][];
+        private long start;     // intended, System.nanoTime()
+        private long firstSent;
+        private long lastSent;
+        private long deadline;  // of the retransmission timeout
+        private long order;     // of the last transmission
+        private int retransmits;
+        private int overtaken;  // answered requests sent after it
+        private boolean fastRetransmitted;
+    }
+
+    public ReliableUDPClient(int numThread, InetSocketAddress server,
+                             int pause, int fragmentSize, int window,
+                             int maxRetransmits) {
+        this.numThread = numThread;
+        this.server = server;
+        this.pause = pause;
+        this.fragmentSize = fragmentSize;
+        this.maxRetransmits = maxRetransmits;
+        payloads = Client.corpus.cursor(numThread);
+        slots = new Request[window];
+        for (int i = 0; i < window; ++i) { slots[i] = new Request(); }
+        readyAt = new long[window]; // all ready now
+        detector = new LossDetector(MAX_RTO, window);
+    }
+
+    static long lost() { return nLost.sum(); }
+
+    static String report() {
+        return "reliable UDP: " + nAnswered.sum() + " answered, " +
+                nLost.sum() + " lost, " + (nTimeoutRetransmits.sum() +
+                nFastRetransmits.sum()) + " retransmitted (" +
+                nTimeoutRetransmits.sum() + " on timeout, " +
+                nFastRetransmits.sum() + " fast, " + nSpurious.sum() +
+                " of them spurious), " + nReordered.sum() +
+                " reordered, " + nDuplicates.sum() + " duplicate responses, " +
+                nUnsent.sum() + " datagrams not sent (buffer full)";
+    }
+
+    @Override
+    public void run() {
+
+        try {
+            channel = DatagramChannel.open();
+            channel.connect(server);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            System.err.println("client thread " + numThread + ": " +
+                    "cannot open the UDP channel, " + e.getMessage());
+            return;
+        }
+
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                sendDue(now);
+                retransmitDue(now);
+
+                long wait = nextEvent() - System.nanoTime();
+                if (wait <= 0) {
+                    selector.selectNow();
+                } else {
+                    selector.select(Math.max(wait / 1000000L, 1));
+                }
+                selector.selectedKeys().clear();
+                receiveAll();
+            }
+        } catch (IOException e) {
+            System.err.println("client thread " + numThread + ": " +
+                    "UDP exchange failed, " + e.getMessage());
+            Client.nFailed.incrementAndGet();
+        } finally {
+            try { selector.close(); channel.close(); }
+            catch (IOException dummy) {}
+        }
+    }
+
+    // the new requests the window and the load allow
+    private void sendDue(long now) {
+
+        while (next - base < slots.length) {
+            long start;
+            if (Client.timeline != null) {
+                if (nextStart < 0) { nextStart = Client.timeline.next(); }
+                if (nextStart > now) { return; }
+                start = nextStart;
+                nextStart = -1;
+            } else {
+                if (readyAt[readyHead] > now) { return; }
+                readyHead = (readyHead + 1) % readyAt.length;
+                start = now;
+            }
+
+            Request r = slots[Math.floorMod(next, slots.length)];
+            r.active = true;
+            r.sequence = next++;
+            r.sentence = payloads.next();
+            r.datagrams = Client.sequencedDatagrams(
+                    r.sentence.line, fragmentSize, r.sequence);
+            r.start = start;
+            r.retransmits = 0;
+            r.fastRetransmitted = false;
+            ++inFlight;
+
+            long sendStart = System.nanoTime();
+            transmit(r, sendStart);
+            r.firstSent = System.nanoTime();
+            latency.record(LatencyRecorder.SEND, r.firstSent - sendStart);
+            Client.nSent.incrementAndGet();
+            now = r.firstSent;
+        }
+    }
+
+    private void retransmitDue(long now) {
+
+        boolean backedOff = false;
+        for (Request r: slots) {
+            if (!r.active) { continue; }
+            if (r.deadline > now) {
+                if (r.retransmits < maxRetransmits &&
+                        detector.lostAt(r.lastSent, r.overtaken) <= now) {
+                    nFastRetransmits.increment();
+                    r.fastRetransmitted = true;
+                    retransmit(r, now);
+                }
+                continue;
+            }
+            if (r.retransmits >= maxRetransmits) {
+                nLost.increment();
+                if (Client.printExchanges) {
+                    System.out.println(new String(r.sentence.line) +
+                            " -> (lost)");
+                }
+                over(r, now);
+                continue;
+            }
+            // back off (once for all the requests timed out together)
+            // until the next measure
+            if (!backedOff) {
+                detector.timedOut();
+                backedOff = true;
+            }
+            nTimeoutRetransmits.increment();
+            retransmit(r, now);
+        }
+    }
+
+    private void retransmit(Request r, long now) {
+        ++r.retransmits;
+        transmit(r, now);
+    }
+
+    // a datagram the socket buffer has no room for is as good as lost,
+    // the retransmission takes care of it
+    private void transmit(Request r, long now) {
+
+        for (byte d[]: r.datagrams) {
+            try {
+                if (channel.write(ByteBuffer.wrap(d)) == 0) {
+                    nUnsent.increment();
+                }
+            } catch (PortUnreachableException e) {
+                // no server (yet): as a lost datagram
+            } catch (IOException e) {
+                System.err.println("client thread " + numThread + ": " +
+                        "error while sending a packet, " + e.getMessage());
+            }
+        }
+        r.order = ++nTransmissions;
+        r.overtaken = 0;
+        r.lastSent = now;
+        r.deadline = now + detector.rto();
+    }
+
+    private void receiveAll() throws IOException {
+
+        while (true) {
+            in.clear();
+            int n;
+            try {
+                n = channel.read(in);
+            } catch (PortUnreachableException e) {
+                continue; // no server (yet), the requests are retransmitted
+            }
+            if (n <= 0) { return; }
+            if (!UDPFraming.isFragment(in.array(), n) ||
+                    (UDPFraming.flags(in.array()) &
+                    UDPFraming.FLAG_SEQUENCED) == 0) {
+                continue; // not a response to a sequenced request
+            }
+            answered(UDPFraming.messageId(in.array()), n);
+        }
+    }
+
+    private void answered(int sequence, int length) {
+
+        long now = System.nanoTime();
+        Request r = slots[Math.floorMod(sequence, slots.length)];
+        if (!r.active || r.sequence != sequence) {
+            nDuplicates.increment(); // answered before, or lost
+            if (r.sequence == sequence && r.fastRetransmitted) {
+                // it was not lost, only late
+                nSpurious.increment();
+                detector.spurious();
+                r.fastRetransmitted = false;
+            }
+            return;
+        }
+        if (sequence < highestAnswered) { nReordered.increment(); }
+        highestAnswered = Math.max(highestAnswered, sequence);
+
+        String response = new String(in.array(), UDPFraming.HEADER_SIZE,
+                length - UDPFraming.HEADER_SIZE).trim();
+        if (Client.BUSY.equals(response)) {
+            // refused: neither answered nor timed, and not retransmitted
+            Client.nBusy.incrementAndGet();
+        } else {
+            // Karn: the retransmitted requests tell nothing about the RTT
+            if (r.retransmits == 0) { detector.measured(now - r.firstSent); }
+
+            latency.record(LatencyRecorder.WAIT, now - r.firstSent);
+            latency.record(LatencyRecorder.TOTAL, now - r.start);
+            nAnswered.increment();
+        }
+        if (Client.printExchanges) {
+            System.out.println(new String(r.sentence.line) + " -> " + response);
+        }
+
+        // the requests sent before it are overtaken (sent again by
+        // retransmitDue() if lost)
+        for (Request o: slots) {
+            if (o.active && o != r && o.order < r.order) { ++o.overtaken; }
+        }
+        over(r, now);
+    }
+
+    // the request is answered or given up: free its slot, slide the window
+    private void over(Request r, long now) {
+
+        r.active = false;
+        r.sentence = null;
+        r.datagrams = null;
+        --inFlight;
+        if (Client.timeline == null) {
+            int tail = (readyHead + slots.length - inFlight - 1) %
+                    readyAt.length;
+            readyAt[tail] = now + pause * 1000000L;
+        }
+        while (base < next &&
+                !slots[Math.floorMod(base, slots.length)].active) {
+            ++base;
+        }
+    }
+
+    // System.nanoTime() of the next thing to do: a retransmission or
+    // a new request (if the window has room)
+    private long nextEvent() {
+
+        long t = Long.MAX_VALUE;
+        for (Request r: slots) {
+            if (!r.active) { continue; }
+            t = Math.min(t, r.deadline);
+            if (r.retransmits < maxRetransmits) {
+                t = Math.min(t, detector.lostAt(r.lastSent, r.overtaken));
+            }
+        }
+        if (next - base < slots.length) {
+            if (Client.timeline != null) {
+                if (nextStart < 0) { nextStart = Client.timeline.next(); }
+                t = Math.min(t, nextStart);
+            } else {
+                t = Math.min(t, readyAt[readyHead]);
+            }
+        }
+        return t;
+    }
+}
@@ -0,0 +1,268 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+
+// the results of a run (resultsFile): a flat JSON object of the settings
+// ("config.<name>"), the throughput, the error counts and the latency
+// percentiles ("latency.<phase>.<statistic>", microseconds), written when
+// the run ends. Two such files are compared with
+//
+//   java Client compare <baseline> <results> [throughputDrop=5] [latencyRise=10]
+//
+// which lists the changes and fails (exit status 1) if the throughput
+// dropped or the tail latency (total p99, p99.9) rose by more than the
+// given percents.
+class RunResults {
+
+    private static final double DEFAULT_THROUGHPUT_DROP = 5;
+    private static final double DEFAULT_LATENCY_RISE = 10;
+    // the regressions are judged on these
+    private static final String THROUGHPUT = "throughput";
+    private static final String TAIL_LATENCIES[] = {
+            "latency.total.p99", "latency.total.p99.9"};
+    // and these are shown
+    private static final String SHOWN[] = {
+            "sent", "throughput", "errors", "busy", "latency.total.p50",
+            "latency.total.p90", "latency.total.p99", "latency.total.p99.9",
+            "latency.total.max", "latency.total.mean"};
+
+    private RunResults() {}
+
+    // values: strings or numbers
+    static void write(String file, Map<String, Object> values)
+            throws IOException {
+
+        try (Writer w = Files.newBufferedWriter(Paths.get(file),
+                StandardCharsets.UTF_8)) {
+            w.write("{\n");
+            int i = 0;
+            for (Map.Entry<String, Object> e: values.entrySet()) {
+                w.write("  " + quote(e.getKey()) + ": " + json(e.getValue()) +
+                        (++i < values.size() ? ",\n" : "\n"));
+            }
+            w.write("}\n");
+        }
+    }
+
+    // the values of a results file, as written
+    static Map<String, String> read(String file) throws IOException {
+        String s = new String(Files.readAllBytes(Paths.get(file)),
+                StandardCharsets.UTF_8);
+        return (new Parser(s, file)).object();
+    }
+
+    // the compare command, returns the exit status: 0 (no regression),
+    // 1 (regression) or 2 (bad arguments, unreadable files)
+    static int compare(String args[]) {
+
+        if (args.length < 3) {
+            System.err.println("usage: java Client compare <baseline> " +
+                    "<results> [throughputDrop=percent] [latencyRise=percent]");
+            return 2;
+        }
+        double throughputDrop = DEFAULT_THROUGHPUT_DROP;
+        double latencyRise = DEFAULT_LATENCY_RISE;
+        for (int i = 3; i < args.length; ++i) {
+            String kv[] = args[i].split("=", 2);
+            double v = kv.length == 2 ? parse(kv[1]) : Double.NaN;
+            if (!(v >= 0)) {
+                System.err.println("invalid threshold: " + args[i]);
+                return 2;
+            }
+            if (kv[0].equals("throughputDrop")) {
+                throughputDrop = v;
+            } else if (kv[0].equals("latencyRise")) {
+                latencyRise = v;
+            } else {
+                System.err.println("unknown threshold: " + kv[0]);
+                return 2;
+            }
+        }
+
+        Map<String, String> base, current;
+        try {
+            base = read(args[1]);
+            current = read(args[2]);
+        } catch (IOException e) {
+            System.err.println("cannot read the results: " + e.getMessage());
+            return 2;
+        }
+
+        // the settings which differ (but where the results go), the
+        // comparison may be meaningless
+        for (Map.Entry<String, String> e: base.entrySet()) {
+            String k = e.getKey();
+            if (k.startsWith("config.") && !k.equals("config.resultsFile") &&
+                    !e.getValue().equals(current.get(k))) {
+                System.out.println("NB: " + k + " differs: " + e.getValue() +
+                        " -> " + current.get(k));
+            }
+        }
+
+        System.out.println(String.format("%-22s %14s %14s %9s",
+                "", "baseline", "results", "change"));
+        for (String k: SHOWN) {
+            double b = parse(base.get(k)), c = parse(current.get(k));
+            if (Double.isNaN(b) && Double.isNaN(c)) { continue; }
+            System.out.println(String.format(Locale.ROOT,
+                    "%-22s %14.1f %14.1f %8.1f%%", k, b, c, change(b, c)));
+        }
+
+        boolean regressed = false;
+        double b = parse(base.get(THROUGHPUT));
+        double c = parse(current.get(THROUGHPUT));
+        if (missing(b, c)) {
+            System.out.println("REGRESSION: no " + THROUGHPUT + " in the results");
+            regressed = true;
+        } else if (-change(b, c) > throughputDrop) {
+            System.out.println(String.format(Locale.ROOT,
+                    "REGRESSION: throughput dropped by %.1f%% (limit %.1f%%)",
+                    -change(b, c), throughputDrop));
+            regressed = true;
+        }
+        for (String k: TAIL_LATENCIES) {
+            b = parse(base.get(k));
+            c = parse(current.get(k));
+            if (missing(b, c)) {
+                System.out.println("REGRESSION: no " + k + " in the results");
+                regressed = true;
+            } else if (change(b, c) > latencyRise) {
+                System.out.println(String.format(Locale.ROOT,
+                        "REGRESSION: %s rose by %.1f%% (limit %.1f%%)",
+                        k, change(b, c), latencyRise));
+                regressed = true;
+            }
+        }
+        if (!regressed) { System.out.println("no regression"); }
+        return regressed ? 1 : 0;
+    }
+
+    // percent, NaN if either is missing
+    private static double change(double base, double current) {
+        if (base == 0) { return current == 0 ? 0 : Double.NaN; }
+        return (current - base) / base * 100;
+    }
+
+    // in the baseline, but not in the results (none measured, the run
+    // failed): no better than a regression
+    private static boolean missing(double base, double current) {
+        return !Double.isNaN(base) && Double.isNaN(current);
+    }
+
+    private static double parse(String s) {
+        if (s == null) { return Double.NaN; }
+        try { return Double.parseDouble(s); }
+        catch (NumberFormatException e) { return Double.NaN; }
+    }
+
+    private static String json(Object v) {
+        if (v instanceof Double || v instanceof Float) {
+            double d = ((Number) v).doubleValue();
+            // JSON has no NaN nor infinities
+            return Double.isFinite(d) ?
+                    String.format(Locale.ROOT, "%.3f", d) : "null";
+        }
+        return v instanceof Number ? v.toString() : quote(String.valueOf(v));
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // just enough JSON for the files write() makes: an object of strings,
+    // numbers and nulls
+    private static class Parser {
+
+        private final String s;
+        private final String file;
+        private int i = 0;
+
+        Parser(String s, String file) {
+            this.s = s;
+            this.file = file;
+        }
+
+        Map<String, String> object() throws IOException {
+
+            Map<String, String> m = new LinkedHashMap<>();
+            expect('{');
+            if (peek() == '}') { return m; }
+            while (true) {
+                String key = string();
+                expect(':');
+                m.put(key, peek() == '"' ? string() : literal());
+                if (peek() == '}') { return m; }
+                expect(',');
+            }
+        }
+
+        private String string() throws IOException {
+
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (i < s.length() && s.charAt(i) != '"') {
+                char c = s.charAt(i++);
+                if (c == '\\' && i < s.length()) {
+                    c = s.charAt(i++);
+                    if (c == 'u' && i + 4 <= s.length()) {
+                        c = (char) Integer.parseInt(s.substring(i, i + 4), 16);
+                        i += 4;
+                    } else if (c == 'n') {
+                        c = '\n';
+                    } else if (c == 't') {
+                        c = '\t';
+                    }
+                }
+                sb.append(c);
+            }
+            expect('"');
+            return sb.toString();
+        }
+
+        private String literal() throws IOException {
+            int from = i;
+            while (i < s.length() && ",}".indexOf(s.charAt(i)) < 0 &&
+                    !Character.isWhitespace(s.charAt(i))) {
+                ++i;
+            }
+            if (i == from) { throw error("a value"); }
+            String v = s.substring(from, i);
+            return v.equals("null") ? null : v;
+        }
+
+        private char peek() throws IOException {
+            while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+                ++i;
+            }
+            if (i == s.length()) { throw error("more"); }
+            return s.charAt(i);
+        }
+
+        private void expect(char c) throws IOException {
+            if (peek() != c) { throw error("'" + c + "'"); }
+            ++i;
+        }
+
+        private IOException error(String expected) {
+            return new IOException(file + ": " + expected +
+                    " expected at offset " + i);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+// the saturation search (loadProfile=search): the offered load is raised
+// step by step (by factor each time, up to maxRate if any) until a step
+// breaks the SLO, then the last good and the first bad rates are bisected
+// refinements times; the best good step gives the maximum sustainable
+// throughput. A step breaks the SLO if its p99 latency exceeds sloP99,
+// its error rate exceeds sloErrorRate, or less than SUSTAINED of the
+// offered load is achieved (the client threads cannot keep up).
+// Each step is sampled every second, its first second (the transient of
+// the change) left out; it is measured over the last STEADY_SAMPLES
+// samples once they are steady (their throughput and p99 vary by less
+// than THROUGHPUT_CV and P99_CV), or at the end of stepSeconds at the
+// latest, then flagged as not steady.
+class SaturationSearch implements Runnable {
+
+    private static final long SAMPLE_MILLIS = 1000;
+    private static final int STEADY_SAMPLES = 5;
+    // coefficients of variation
+    private static final double THROUGHPUT_CV = 0.05;
+    private static final double P99_CV = 0.25;
+    private static final double SUSTAINED = 0.9;
+
+    private final LoadProfile profile;
+    private final double startRate;
+    private final double maxRate; // 0: none
+    private final double factor;
+    private final int refinements;
+    private final double stepSeconds;
+    private final double sloP99; // milliseconds
+    private final double sloErrorRate; // percent
+
+    private final List<Step> steps = new ArrayList<>();
+    private volatile Step best;
+
+    private static final class Step {
+
+        private double offered;
+        private double achieved;
+        private double p99; // milliseconds
+        private double errorRate; // percent
+        private double seconds;
+        private boolean steady;
+        private boolean ok;
+
+        @Override
+        public String toString() {
+            return String.format("offered %.1f requests/s: achieved %.1f, " +
+                    "p99 %.1f ms, errors %.2f%%, %s after %.0f s -> %s",
+                    offered, achieved, p99, errorRate,
+                    steady ? "steady" : "NOT steady", seconds,
+                    ok ? "ok" : "SLO broken");
+        }
+    }
+
+    // one second of a step
+    private static final class Sample {
+
+        private final LatencyHistogram latency;
+        private final long sent;
+        private final long errors;
+        private final double seconds;
+
+        Sample(LatencyHistogram latency, long sent, long errors,
+               double seconds) {
+            this.latency = latency;
+            this.sent = sent;
+            this.errors = errors;
+            this.seconds = seconds;
+        }
+
+        double throughput() { return latency.count() / seconds; }
+
+        double p99() { return latency.percentile(99) / 1e6; }
+    }
+
+    SaturationSearch(LoadProfile profile, double startRate, double maxRate,
+                     double factor, int refinements, double stepSeconds,
+                     double sloP99, double sloErrorRate) {
+        this.profile = profile;
+        this.startRate = startRate;
+        this.maxRate = maxRate;
+        this.factor = factor;
+        this.refinements = refinements;
+        this.stepSeconds = stepSeconds;
+        this.sloP99 = sloP99;
+        this.sloErrorRate = sloErrorRate;
+    }
+
+    @Override
+    public void run() {
+
+        profile.setSearchRate(startRate);
+        if (profile.warmup() > 0) {
+            System.out.println("search: warming up for " +
+                    profile.warmup() + " s");
+            sleep((long) (profile.warmup() * 1000));
+        }
+        Client.startMeasuring();
+
+        // up by factor until the SLO is broken (or the maximum is held)
+        double good = 0, bad = -1;
+        double rate = startRate;
+        while (true) {
+            Step s = measure(rate);
+            if (!s.ok) {
+                bad = rate;
+                break;
+            }
+            good = rate;
+            if (maxRate > 0 && rate >= maxRate) { break; }
+            rate = maxRate > 0 ? Math.min(rate * factor, maxRate) :
+                    rate * factor;
+        }
+        // then bisect
+        for (int i = 0; i < refinements && bad > 0; ++i) {
+            rate = (good + bad) / 2;
+            if (measure(rate).ok) { good = rate; } else { bad = rate; }
+        }
+
+        Step b = best;
+        System.out.println(b == null ?
+                "search: the SLO is broken at the lowest rate, " +
+                String.format("%.1f requests/s", startRate) :
+                String.format("search: max sustainable throughput " +
+                "%.1f requests/s (offered %.1f, p99 %.1f ms)",
+                b.achieved, b.offered, b.p99));
+        // the hook prints the reports and writes the results
+        System.exit(0);
+    }
+
+    private Step measure(double rate) {
+
+        profile.setSearchRate(rate);
+        Client.timeline.restart();
+        long stepStart = System.nanoTime();
+
+        // the first second is the transient of the change
+        sleep(SAMPLE_MILLIS);
+        LatencyHistogram previous = LatencyRecorder.totals();
+        long sent = Client.nSent.get(), errors = Client.errors();
+        long time = System.nanoTime();
+
+        List<Sample> samples = new ArrayList<>();
+        boolean steady = false;
+        while (true) {
+            sleep(SAMPLE_MILLIS);
+            LatencyHistogram current = LatencyRecorder.totals();
+            long now = System.nanoTime();
+            long s = Client.nSent.get(), e = Client.errors();
+            LatencyHistogram delta = new LatencyHistogram();
+            delta.add(current);
+            delta.subtract(previous);
+            samples.add(new Sample(delta, s - sent, e - errors,
+                    (now - time) / 1e9));
+            previous = current;
+            sent = s;
+            errors = e;
+            time = now;
+
+            if (samples.size() >= STEADY_SAMPLES && steady(last(samples))) {
+                steady = true;
+                break;
+            }
+            if ((now - stepStart) / 1e9 >= stepSeconds) { break; }
+        }
+
+        Step step = new Step();
+        step.offered = rate;
+        step.steady = steady;
+        step.seconds = (System.nanoTime() - stepStart) / 1e9;
+        LatencyHistogram latency = new LatencyHistogram();
+        long nSent = 0, nErrors = 0;
+        double seconds = 0;
+        for (Sample s: last(samples)) {
+            latency.add(s.latency);
+            nSent += s.sent;
+            nErrors += s.errors;
+            seconds += s.seconds;
+        }
+        step.achieved = latency.count() / seconds;
+        step.p99 = latency.percentile(99) / 1e6;
+        step.errorRate = nSent == 0 ? 0 : 100. * nErrors / nSent;
+        step.ok = step.p99 <= sloP99 && step.errorRate <= sloErrorRate &&
+                step.achieved >= SUSTAINED * rate;
+
+        synchronized (steps) { steps.add(step); }
+        if (step.ok && (best == null || step.achieved > best.achieved)) {
+            best = step;
+        }
+        System.out.println("search: " + step);
+        return step;
+    }
+
+    private static List<Sample> last(List<Sample> samples) {
+        return samples.subList(
+                Math.max(samples.size() - STEADY_SAMPLES, 0), samples.size());
+    }
+
+    private static boolean steady(List<Sample> samples) {
+
+        double throughput[] = new double[samples.size()];
+        double p99[] = new double[samples.size()];
+        for (int i = 0; i < throughput.length; ++i) {
+            Sample s = samples.get(i);
+            if (s.latency.count() == 0) { return false; }
+            throughput[i] = s.throughput();
+            p99[i] = s.p99();
+        }
+        return cv(throughput) <= THROUGHPUT_CV && cv(p99) <= P99_CV;
+    }
+
+    // coefficient of variation: standard deviation / mean
+    private static double cv(double x[]) {
+        double mean = 0, var = 0;
+        for (double v: x) { mean += v; }
+        mean /= x.length;
+        for (double v: x) { var += (v - mean) * (v - mean); }
+        return mean == 0 ? 0 : Math.sqrt(var / x.length) / mean;
+    }
+
+    private static void sleep(long millis) {
+        try { Thread.sleep(millis); }
+        catch (InterruptedException dummy) {}
+    }
+
+    // the steps and the outcome, for the run results
+    Map<String, Object> results() {
+
+        Map<String, Object> m = new LinkedHashMap<>();
+        Step b = best;
+        m.put("search.maxThroughput", b == null ? 0. : b.achieved);
+        m.put("search.maxOffered", b == null ? 0. : b.offered);
+        synchronized (steps) {
+            for (int i = 0; i < steps.size(); ++i) {
+                Step s = steps.get(i);
+                String p = "search.step." + i + ".";
+                m.put(p + "offered", s.offered);
+                m.put(p + "achieved", s.achieved);
+                m.put(p + "p99", s.p99);
+                m.put(p + "errorRate", s.errorRate);
+                m.put(p + "steady", s.steady ? "true" : "false");
+                m.put(p + "ok", s.ok ? "true" : "false");
+            }
+        }
+        return m;
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+
+// TLS connections to the server (protocol=TLS): a TCP connection is layered
+// with an SSLSocket and the handshake is done at once, so that it is timed
+// and counted as full or resumed (the session was created before the
+// handshake started, i.e. it came from the session cache). The sessions
+// are cached by the SSLContext: with resumption all the connections share
+// one, so the handshakes after the first one may resume its session;
+// without, each connection has a context of its own and a full handshake.
+// The server certificate (see the server tlsCertificate) is the only one
+// trusted; the host name is not checked against it.
+class TLSConnector {
+
+    private static final Handshakes FULL = new Handshakes();
+    private static final Handshakes RESUMED = new Handshakes();
+
+    private static KeyStore trusted;
+    private static String protocols[]; // null: the JDK defaults
+    private static boolean resumption;
+    // resumption only
+    private static SSLSocketFactory sharedFactory;
+
+    private static final class Handshakes {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long d) {
+            count.increment();
+            nanos.add(d);
+            max.accumulate(d);
+        }
+
+        @Override
+        public String toString() {
+            long n = count.sum();
+            return n + (n == 0 ? "" : String.format(
+                    " (mean %.1f us, max %.1f us)",
+                    nanos.sum() / 1e3 / n, max.get() / 1e3));
+        }
+    }
+
+    private TLSConnector() {}
+
+    // certificate: of the server (PEM or DER)
+    static void init(String certificate, String protocols[],
+                     boolean resumption)
+            throws IOException, GeneralSecurityException {
+
+        trusted = KeyStore.getInstance(KeyStore.getDefaultType());
+        trusted.load(null, null);
+        try (InputStream in = new FileInputStream(certificate)) {
+            int i = 0;
+            for (Certificate c: CertificateFactory.getInstance("X.509")
+                    .generateCertificates(in)) {
+                trusted.setCertificateEntry("server-" + i++, c);
+            }
+        }
+        TLSConnector.protocols = protocols;
+        TLSConnector.resumption = resumption;
+        if (resumption) { sharedFactory = newFactory(); }
+    }
+
+    // layer TLS over the connection to host:port, do the handshake
+    static Socket secure(Socket socket, String host, int port)
+            throws IOException {
+
+        SSLSocketFactory factory;
+        try {
+            factory = resumption ? sharedFactory : newFactory();
+        } catch (GeneralSecurityException e) {
+            socket.close();
+            throw new IOException("cannot set up TLS: " + e.getMessage());
+        }
+
+        // the handshake flights are small writes, Nagle would hold
+        // them for the delayed ACKs
+        socket.setTcpNoDelay(true);
+        // host and port: the session cache key
+        SSLSocket tls = (SSLSocket) factory.createSocket(
+                socket, host, port, true);
+        try {
+            if (protocols != null) { tls.setEnabledProtocols(protocols); }
+            long startMillis = System.currentTimeMillis();
+            long start = System.nanoTime();
+            tls.startHandshake();
+            long d = System.nanoTime() - start;
+            // a resumed session is as old as its first handshake
+            (tls.getSession().getCreationTime() < startMillis ?
+                    RESUMED : FULL).record(d);
+            return tls;
+        } catch (IOException | IllegalArgumentException e) {
+            tls.close();
+            throw e instanceof IOException ? (IOException) e :
+                    new IOException(e.getMessage());
+        }
+    }
+
+    static String report() {
+        return "TLS handshakes: " + FULL + " full, " + RESUMED + " resumed";
+    }
+
+    private static SSLSocketFactory newFactory()
+            throws GeneralSecurityException {
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trusted);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, tmf.getTrustManagers(), null);
+        return context.getSocketFactory();
+    }
+}
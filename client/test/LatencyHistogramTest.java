@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+
+class LatencyHistogramTest {
+
+    @Test
+    void theSmallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int v = 1; v <= 100; ++v) { h.record(v); }
+        assertEquals(100, h.count());
+        assertEquals(50, h.percentile(50));
+        assertEquals(99, h.percentile(99));
+        assertEquals(100, h.percentile(100));
+        assertEquals(1, h.percentile(0));
+        assertEquals(100, h.max());
+        assertEquals(50.5, h.mean(), 1e-9);
+    }
+
+    @Test
+    void theLargeValuesAreWithinABucket() {
+        LatencyHistogram h = new LatencyHistogram();
+        long values[] = {1000, 123456, 7654321, 2000000000L};
+        for (long v: values) {
+            LatencyHistogram one = new LatencyHistogram();
+            one.record(v);
+            long p = one.percentile(50);
+            // the upper bound of the bucket, 1/64 wide
+            assertTrue(p >= v && p <= v + v / 64, v + " -> " + p);
+            h.record(v);
+        }
+        assertTrue(h.percentile(25) >= 1000 && h.percentile(25) < 1100);
+        assertTrue(h.max() >= 2000000000L);
+    }
+
+    @Test
+    void clampsTheOutOfRangeValues() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        assertEquals(2, h.count());
+        assertEquals(0, h.percentile(50));
+        assertTrue(h.max() > 0 && h.max() < Long.MAX_VALUE);
+    }
+
+    @Test
+    void anEmptyHistogramIsZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.count());
+        assertEquals(0, h.percentile(99));
+        assertEquals(0, h.max());
+        assertEquals(0, h.mean(), 0);
+    }
+
+    @Test
+    void addsAndSubtractsSnapshots() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 10; ++i) { h.record(10); }
+        LatencyHistogram snapshot = new LatencyHistogram();
+        snapshot.add(h);
+        for (int i = 0; i < 10; ++i) { h.record(20); }
+
+        LatencyHistogram delta = new LatencyHistogram();
+        delta.add(h);
+        delta.subtract(snapshot);
+        assertEquals(10, delta.count());
+        assertEquals(20, delta.percentile(1));
+
+        delta.reset();
+        assertEquals(0, delta.count());
+    }
+}
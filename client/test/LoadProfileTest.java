@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+
+class LoadProfileTest {
+
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    void constantIsTheTargetAllAlong() {
+        LoadProfile p = new LoadProfile("constant", 10, 100, 5, 4, 1, 2);
+        assertEquals(100, p.rate(0), EPSILON);
+        assertEquals(100, p.rate(1.9), EPSILON); // the warm-up too
+        assertEquals(100, p.rate(1000), EPSILON);
+        assertFalse(p.isSearch());
+    }
+
+    @Test
+    void rampRisesLinearlyAfterTheWarmup() {
+        LoadProfile p = new LoadProfile("ramp", 100, 300, 10, 1, 0, 2);
+        assertEquals(100, p.rate(0), EPSILON);
+        assertEquals(100, p.rate(1.99), EPSILON);
+        assertEquals(100, p.rate(2), EPSILON);
+        assertEquals(200, p.rate(7), EPSILON);
+        assertEquals(280, p.rate(11), EPSILON);
+        assertEquals(300, p.rate(12), EPSILON);
+        assertEquals(300, p.rate(100), EPSILON);
+    }
+
+    @Test
+    void stepHoldsEachStep() {
+        // 100, 200, 300, 400 for 5 s each, then 400
+        LoadProfile p = new LoadProfile("step", 100, 400, 5, 4, 0, 0);
+        assertEquals(100, p.rate(0), EPSILON);
+        assertEquals(100, p.rate(4.99), EPSILON);
+        assertEquals(200, p.rate(5), EPSILON);
+        assertEquals(300, p.rate(12), EPSILON);
+        assertEquals(400, p.rate(15), EPSILON);
+        assertEquals(400, p.rate(60), EPSILON);
+    }
+
+    @Test
+    void aSingleStepIsTheTarget() {
+        LoadProfile p = new LoadProfile("step", 100, 400, 5, 1, 0, 0);
+        assertEquals(400, p.rate(0), EPSILON);
+        assertEquals(400, p.rate(30), EPSILON);
+    }
+
+    @Test
+    void spikesComeAtTheEndOfEachPeriod() {
+        // 50 requests/s, 500 for the last 2 s of every 10 s
+        LoadProfile p = new LoadProfile("spike", 50, 500, 10, 1, 2, 1);
+        assertEquals(50, p.rate(0.5), EPSILON); // warm-up
+        assertEquals(50, p.rate(1), EPSILON);
+        assertEquals(50, p.rate(8.99), EPSILON);
+        assertEquals(500, p.rate(9), EPSILON);
+        assertEquals(500, p.rate(10.99), EPSILON);
+        assertEquals(50, p.rate(11), EPSILON);
+        assertEquals(500, p.rate(20), EPSILON);
+    }
+
+    @Test
+    void searchFollowsTheSetRate() {
+        LoadProfile p = new LoadProfile("search", 100, 0, 5, 1, 0, 0);
+        assertTrue(p.isSearch());
+        assertEquals(100, p.rate(0), EPSILON);
+        p.setSearchRate(250);
+        assertEquals(250, p.rate(0), EPSILON);
+        assertEquals(250, p.rate(1000), EPSILON);
+    }
+}
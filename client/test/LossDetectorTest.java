@@ -0,0 +1,137 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+
+class LossDetectorTest {
+
+    private static final long MS = 1000000L;
+    private static final long MAX_RTO = 1000 * MS;
+
+    @Test
+    void theTimeoutFollowsRfc6298() {
+        LossDetector d = new LossDetector(MAX_RTO, 8);
+        assertEquals(LossDetector.INITIAL_RTO, d.rto());
+
+        // the first measure: SRTT = R, RTTVAR = R/2, RTO = SRTT + 4 RTTVAR
+        d.measured(100 * MS);
+        assertEquals(100 * MS, d.srtt());
+        assertEquals(50 * MS, d.rttvar());
+        assertEquals(300 * MS, d.rto());
+
+        // then RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R'|, SRTT = 7/8 SRTT + 1/8 R'
+        d.measured(200 * MS);
+        assertEquals(62500000L, d.rttvar());
+        assertEquals(112500000L, d.srtt());
+        assertEquals(362500000L, d.rto());
+    }
+
+    @Test
+    void theTimeoutIsBounded() {
+        LossDetector d = new LossDetector(MAX_RTO, 8);
+        d.measured(1 * MS);
+        assertEquals(LossDetector.MIN_RTO, d.rto());
+
+        d = new LossDetector(MAX_RTO, 8);
+        d.measured(500 * MS);
+        assertEquals(MAX_RTO, d.rto());
+    }
+
+    @Test
+    void theTimeoutDoublesUntilTheNextMeasure() {
+        LossDetector d = new LossDetector(MAX_RTO, 8);
+        d.measured(100 * MS);
+        d.timedOut();
+        assertEquals(600 * MS, d.rto());
+        d.timedOut();
+        assertEquals(MAX_RTO, d.rto());
+        d.measured(100 * MS);
+        assertEquals(250 * MS, d.rto()); // 100 + 4 x 37.5
+    }
+
+    // requests sent 1 ms apart and answered at the given times; returns
+    // the number of fast retransmits of the requests not answered yet,
+    // checked every 0.1 ms
+    private static int fastRetransmits(LossDetector d, long arrivals[]) {
+
+        int n = arrivals.length;
+        long sent[] = new long[n];
+        int overtaken[] = new int[n];
+        boolean answered[] = new boolean[n];
+        for (int i = 0; i < n; ++i) { sent[i] = i * MS; }
+
+        int retransmits = 0;
+        long end = 0;
+        for (long a: arrivals) { end = Math.max(end, a); }
+        for (long now = 0; now <= end; now += MS / 10) {
+            for (int i = 0; i < n; ++i) {
+                if (answered[i] || arrivals[i] > now) { continue; }
+                answered[i] = true;
+                for (int j = 0; j < n; ++j) {
+                    if (!answered[j] && sent[j] < sent[i]) { ++overtaken[j]; }
+                }
+            }
+            for (int j = 0; j < n; ++j) {
+                if (!answered[j] && d.lostAt(sent[j], overtaken[j]) <= now) {
+                    ++retransmits;
+                    sent[j] = now; // as sent again
+                    overtaken[j] = 0;
+                }
+            }
+        }
+        return retransmits;
+    }
+
+    private static LossDetector measured(long rtt, int window) {
+        LossDetector d = new LossDetector(MAX_RTO, window);
+        for (int i = 0; i < 10; ++i) { d.measured(rtt); }
+        return d;
+    }
+
+    @Test
+    void reorderingAloneMakesNoRetransmits() {
+        LossDetector d = measured(10 * MS, 8);
+        // 8 requests sent at 0..7 ms, answered by 4 in the reverse order
+        // (at 12, 11, 10, 9 ms, then 16, 15, 14, 13 ms): the first of each
+        // 4 is overtaken by the 3 others, but answered within the round
+        // trip time and a quarter
+        long arrivals[] = new long[8];
+        for (int i = 0; i < 8; ++i) {
+            arrivals[i] = (i / 4 * 4 + 12 - i % 4) * MS;
+        }
+        assertEquals(0, fastRetransmits(d, arrivals));
+    }
+
+    @Test
+    void aLostRequestIsSentAgainOnce() {
+        LossDetector d = measured(10 * MS, 8);
+        // the first request lost, the others answered on time: it is
+        // overtaken 3 times at 13 ms, older than 12.5 ms by then
+        long arrivals[] = new long[8];
+        for (int i = 1; i < 8; ++i) { arrivals[i] = i * MS + 10 * MS; }
+        arrivals[0] = 40 * MS; // sent again, answered in the end
+        assertEquals(1, fastRetransmits(d, arrivals));
+        assertEquals(12500000L, d.lostAt(0, 3));
+    }
+
+    @Test
+    void noFastRetransmitWithoutEnoughResponses() {
+        LossDetector d = measured(10 * MS, 8);
+        assertEquals(Long.MAX_VALUE, d.lostAt(0, LossDetector.FAST_RETRANSMIT - 1));
+        // without a measure, not before the timeout
+        d = new LossDetector(MAX_RTO, 8);
+        assertEquals(LossDetector.INITIAL_RTO, d.lostAt(0, 7));
+    }
+
+    @Test
+    void theSpuriousRetransmitsRaiseTheThreshold() {
+        LossDetector d = measured(10 * MS, 5);
+        assertEquals(LossDetector.FAST_RETRANSMIT, d.threshold());
+        d.spurious();
+        assertEquals(4, d.threshold());
+        assertEquals(Long.MAX_VALUE, d.lostAt(0, 3));
+        d.spurious();
+        d.spurious();
+        assertEquals(5, d.threshold()); // the window: never
+    }
+}
@@ -0,0 +1,145 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+class RunResultsTest {
+
+    private Path dir;
+
+    @BeforeEach
+    void createDir() throws IOException {
+        dir = Files.createTempDirectory("results");
+    }
+
+    @AfterEach
+    void deleteDir() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    // a results file with the given throughput and total p99, p99.9
+    private String results(String name, double throughput, long p99,
+                           long p999) throws IOException {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("config.framing", "binary");
+        values.put("throughput", throughput);
+        values.put("busy", 0L);
+        values.put("latency.total.p99", p99);
+        values.put("latency.total.p99.9", p999);
+        String file = dir.resolve(name).toString();
+        RunResults.write(file, values);
+        return file;
+    }
+
+    @Test
+    void theValuesAreReadAsWritten() throws IOException {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("config.name", "a \"quoted\\\" \n name");
+        values.put("sent", 12345L);
+        values.put("throughput", 1234.5678);
+        values.put("latency.total.mean", Double.NaN);
+        String file = dir.resolve("r.json").toString();
+        RunResults.write(file, values);
+
+        Map<String, String> read = RunResults.read(file);
+        assertEquals(4, read.size());
+        assertEquals("a \"quoted\\\" \n name", read.get("config.name"));
+        assertEquals("12345", read.get("sent"));
+        assertEquals("1234.568", read.get("throughput"));
+        // JSON has no NaN
+        assertTrue(read.containsKey("latency.total.mean"));
+        assertNull(read.get("latency.total.mean"));
+    }
+
+    @Test
+    void aMalformedFileIsRejected() throws IOException {
+        Path file = dir.resolve("bad.json");
+        Files.writeString(file, "{\"throughput\": 12");
+        assertThrows(IOException.class, () -> RunResults.read(file.toString()));
+    }
+
+    @Test
+    void noRegressionWithinTheThresholds() throws IOException {
+        String base = results("base.json", 1000, 500, 900);
+        String same = results("same.json", 960, 540, 980);
+        assertEquals(0, RunResults.compare(new String[] {
+                "compare", base, same}));
+        // better is no regression either
+        String better = results("better.json", 2000, 100, 200);
+        assertEquals(0, RunResults.compare(new String[] {
+                "compare", base, better}));
+    }
+
+    @Test
+    void aThroughputDropIsARegression() throws IOException {
+        String base = results("base.json", 1000, 500, 900);
+        String slower = results("slower.json", 940, 500, 900);
+        assertEquals(1, RunResults.compare(new String[] {
+                "compare", base, slower}));
+        assertEquals(0, RunResults.compare(new String[] {
+                "compare", base, slower, "throughputDrop=10"}));
+    }
+
+    @Test
+    void aTailLatencyRiseIsARegression() throws IOException {
+        String base = results("base.json", 1000, 500, 900);
+        String p99 = results("p99.json", 1000, 560, 900);
+        String p999 = results("p999.json", 1000, 500, 1000);
+        assertEquals(1, RunResults.compare(new String[] {
+                "compare", base, p99}));
+        assertEquals(1, RunResults.compare(new String[] {
+                "compare", base, p999}));
+        assertEquals(0, RunResults.compare(new String[] {
+                "compare", base, p999, "latencyRise=12"}));
+    }
+
+    @Test
+    void aMissingValueIsARegression() throws IOException {
+        String base = results("base.json", 1000, 500, 900);
+        // none answered: no throughput, no latencies (written as null)
+        String none = results("none.json", Double.NaN, 500, 900);
+        assertEquals(1, RunResults.compare(new String[] {
+                "compare", base, none}));
+
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("config.framing", "binary");
+        values.put("throughput", 1000.0);
+        String noLatency = dir.resolve("nolatency.json").toString();
+        RunResults.write(noLatency, values);
+        assertEquals(1, RunResults.compare(new String[] {
+                "compare", base, noLatency}));
+        // missing in the baseline as well: nothing to compare
+        assertEquals(0, RunResults.compare(new String[] {
+                "compare", noLatency, noLatency}));
+    }
+
+    @Test
+    void theBadArgumentsFail() throws IOException {
+        String base = results("base.json", 1000, 500, 900);
+        String missing = dir.resolve("missing.json").toString();
+        assertEquals(2, RunResults.compare(new String[] {"compare", base}));
+        assertEquals(2, RunResults.compare(new String[] {
+                "compare", base, missing}));
+        assertEquals(2, RunResults.compare(new String[] {
+                "compare", base, base, "throughputDrop=-1"}));
+        assertEquals(2, RunResults.compare(new String[] {
+                "compare", base, base, "latencyRise"}));
+        assertEquals(2, RunResults.compare(new String[] {
+                "compare", base, base, "speed=5"}));
+    }
+}
@@ -0,0 +1,64 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// pool of direct byte buffers of the same size;
+// if the pool is empty a new buffer is allocated, the buffers released to
+// a full pool (or of a different size) are just left to the GC
+class BufferPool {
+
+    private final int bufferSize;
+    // array based, so neither acquire nor release allocates
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final AtomicLong nAllocated = new AtomicLong();
+
+    public BufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public int bufferSize() { return bufferSize; }
+
+    public ByteBuffer acquire() {
+
+        ByteBuffer b = free.poll();
+        if (b == null) {
+            nAllocated.incrementAndGet();
+            b = ByteBuffer.allocateDirect(bufferSize);
+        }
+        b.clear();
+        return b;
+    }
+
+    public void release(ByteBuffer b) {
+        if (b.isDirect() && b.capacity() == bufferSize) { free.offer(b); }
+    }
+
+    // a copy of [0, position) of b in a bigger buffer (not pooled, left
+    // to the GC once released); b is released
+    public ByteBuffer grow(ByteBuffer b, int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(capacity);
+        b.flip();
+        bigger.put(b);
+        release(b);
+        return bigger;
+    }
+
+    // b itself, or if it is a bigger one whose data [0, position) now fit
+    // into a pooled buffer, a pooled copy of them (b is then left to the GC)
+    public ByteBuffer shrink(ByteBuffer b) {
+        if (b.capacity() <= bufferSize || b.position() > bufferSize) {
+            return b;
+        }
+        ByteBuffer pooled = acquire();
+        b.flip();
+        pooled.put(b);
+        return pooled;
+    }
+
+    public String report() {
+        return "buffer pool: " + nAllocated.get() + " buffers allocated, " +
+                free.size() + " free";
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// bounded worker pool for the server handlers;
+// what happens when both the workers and the queue are busy is defined by
+// the saturation policy:
+//   "block"       - the acceptor (receiver) waits for a free queue slot;
+//   "busy"        - the new request is answered at once with BUSY_RESPONSE;
+//   "drop-oldest" - the oldest queued request is dropped (UDP: silently,
+//                   TCP: the client gets BUSY_RESPONSE) to make room
+class HandlerPool extends ThreadPoolExecutor {
+
+    private final String policy;
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong nBlocked = new AtomicLong();
+    private final AtomicLong nRejected = new AtomicLong();
+    private final AtomicLong nDropped = new AtomicLong();
+
+    public HandlerPool(int nThreads, int queueSize, String policy) {
+
+        super(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueSize));
+        this.policy = policy;
+        setRejectedExecutionHandler(new SaturationHandler());
+    }
+
+    @Override
+    public void execute(Runnable task) {
+
+        super.execute(task);
+        // LinkedBlockingQueue.size() is lock-free, cheap enough to do here
+        int depth = getQueue().size();
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    public String report() {
+        return "pool: active = " + getActiveCount() +
+                ", queued = " + getQueue().size() +
+                ", max queued = " + maxQueueDepth.get() +
+                ", completed = " + getCompletedTaskCount() +
+                ", blocked = " + nBlocked.get() +
+                ", rejected = " + nRejected.get() +
+                ", dropped = " + nDropped.get();
+    }
+
+    private class SaturationHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor pool) {
+
+            if (pool.isShutdown()) {
+                throw new RejectedExecutionException("pool is shut down");
+            }
+
+            BlockingQueue<Runnable> queue = pool.getQueue();
+
+            if (policy.equals("block")) {
+                nBlocked.incrementAndGet();
+                try {
+                    queue.put(r);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    reject(r);
+                }
+            } else if (policy.equals("drop-oldest")) {
+                // keep dropping the oldest requests until the new one fits
+                while (!queue.offer(r)) {
+                    Runnable oldest = queue.poll();
+                    if (oldest != null) {
+                        nDropped.incrementAndGet();
+                        if (oldest instanceof RequestHandler) {
+                            ((RequestHandler) oldest).drop();
+                        }
+                    }
+                }
+            } else { // "busy"
+                reject(r);
+            }
+        }
+
+        private void reject(Runnable r) {
+            nRejected.incrementAndGet();
+            if (r instanceof RequestHandler) { ((RequestHandler) r).reject(); }
+        }
+    }
+}
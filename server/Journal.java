@@ -0,0 +1,321 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+
+// durable append-only journal of the received requests, all of them (no
+// sampling, no prefix): each one is appended to a memory-mapped segment
+// file of a fixed size, a new segment is started when the current one is
+// full. An append is a copy into the page cache: the handlers reserve their
+// records with a CAS and copy them in parallel, nothing is locked but the
+// segment switch. The journal thread prepares the next segment beforehand
+// (creates, maps and touches all its pages, so the appends do not take the
+// page faults) and forces the written pages to the disk by the sync policy,
+// so many records share a force (group commit):
+//   "none"     - never, the OS writes the pages back when it likes;
+//   "interval" - every syncEvery milliseconds;
+//   "count"    - every syncEvery records (and at least once a second).
+// The responses do not wait for the force: what a crash may lose is the
+// records since the last one.
+//
+// the segments are <dir>/journal-<number>.seg, numbered on from the ones
+// already there. A record (big-endian) is
+//   int   size, header included (0: the rest of the segment is unused)
+//   long  time received, epoch milliseconds
+//   byte  length of the source address (4, 16, or 0 if unknown)
+//   16    bytes of the source address
+//   short source port
+//   byte  reserved
+//   the request bytes
+// The size is written last: a record with a size is complete. The records
+// start at multiples of 8 (the next one: at the size rounded up).
+class Journal {
+
+    static final int HEADER_SIZE = 32;
+    // the source address part of the header, see source()
+    static final int SOURCE_SIZE = 19;
+    private static final int TIME_OFFSET = 4;
+    private static final int SOURCE_OFFSET = 12;
+
+    // the journal thread wakes up this often at least, nanoseconds
+    private static final long MAX_SYNC_PERIOD = 1000000000L;
+    private static final int PAGE_SIZE = 0x1000;
+    // a reserved position past any segment end: no more appends
+    private static final int SEALED = Integer.MAX_VALUE;
+
+    private static final VarHandle SIZE = MethodHandles
+            .byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final byte NO_SOURCE[] = new byte[SOURCE_SIZE];
+
+    private final Path dir;
+    private final int segmentSize;
+    private final String sync;
+    private final int syncEvery;
+
+    private volatile Segment current;
+    // prepared by the journal thread, taken by the segment switch
+    private Segment next = null;
+    // the full segments not forced yet
+    private final Queue<Segment> retired = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sinceSync = new AtomicLong(); // "count" only
+    private final Thread thread;
+    private volatile boolean closing = false;
+
+    private final LongAdder nRecords = new LongAdder();
+    private final LongAdder nBytes = new LongAdder();
+    private final LongAdder nDropped = new LongAdder();
+    private final AtomicInteger nSegments = new AtomicInteger();
+    private final LongAdder nSyncs = new LongAdder();
+
+    private static final class Segment {
+
+        private final long number;
+        private final Path file;
+        private final MappedByteBuffer map;
+        private final int capacity;
+        // the next free byte, SEALED once the next segment is started
+        private final AtomicInteger reserved = new AtomicInteger();
+        // bytes of the complete records
+        private final AtomicInteger written = new AtomicInteger();
+        private volatile int end = -1; // reserved bytes when sealed
+        private int synced = 0; // forced up to here (journal thread only)
+
+        Segment(long number, Path file, MappedByteBuffer map) {
+            this.number = number;
+            this.file = file;
+            this.map = map;
+            capacity = map.capacity();
+        }
+
+        // the position of a new record, -1 if it does not fit
+        int reserve(int size) {
+            int at;
+            do {
+                at = reserved.get();
+                if (at > capacity - size) { return -1; }
+            } while (!reserved.compareAndSet(at, at + size));
+            return at;
+        }
+    }
+
+    // sync: "none", "interval" or "count" (syncEvery milliseconds
+    // or records, see above)
+    public Journal(String dir, int segmentSize, String sync, int syncEvery)
+            throws IOException {
+
+        this.dir = Paths.get(dir);
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        this.syncEvery = syncEvery;
+
+        Files.createDirectories(this.dir);
+        current = open(lastSegmentNumber() + 1);
+
+        thread = new Thread(this::run, "journal");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // the source address part of the records, encoded once per TCP
+    // connection (or datagram)
+    static byte[] source(SocketAddress address) {
+
+        if (!(address instanceof InetSocketAddress)) { return NO_SOURCE; }
+        InetSocketAddress a = (InetSocketAddress) address;
+        byte s[] = new byte[SOURCE_SIZE];
+        InetAddress ip = a.getAddress();
+        if (ip != null) {
+            byte bytes[] = ip.getAddress();
+            s[0] = (byte) bytes.length;
+            System.arraycopy(bytes, 0, s, 1, bytes.length);
+        }
+        s[17] = (byte) (a.getPort() >>> 8);
+        s[18] = (byte) a.getPort();
+        return s;
+    }
+
+    // append length bytes of b starting at offset, received from source
+    // (see source()); never blocks but for the switch to a new segment
+    public void append(ByteBuffer b, int offset, int length, byte source[]) {
+
+        int size = HEADER_SIZE + length;
+        int aligned = (size + 7) & ~7;
+        if (aligned > segmentSize) { // would never fit
+            nDropped.increment();
+            return;
+        }
+
+        Segment s = current;
+        int at = -1;
+        while (s != null && (at = s.reserve(aligned)) < 0) { s = roll(s); }
+        if (s == null) { // cannot open a segment
+            nDropped.increment();
+            return;
+        }
+
+        MappedByteBuffer map = s.map;
+        map.putLong(at + TIME_OFFSET, System.currentTimeMillis());
+        map.put(at + SOURCE_OFFSET, source == null ? NO_SOURCE : source);
+        map.put(at + HEADER_SIZE, b, offset, length);
+        SIZE.setRelease(map, at, size); // the record is complete now
+        s.written.addAndGet(aligned);
+
+        nRecords.increment();
+        nBytes.add(size);
+        if (sync.equals("count") &&
+                sinceSync.incrementAndGet() % syncEvery == 0) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // force what is appended, stop the journal thread and delete
+    // the prepared segment (never used)
+    public void close() {
+
+        closing = true;
+        LockSupport.unpark(thread);
+        try { thread.join(1000); }
+        catch (InterruptedException dummy) {}
+
+        synchronized (this) {
+            if (next == null) { return; }
+            try { Files.deleteIfExists(next.file); }
+            catch (IOException dummy) {}
+            nSegments.decrementAndGet();
+            next = null;
+        }
+    }
+
+    public String report() {
+        return "journal: " + nRecords.sum() + " records (" + nBytes.sum() +
+                " bytes) in " + nSegments.get() + " segments, " +
+                nSyncs.sum() + " syncs, " + nDropped.sum() + " dropped";
+    }
+
+    // start the segment after the full one (unless some other
+    // appender has done that already), null if it cannot be opened
+    private synchronized Segment roll(Segment full) {
+
+        if (current != full) { return current; }
+        full.end = full.reserved.getAndSet(SEALED);
+        if (!sync.equals("none")) { retired.add(full); }
+        if (next == null) { prepareNext(); } // the journal thread is behind
+        current = next;
+        next = null;
+        LockSupport.unpark(thread); // to prepare the one after
+        return current;
+    }
+
+    // open the segment after the current one, if not done yet
+    private synchronized void prepareNext() {
+
+        if (next != null || current == null) { return; }
+        try {
+            next = open(current.number + 1);
+        } catch (IOException e) {
+            Server.LOGGER.log(Level.SEVERE, "cannot open a journal " +
+                    "segment: " + e.getMessage() + Server.ENDL);
+        }
+    }
+
+    private Segment open(long number) throws IOException {
+
+        Path file = dir.resolve(String.format("journal-%06d.seg", number));
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer map =
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            // the pages are zeros anyway, writing makes them present
+            for (int i = 0; i < segmentSize; i += PAGE_SIZE) {
+                map.put(i, (byte) 0);
+            }
+            nSegments.incrementAndGet();
+            return new Segment(number, file, map);
+        }
+    }
+
+    // the highest segment number in the directory, 0 if there is none
+    private long lastSegmentNumber() throws IOException {
+
+        long last = 0;
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(dir, "journal-*.seg")) {
+            for (Path file: files) {
+                String name = file.getFileName().toString();
+                try {
+                    last = Math.max(last, Long.parseLong(
+                            name.substring(8, name.length() - 4)));
+                } catch (NumberFormatException dummy) {}
+            }
+        }
+        return last;
+    }
+
+    private void run() {
+
+        long period = sync.equals("interval") ?
+                syncEvery * 1000000L : MAX_SYNC_PERIOD;
+        while (!closing) {
+            prepareNext();
+            LockSupport.parkNanos(period);
+            if (!sync.equals("none")) { syncAll(); }
+        }
+        // the records appended before close, whatever the policy
+        syncAll();
+    }
+
+    private void syncAll() {
+
+        Segment s;
+        while ((s = retired.peek()) != null) {
+            // the appenders which reserved before the seal finish soon
+            while (s.written.get() < s.end) { Thread.onSpinWait(); }
+            force(s, s.end);
+            retired.poll();
+        }
+
+        s = current;
+        if (s == null) { return; }
+        // all the reserved records are complete if written == reserved
+        // (written is read first, both only grow)
+        int written = s.written.get();
+        int reserved = Math.min(s.reserved.get(), s.capacity);
+        force(s, reserved);
+        if (written == reserved) { s.synced = reserved; }
+    }
+
+    // force [synced, to) of the segment; the records still being copied
+    // there are forced again next time, as synced stays before them
+    private void force(Segment s, int to) {
+
+        if (to <= s.synced) { return; }
+        try {
+            s.map.force(s.synced, to - s.synced);
+            nSyncs.increment();
+        } catch (java.io.UncheckedIOException e) {
+            Server.LOGGER.log(Level.WARNING, "error while syncing the " +
+                    "journal: " + e.getMessage() + Server.ENDL);
+        }
+    }
+}
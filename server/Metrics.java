@@ -0,0 +1,245 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import com.sun.net.httpserver.HttpServer;
+
+
+// live server metrics: striped counters (LongAdder), cheap to update from
+// any number of threads; a sampler thread turns them into per-second rates
+// and phase timings once a second. The values are published as the JMX
+// MBean "Server:type=Metrics" and (optionally) as plain text lines
+// "<name> <value>" over HTTP on the loopback interface.
+class Metrics {
+
+    // the duration of a request processing phase
+    static final class Phase {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        // the last second
+        private volatile double meanMicros;
+        private volatile double maxMicros;
+
+        void record(long d) {
+            count.increment();
+            nanos.add(d);
+            max.accumulate(d);
+        }
+
+        private void sample() {
+            long n = count.sumThenReset();
+            long t = nanos.sumThenReset();
+            meanMicros = n == 0 ? 0 : t / 1e3 / n;
+            maxMicros = max.getThenReset() / 1e3;
+        }
+    }
+
+    static final LongAdder REQUESTS = new LongAdder();
+    static final LongAdder BYTES_IN = new LongAdder();
+    static final LongAdder BYTES_OUT = new LongAdder();
+    static final LongAdder CONNECTIONS_OPENED = new LongAdder();
+    static final LongAdder CONNECTIONS_CLOSED = new LongAdder();
+    // the responses waiting for the server delay
+    static final LongAdder PENDING_REPLIES = new LongAdder();
+    // the handler tasks running now
+    static final LongAdder ACTIVE_HANDLERS = new LongAdder();
+
+    // from the request first bytes arrival until it is complete and
+    // taken by the handler (for UDP: the handler queueing)
+    static final Phase READ = new Phase();
+    // from scheduling the response until the timer fires
+    static final Phase DELAY = new Phase();
+    // writing (sending) the response
+    static final Phase WRITE = new Phase();
+
+    private static final String OBJECT_NAME = "Server:type=Metrics";
+    private static final int SAMPLE_MILLIS = 1000;
+
+    // null unless concurrencyModel=pool
+    private static volatile ThreadPoolExecutor pool;
+
+    // per-second rates of the last second
+    private static volatile double requestRate;
+    private static volatile double bytesInRate;
+    private static volatile double bytesOutRate;
+
+    private Metrics() {}
+
+    static void setPool(ThreadPoolExecutor p) { pool = p; }
+
+    // start sampling, register the MBean, start the HTTP endpoint on
+    // the given port (0 = none)
+    static void start(int httpPort) {
+
+        Thread sampler = new Thread(Metrics::sample, "metrics-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new MBean(), new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            Server.LOGGER.log(Level.WARNING, "cannot register " + OBJECT_NAME +
+                    ": " + e.getMessage() + Server.ENDL);
+        }
+
+        if (httpPort == 0) { return; }
+        try {
+            HttpServer http = HttpServer.create(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), httpPort), 0);
+            http.createContext("/metrics", exchange -> {
+                byte body[] = text().getBytes();
+                exchange.getResponseHeaders().set(
+                        "Content-Type", "text/plain; charset=us-ascii");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            http.start(); // a single daemon dispatcher thread
+            Server.LOGGER.log(Level.INFO, "metrics are served on " +
+                    "http://localhost:" + httpPort + "/metrics" + Server.ENDL);
+        } catch (IOException e) {
+            Server.LOGGER.log(Level.WARNING, "cannot start the metrics " +
+                    "endpoint: " + e.getMessage() + Server.ENDL);
+        }
+    }
+
+    // the current values, by name
+    static Map<String, Number> snapshot() {
+
+        Map<String, Number> m = new LinkedHashMap<>();
+        m.put("requests", REQUESTS.sum());
+        m.put("requestsPerSecond", requestRate);
+        m.put("bytesIn", BYTES_IN.sum());
+        m.put("bytesInPerSecond", bytesInRate);
+        m.put("bytesOut", BYTES_OUT.sum());
+        m.put("bytesOutPerSecond", bytesOutRate);
+        m.put("connections", CONNECTIONS_OPENED.sum());
+        m.put("activeConnections",
+                CONNECTIONS_OPENED.sum() - CONNECTIONS_CLOSED.sum());
+        m.put("pendingReplies", PENDING_REPLIES.sum());
+        m.put("activeHandlers", ACTIVE_HANDLERS.sum());
+        ThreadPoolExecutor p = pool;
+        if (p != null) {
+            m.put("poolThreads", p.getPoolSize());
+            m.put("queueDepth", p.getQueue().size());
+        }
+        m.put("threads", ManagementFactory.getThreadMXBean().getThreadCount());
+        m.put("readMeanMicros", READ.meanMicros);
+        m.put("readMaxMicros", READ.maxMicros);
+        m.put("delayMeanMicros", DELAY.meanMicros);
+        m.put("delayMaxMicros", DELAY.maxMicros);
+        m.put("writeMeanMicros", WRITE.meanMicros);
+        m.put("writeMaxMicros", WRITE.maxMicros);
+        return m;
+    }
+
+    static String text() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Number> e: snapshot().entrySet()) {
+            sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void sample() {
+
+        long requests = 0, bytesIn = 0, bytesOut = 0;
+        long time = System.nanoTime();
+        while (true) {
+
+            try { Thread.sleep(SAMPLE_MILLIS); }
+            catch (InterruptedException dummy) {}
+
+            long now = System.nanoTime();
+            double seconds = (now - time) / 1e9;
+            time = now;
+
+            long r = REQUESTS.sum(), in = BYTES_IN.sum(), out = BYTES_OUT.sum();
+            requestRate = (r - requests) / seconds;
+            bytesInRate = (in - bytesIn) / seconds;
+            bytesOutRate = (out - bytesOut) / seconds;
+            requests = r;
+            bytesIn = in;
+            bytesOut = out;
+
+            READ.sample();
+            DELAY.sample();
+            WRITE.sample();
+        }
+    }
+
+    // read-only attributes, the names and values of snapshot()
+    private static class MBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String name)
+                throws AttributeNotFoundException {
+            Number value = snapshot().get(name);
+            if (value == null) { throw new AttributeNotFoundException(name); }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String names[]) {
+            Map<String, Number> m = snapshot();
+            AttributeList list = new AttributeList();
+            for (String name: names) {
+                if (m.containsKey(name)) {
+                    list.add(new Attribute(name, m.get(name)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute)
+                throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(
+                    attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object params[], String sig[]) {
+            throw new UnsupportedOperationException(action);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Number> m = snapshot();
+            MBeanAttributeInfo attributes[] = new MBeanAttributeInfo[m.size()];
+            int i = 0;
+            for (Map.Entry<String, Number> e: m.entrySet()) {
+                attributes[i++] = new MBeanAttributeInfo(e.getKey(),
+                        e.getValue().getClass().getName(), e.getKey(),
+                        true, false, false);
+            }
+            return new MBeanInfo(Metrics.class.getName(), "server metrics",
+                    attributes, null, new MBeanOperationInfo[0], null);
+        }
+    }
+}
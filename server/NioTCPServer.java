@@ -0,0 +1,481 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+
+// selector-based TCP engine: the calling thread accepts the connections and
+// hands them over (round-robin) to a fixed set of event loops, each loop
+// reads the requests (lines or frames), waits for the server delay and
+// writes the responses without ever blocking; without keep-alive the
+// connection is closed after the first response, with it after
+// keepAliveTimeout milliseconds with nothing read, written or pending
+// (looked for by the loops between the selects).
+// The connection buffers come from the server buffer pool and the replies
+// are kept in plain arrays, so serving a request allocates next to nothing
+class NioTCPServer implements Transport {
+
+    private static final int INITIAL_REPLIES = 1024;
+
+    private final InetAddress address;
+    private final int port;
+    private final int delay;
+    private final boolean keepAlive;
+    private final long keepAliveTimeout; // nanoseconds, 0 = never
+    private final boolean binary;
+    private final EventLoop loops[];
+
+    public NioTCPServer(InetAddress address, int port, int delay, int nLoops,
+                        boolean keepAlive, int keepAliveTimeout,
+                        boolean binary) {
+        this.address = address;
+        this.port = port;
+        this.delay = delay;
+        this.keepAlive = keepAlive;
+        this.keepAliveTimeout = keepAlive ? keepAliveTimeout * 1000000L : 0;
+        this.binary = binary;
+        loops = new EventLoop[nLoops];
+    }
+
+    @Override
+    public void run() {
+
+        Selector acceptSelector;
+        ServerSocketChannel serverChannel;
+        try {
+            acceptSelector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(
+                    new InetSocketAddress(address, port), Server.MAX_BACKLOG);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            Server.LOGGER.log(Level.SEVERE,
+                    "cannot create server socket on port " +
+                    Long.toString(port) + ": " + e.getMessage() + Server.ENDL);
+            return;
+        }
+
+        for (int i = 0; i < loops.length; ++i) {
+            try {
+                loops[i] = new EventLoop();
+            } catch (IOException e) {
+                Server.LOGGER.log(Level.SEVERE,
+                        "cannot open selector: " + e.getMessage() + Server.ENDL);
+                return;
+            }
+            Thread t = new Thread(loops[i], "nio-loop-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        Server.LOGGER.log(Level.INFO, "TCP (NIO) server started on port " +
+                Long.toString(port) + Server.ENDL + Server.LN + Server.ENDL);
+
+        int next = 0;
+        while (true) {
+
+            try {
+                acceptSelector.select();
+            } catch (IOException e) {
+                Server.LOGGER.log(Level.SEVERE, "error while selecting: " +
+                        e.getMessage() + Server.ENDL);
+                return;
+            }
+            acceptSelector.selectedKeys().clear();
+
+            // drain the accept queue
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (IOException e) {
+                    Server.LOGGER.log(Level.SEVERE,
+                            "error accepting the socket: " +
+                            e.getMessage() + Server.ENDL);
+                    break;
+                }
+                if (channel == null) { break; }
+
+                loops[next].add(channel);
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    // per-connection state, owned by a single event loop
+    private static class Connection {
+
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer in = Server.bufferPool.acquire();
+        private int scanned = 0; // line framing: no line end before this
+        // encoded responses not written (completely) yet, [0, position);
+        // taken from the pool only while there is something to write
+        private ByteBuffer out = null;
+        private int nPending = 0; // responses waiting for the delay
+        // System.nanoTime() of the last read and of the arrival of the
+        // current request first bytes
+        private long lastRead;
+        private long started;
+        private long lastActive; // read or written
+        private boolean reading = true;
+        private boolean closed = false;
+        private final byte source[]; // for the journal
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            lastActive = System.nanoTime();
+            source = Server.journalSource(
+                    channel.socket().getRemoteSocketAddress());
+        }
+    }
+
+    private class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<SocketChannel> newChannels =
+                new ConcurrentLinkedQueue<>();
+        // responses waiting for the server delay: the delay is the same
+        // for all, so the deadlines come in order and a ring will do
+        private Connection replyConnections[] = new Connection[INITIAL_REPLIES];
+        private long replyDeadlines[] = new long[INITIAL_REPLIES];
+        private int replyIds[] = new int[INITIAL_REPLIES]; // binary only
+        private int firstReply = 0;
+        private int nReplies = 0;
+        // keep-alive with a timeout: the connections of the loop (the
+        // closed ones are dropped by the idle checks), and when the next
+        // one may become idle
+        private final List<Connection> connections = new ArrayList<>();
+        private long nextIdleCheck;
+
+        EventLoop() throws IOException { selector = Selector.open(); }
+
+        void add(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+
+            while (true) {
+
+                try {
+                    long timeout = 0; // i.e. wait until woken up
+                    if (nReplies > 0 || !connections.isEmpty()) {
+                        long wakeAt = nReplies > 0 ?
+                                replyDeadlines[firstReply] : nextIdleCheck;
+                        if (!connections.isEmpty() &&
+                                nextIdleCheck - wakeAt < 0) {
+                            wakeAt = nextIdleCheck;
+                        }
+                        long ms = (wakeAt - System.nanoTime()) / 1000000;
+                        timeout = Math.max(ms, 1);
+                    }
+                    selector.select(timeout);
+                } catch (IOException e) {
+                    Server.LOGGER.log(Level.SEVERE, "error while selecting: " +
+                            e.getMessage() + Server.ENDL);
+                    return;
+                }
+
+                registerNewChannels();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Connection c = (Connection) key.attachment();
+                    if (key.isValid() && key.isWritable()) { flush(c); }
+                    if (key.isValid() && key.isReadable()) { onReadable(c); }
+                }
+
+                long now = System.nanoTime();
+                while (nReplies > 0 && replyDeadlines[firstReply] - now <= 0) {
+                    Connection c = replyConnections[firstReply];
+                    int id = replyIds[firstReply];
+                    long scheduled = replyDeadlines[firstReply] -
+                            delay * 1000000L;
+                    replyConnections[firstReply] = null;
+                    firstReply = (firstReply + 1) % replyConnections.length;
+                    --nReplies;
+                    --c.nPending;
+                    Metrics.PENDING_REPLIES.decrement();
+                    Metrics.DELAY.record(now - scheduled);
+                    if (c.closed) { continue; }
+                    reply(c, id);
+                    // try to write at once, usually the response fits into
+                    // the socket buffer and no OP_WRITE round is needed
+                    flush(c);
+                }
+
+                if (!connections.isEmpty() && now - nextIdleCheck >= 0) {
+                    closeIdle(now);
+                }
+            }
+        }
+
+        // close the connections idle for keepAliveTimeout, find out when
+        // the next check is due
+        private void closeIdle(long now) {
+
+            nextIdleCheck = now + keepAliveTimeout;
+            Iterator<Connection> it = connections.iterator();
+            while (it.hasNext()) {
+                Connection c = it.next();
+                if (c.closed) {
+                    it.remove();
+                    continue;
+                }
+                if (c.nPending > 0 || c.out != null) { continue; } // busy
+                long idleAt = c.lastActive + keepAliveTimeout;
+                if (idleAt - now <= 0) {
+                    Server.LOGGER.log(Level.INFO,
+                            "closing idle connection" + Server.ENDL);
+                    close(c);
+                    it.remove();
+                } else if (idleAt - nextIdleCheck < 0) {
+                    nextIdleCheck = idleAt;
+                }
+            }
+        }
+
+        private void registerNewChannels() {
+
+            SocketChannel channel;
+            while ((channel = newChannels.poll()) != null) {
+                Connection c = new Connection(channel);
+                Metrics.CONNECTIONS_OPENED.increment();
+                if (keepAliveTimeout > 0) {
+                    if (connections.isEmpty()) {
+                        nextIdleCheck = c.lastActive + keepAliveTimeout;
+                    }
+                    connections.add(c);
+                }
+                try {
+                    channel.configureBlocking(false);
+                    c.key = channel.register(selector, SelectionKey.OP_READ, c);
+                } catch (IOException e) {
+                    Server.LOGGER.log(Level.WARNING,
+                            "cannot register client socket: " +
+                            e.getMessage() + Server.ENDL);
+                    close(c);
+                }
+            }
+        }
+
+        private void onReadable(Connection c) {
+
+            int n;
+            int before = c.in.position();
+            try {
+                n = c.channel.read(c.in);
+            } catch (IOException e) {
+                Server.LOGGER.log(Level.WARNING,
+                        "error while reading from client socket: " +
+                        e.getMessage() + Server.ENDL);
+                close(c);
+                return;
+            }
+            if (n < 0) { // closed by the client
+                close(c);
+                return;
+            }
+            if (n > 0) {
+                c.lastRead = System.nanoTime();
+                c.lastActive = c.lastRead;
+                if (before == 0) { c.started = c.lastRead; }
+                Metrics.BYTES_IN.add(n);
+            }
+
+            try {
+                while (c.reading && (binary ? nextFrame(c) : nextLine(c))) {}
+            } catch (IOException e) {
+                Server.LOGGER.log(Level.WARNING,
+                        "protocol error: " + e.getMessage() + Server.ENDL);
+                close(c);
+                return;
+            }
+            updateInterest(c);
+        }
+
+        // take a line from the input, if there is a complete one
+        private boolean nextLine(Connection c) throws IOException {
+
+            // look for the line end among the newly read bytes only
+            int end = RequestParser.lineEnd(c.in, c.scanned);
+            if (end < 0) {
+                c.scanned = c.in.position();
+                RequestParser.checkLine(c.in, Server.maxRequestSize);
+                if (!c.in.hasRemaining()) {
+                    c.in = Server.bufferPool.grow(c.in,
+                            RequestParser.grownCapacity(c.in,
+                            RequestParser.maxLineSize(Server.maxRequestSize)));
+                }
+                return false;
+            }
+
+            Metrics.READ.record(System.nanoTime() - c.started);
+            Server.received(
+                    c.in, 0, RequestParser.lineLength(c.in, end), c.source);
+
+            consume(c, end + 1);
+            schedule(c, 0);
+            if (!keepAlive) { c.reading = false; }
+            return true;
+        }
+
+        // take a frame from the input, if there is a complete one
+        private boolean nextFrame(Connection c) throws IOException {
+
+            int size = RequestParser.frameSize(c.in, Server.maxRequestSize);
+            if (size < 0) { return false; }
+            if (c.in.position() < size) {
+                if (!c.in.hasRemaining()) {
+                    c.in = Server.bufferPool.grow(c.in,
+                            RequestParser.grownCapacity(c.in, size));
+                }
+                return false;
+            }
+
+            int id = RequestParser.frameId(c.in);
+            Metrics.READ.record(System.nanoTime() - c.started);
+            if ((RequestParser.frameFlags(c.in) &
+                    Framing.FLAG_COMPRESSED) != 0) {
+                Server.receivedCompressed(c.in, Framing.HEADER_SIZE,
+                        size - Framing.HEADER_SIZE, c.source,
+                        Server.maxRequestSize);
+            } else {
+                Server.received(c.in, Framing.HEADER_SIZE,
+                        size - Framing.HEADER_SIZE, c.source);
+            }
+
+            consume(c, size);
+            schedule(c, id);
+            return true;
+        }
+
+        // drop the first n bytes of the input, keep the rest
+        private void consume(Connection c, int n) {
+            c.in.flip();
+            c.in.position(n);
+            c.in.compact();
+            c.in = Server.bufferPool.shrink(c.in);
+            c.scanned = 0;
+            // the next request (if any) came with the last read
+            c.started = c.lastRead;
+        }
+
+        private void schedule(Connection c, int id) {
+
+            if (nReplies == replyConnections.length) { growReplies(); }
+            int i = (firstReply + nReplies) % replyConnections.length;
+            replyConnections[i] = c;
+            replyDeadlines[i] = System.nanoTime() + delay * 1000000L;
+            replyIds[i] = id;
+            ++nReplies;
+            ++c.nPending;
+            Metrics.PENDING_REPLIES.increment();
+        }
+
+        private void growReplies() {
+
+            int n = replyConnections.length;
+            Connection connections[] = new Connection[2 * n];
+            long deadlines[] = new long[2 * n];
+            int ids[] = new int[2 * n];
+            for (int i = 0; i < nReplies; ++i) {
+                int j = (firstReply + i) % n;
+                connections[i] = replyConnections[j];
+                deadlines[i] = replyDeadlines[j];
+                ids[i] = replyIds[j];
+            }
+            replyConnections = connections;
+            replyDeadlines = deadlines;
+            replyIds = ids;
+            firstReply = 0;
+        }
+
+        // append the (pre-encoded) response to the connection output
+        private void reply(Connection c, int id) {
+
+            int size = Server.RESPONSE_BYTES.length;
+            if (binary) { size += Framing.HEADER_SIZE; }
+            if (c.out == null) {
+                c.out = Server.bufferPool.acquire();
+            }
+            if (c.out.remaining() < size) {
+                c.out = Server.bufferPool.grow(c.out,
+                        2 * c.out.capacity() + size);
+            }
+            if (binary) {
+                Framing.put(c.out, id, Server.responseFlags,
+                        Server.RESPONSE_BYTES);
+            } else {
+                c.out.put(Server.RESPONSE_BYTES);
+            }
+        }
+
+        private void flush(Connection c) {
+
+            if (c.out != null) {
+                c.out.flip();
+                try {
+                    long start = System.nanoTime();
+                    int n = c.channel.write(c.out);
+                    c.lastActive = System.nanoTime();
+                    Metrics.WRITE.record(c.lastActive - start);
+                    Metrics.BYTES_OUT.add(n);
+                } catch (IOException e) {
+                    Server.LOGGER.log(Level.WARNING,
+                            "error while writing to client socket: " +
+                            e.getMessage() + Server.ENDL);
+                    close(c);
+                    return;
+                }
+                c.out.compact();
+                if (c.out.position() == 0) { // all written
+                    Server.bufferPool.release(c.out);
+                    c.out = null;
+                }
+            }
+            updateInterest(c);
+        }
+
+        private void updateInterest(Connection c) {
+
+            if (c.closed) { return; }
+            if (!c.reading && c.nPending == 0 && c.out == null) {
+                close(c); // all done
+                return;
+            }
+            int ops = c.reading ? SelectionKey.OP_READ : 0;
+            if (c.out != null) { ops |= SelectionKey.OP_WRITE; }
+            c.key.interestOps(ops);
+        }
+
+        private void close(Connection c) {
+
+            if (c.closed) { return; }
+            c.closed = true;
+            Metrics.CONNECTIONS_CLOSED.increment();
+            if (c.key != null) { c.key.cancel(); }
+            try { c.channel.close(); }
+            catch (IOException dummy) {}
+            Server.bufferPool.release(c.in);
+            if (c.out != null) { Server.bufferPool.release(c.out); }
+            c.in = c.out = null;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// collects the UDP fragments (see UDPFraming) into the messages;
+// the incomplete messages are evicted when older than the timeout or
+// (the oldest first) when the buffered data exceed the memory limit.
+// Not thread-safe: meant to be owned by a single receive loop (all the
+// fragments of a message come from the same source, so they are received
+// by the same socket).
+class Reassembler {
+
+    private static final class Key {
+
+        private final SocketAddress source;
+        private final int messageId;
+
+        Key(SocketAddress source, int messageId) {
+            this.source = source;
+            this.messageId = messageId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) { return false; }
+            Key k = (Key) o;
+            return messageId == k.messageId && source.equals(k.source);
+        }
+
+        @Override
+        public int hashCode() { return 31 * source.hashCode() + messageId; }
+    }
+
+    private static final class Partial {
+
+        private final byte fragments[][];
+        private final long created = System.nanoTime();
+        private int nReceived = 0;
+        private int size = 0;
+
+        Partial(int count) { fragments = new byte[count][]; }
+    }
+
+    private final static AtomicLong nExpired = new AtomicLong();
+    private final static AtomicLong nOverflow = new AtomicLong();
+
+    private final long maxBytes;
+    private final long timeout; // nanoseconds
+    private long bufferedBytes = 0;
+    // in the arrival order of the first fragments, i.e. the oldest first
+    private final LinkedHashMap<Key, Partial> partials = new LinkedHashMap<>();
+
+    public Reassembler(long maxBytes, int timeoutMillis) {
+        this.maxBytes = maxBytes;
+        this.timeout = timeoutMillis * 1000000L;
+    }
+
+    // add a fragment, return the message if it is complete now
+    public byte[] add(SocketAddress source, byte datagram[], int length) {
+
+        int count = UDPFraming.count(datagram);
+        int index = UDPFraming.index(datagram);
+        if (count == 0 || index >= count) { return null; } // malformed
+
+        byte data[] = Arrays.copyOfRange(
+                datagram, UDPFraming.HEADER_SIZE, length);
+        if (count == 1) { return data; }
+
+        expire();
+
+        Key key = new Key(source, UDPFraming.messageId(datagram));
+        Partial p = partials.get(key);
+        if (p == null) {
+            p = new Partial(count);
+            partials.put(key, p);
+        } else if (p.fragments.length != count) {
+            return null; // malformed
+        }
+        if (p.fragments[index] != null) { return null; } // duplicate
+
+        p.fragments[index] = data;
+        ++p.nReceived;
+        p.size += data.length;
+        bufferedBytes += data.length;
+
+        if (p.nReceived == count) {
+            remove(key, p);
+            byte message[] = new byte[p.size];
+            int offset = 0;
+            for (byte f[]: p.fragments) {
+                System.arraycopy(f, 0, message, offset, f.length);
+                offset += f.length;
+            }
+            return message;
+        }
+
+        // make room, the oldest messages go first (maybe the current one)
+        Iterator<Map.Entry<Key, Partial>> it = partials.entrySet().iterator();
+        while (bufferedBytes > maxBytes && it.hasNext()) {
+            Partial oldest = it.next().getValue();
+            it.remove();
+            bufferedBytes -= oldest.size;
+            nOverflow.incrementAndGet();
+        }
+        return null;
+    }
+
+    private void expire() {
+
+        long now = System.nanoTime();
+        Iterator<Partial> it = partials.values().iterator();
+        while (it.hasNext()) {
+            Partial p = it.next();
+            if (now - p.created < timeout) { break; }
+            it.remove();
+            bufferedBytes -= p.size;
+            nExpired.incrementAndGet();
+        }
+    }
+
+    private void remove(Key key, Partial p) {
+        partials.remove(key);
+        bufferedBytes -= p.size;
+    }
+
+    public static String report() {
+        return "incomplete UDP messages dropped: " + nExpired.get() +
+                " (timeout), " + nOverflow.get() + " (memory limit)";
+    }
+}
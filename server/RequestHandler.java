@@ -0,0 +1,21 @@
+import java.net.SocketAddress;
+import java.nio.channels.ByteChannel;
+
+
+// handles a request (TCP: the requests of a connection) taken in by a
+// transport; run by the executor of the concurrency model. A handler also
+// knows how to give up its request when the model has no capacity for it
+// (see HandlerPool)
+interface RequestHandler extends Runnable {
+
+    // makes the handler of an accepted connection (TLSServer, TCPAcceptors)
+    interface Factory {
+        RequestHandler create(ByteChannel channel, SocketAddress client);
+    }
+
+    // answer the client with BUSY_RESPONSE
+    void reject();
+
+    // the request is dropped from the queue
+    void drop();
+}
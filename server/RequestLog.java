@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+
+// asynchronous log of the received requests: the handlers copy (a prefix
+// of) the request into a slot of a fixed ring of records and go on, a
+// single writer thread takes the records in order and writes them to the
+// file in batches. Publishing never blocks or allocates: when the ring is
+// full (the writer is behind) the record is dropped and counted.
+class RequestLog {
+
+    // how long the writer sleeps when there is nothing to write
+    private static final long IDLE_PARK = 1000000; // 1 ms
+    private static final int WRITE_BUFF_SIZE = 0x10000;
+
+    private final int prefix; // bytes of the request kept
+    private final int mask;
+    // the records: slot i is data[i * prefix, i * prefix + stored[i])
+    private final byte data[];
+    private final int stored[];
+    private final int lengths[]; // full request lengths
+    private final long times[];
+    // sequence number of the record in each slot, -1 if not published yet
+    private final AtomicLongArray published;
+
+    private final AtomicLong claimed = new AtomicLong(); // next to publish
+    private volatile long consumed = 0;                  // next to write
+
+    private final AtomicLong nDropped = new AtomicLong();
+    private volatile long nWritten = 0; // updated by the writer only
+
+    private final FileChannel file;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFF_SIZE);
+    private volatile boolean closing = false;
+    private final Thread writer;
+
+    // the capacity (number of records) is rounded up to a power of 2
+    public RequestLog(String fileName, int capacity, int prefix)
+            throws IOException {
+
+        int n = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        mask = n - 1;
+        this.prefix = prefix;
+        data = new byte[n * prefix];
+        stored = new int[n];
+        lengths = new int[n];
+        times = new long[n];
+        published = new AtomicLongArray(n);
+        for (int i = 0; i < n; ++i) { published.set(i, -1); }
+
+        file = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        writer = new Thread(this::run, "request-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // record length bytes of b starting at offset (or their prefix)
+    public void publish(ByteBuffer b, int offset, int length) {
+
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - consumed > mask) { // full
+                nDropped.incrementAndGet();
+                return;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+
+        int i = (int) (seq & mask);
+        int n = Math.min(length, prefix);
+        b.get(offset, data, i * prefix, n);
+        stored[i] = n;
+        lengths[i] = length;
+        times[i] = System.currentTimeMillis();
+        published.set(i, seq); // the record is visible to the writer now
+    }
+
+    // write out what is published and stop the writer
+    public void close() {
+
+        closing = true;
+        LockSupport.unpark(writer);
+        try { writer.join(1000); }
+        catch (InterruptedException dummy) {}
+    }
+
+    public String report() {
+        return "request log: " + nWritten + " records written, " +
+                nDropped.get() + " dropped (buffer full)";
+    }
+
+    private void run() {
+
+        while (true) {
+
+            boolean last = closing; // the records published before close
+            long seq = consumed;
+            int i;
+            while (published.get(i = (int) (seq & mask)) == seq) {
+                append(i);
+                ++seq;
+                consumed = seq; // the slot may be reused now
+            }
+
+            try {
+                flush();
+            } catch (IOException e) {
+                Server.LOGGER.log(Level.WARNING, "error while writing " +
+                        "the request log: " + e.getMessage() + Server.ENDL);
+            }
+
+            if (last) { break; }
+            if (seq == claimed.get()) { LockSupport.parkNanos(IDLE_PARK); }
+        }
+
+        try { file.close(); }
+        catch (IOException dummy) {}
+    }
+
+    // format the record of slot i into the output buffer:
+    // <time> received <request (prefix), trimmed>[ ... (<length> bytes)]
+    private void append(int i) {
+
+        int from = i * prefix, to = from + stored[i];
+        while (from < to && (data[from] & 0xff) <= ' ') { ++from; }
+        while (to > from && (data[to - 1] & 0xff) <= ' ') { --to; }
+        int n = to - from;
+
+        String head = Instant.ofEpochMilli(times[i]) + " received ";
+        String tail = (stored[i] < lengths[i] ?
+                " ... (" + lengths[i] + " bytes)" : "") + Server.ENDL;
+
+        if (out.remaining() < head.length() + n + tail.length()) {
+            try {
+                flush();
+            } catch (IOException e) {
+                Server.LOGGER.log(Level.WARNING, "error while writing " +
+                        "the request log: " + e.getMessage() + Server.ENDL);
+                out.clear();
+            }
+        }
+        putAscii(head);
+        out.put(data, from, n);
+        putAscii(tail);
+        ++nWritten;
+    }
+
+    private void putAscii(String s) {
+        for (int k = 0; k < s.length(); ++k) { out.put((byte) s.charAt(k)); }
+    }
+
+    private void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) { file.write(out); }
+        out.clear();
+    }
+}
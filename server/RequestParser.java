@@ -0,0 +1,66 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+// where the requests end in the received data, b[0, b.position()); shared
+// by the blocking (RequestReader) and the selector (NioTCPServer) transports,
+// so the concurrency models parse the requests the same way. Nothing is
+// copied or decoded here.
+final class RequestParser {
+
+    private RequestParser() {}
+
+    // line framing: the index of the first line end in [from, position),
+    // -1 if there is none yet
+    static int lineEnd(ByteBuffer b, int from) {
+        for (int i = from; i < b.position(); ++i) {
+            if (b.get(i) == '\n') { return i; }
+        }
+        return -1;
+    }
+
+    // the length of the line ending at end, without the line separator
+    static int lineLength(ByteBuffer b, int end) {
+        return end > 0 && b.get(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    // line framing: the most bytes a line of at most maxLength bytes takes
+    // with its line separator
+    static int maxLineSize(int maxLength) { return maxLength + 2; }
+
+    // line framing, no line end in [0, position): fails if there is no
+    // room left for it within maxLength
+    static void checkLine(ByteBuffer b, int maxLength) throws IOException {
+        if (b.position() >= maxLineSize(maxLength)) {
+            throw new IOException("line longer than the max request size (" +
+                    maxLength + " bytes)");
+        }
+    }
+
+    // binary framing: the size (header included) of the first frame,
+    // -1 if its header is not complete yet; fails for a frame of more
+    // than maxLength bytes of data
+    static int frameSize(ByteBuffer b, int maxLength) throws IOException {
+        if (b.position() < Framing.HEADER_SIZE) { return -1; }
+        int length = b.getInt(0);
+        Framing.checkLength(length);
+        if (length > maxLength) {
+            throw new IOException("frame of " + length + " bytes, more " +
+                    "than the max request size (" + maxLength + " bytes)");
+        }
+        return Framing.HEADER_SIZE + length;
+    }
+
+    // the capacity for more of a request of at most size bytes once b is
+    // full: doubled, so that the buffer grows as the data come rather
+    // than as the request header claims
+    static int grownCapacity(ByteBuffer b, int size) {
+        return (int) Math.min(2L * b.capacity(), size);
+    }
+
+    // the request id of the first frame, its header must be complete
+    static int frameId(ByteBuffer b) { return b.getInt(4); }
+
+    // the flags of the first frame, its header must be complete
+    static byte frameFlags(ByteBuffer b) { return b.get(8); }
+}
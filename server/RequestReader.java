@@ -0,0 +1,127 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+
+// reads the requests (text lines or binary frames, see Framing) from
+// a blocking channel into a pooled buffer, without any copying or
+// decoding: after a successful next*() call the request data are
+// buffer()[offset(), offset() + length()). A request of more than
+// maxLength bytes is a protocol error; the buffer grows for the longer
+// ones as their data come, and is pooled again after them.
+class RequestReader {
+
+    private final ReadableByteChannel channel;
+    private final BufferPool pool;
+    private final int maxLength;
+    private ByteBuffer buffer; // [0, position) holds the data read
+    private int consumed = 0;  // bytes of the previous request
+    private int scanned = 0;   // line framing: no line end before this
+
+    private int offset;
+    private int length;
+    private int id;
+    private byte flags;
+
+    // System.nanoTime() of the last read and of the arrival of the
+    // current request first bytes
+    private long lastFill;
+    private long started;
+
+    public RequestReader(ReadableByteChannel channel, BufferPool pool,
+                         int maxLength) {
+        this.channel = channel;
+        this.pool = pool;
+        this.maxLength = maxLength;
+        buffer = pool.acquire();
+    }
+
+    public ByteBuffer buffer() { return buffer; }
+    public int offset() { return offset; }
+    public int length() { return length; }
+    public int id() { return id; } // binary framing only
+    public byte flags() { return flags; } // binary framing only
+    public long started() { return started; }
+
+    // returns false on the end of the stream before any byte of a line
+    public boolean nextLine() throws IOException {
+
+        discardConsumed();
+
+        int end;
+        while ((end = RequestParser.lineEnd(buffer, scanned)) < 0) {
+            scanned = buffer.position();
+            RequestParser.checkLine(buffer, maxLength);
+            if (!fill(RequestParser.maxLineSize(maxLength))) {
+                if (buffer.position() == 0) { return false; }
+                throw new EOFException("incomplete line");
+            }
+        }
+
+        offset = 0;
+        length = RequestParser.lineLength(buffer, end);
+        consumed = end + 1;
+        scanned = 0;
+        return true;
+    }
+
+    // returns false on the end of the stream between the frames
+    public boolean nextFrame() throws IOException {
+
+        discardConsumed();
+
+        int size;
+        while ((size = RequestParser.frameSize(buffer, maxLength)) < 0) {
+            if (!fill(Framing.HEADER_SIZE)) {
+                if (buffer.position() == 0) { return false; }
+                throw new EOFException("incomplete frame");
+            }
+        }
+        while (buffer.position() < size) {
+            if (!fill(size)) { throw new EOFException("incomplete frame"); }
+        }
+
+        id = RequestParser.frameId(buffer);
+        flags = RequestParser.frameFlags(buffer);
+        offset = Framing.HEADER_SIZE;
+        length = size - Framing.HEADER_SIZE;
+        consumed = size;
+        return true;
+    }
+
+    // give the buffer back to the pool, the reader is not usable after that
+    public void release() {
+        pool.release(buffer);
+        buffer = null;
+    }
+
+    private void discardConsumed() {
+        if (consumed > 0) {
+            buffer.flip();
+            buffer.position(consumed);
+            buffer.compact();
+            buffer = pool.shrink(buffer);
+            consumed = 0;
+            // the next request (if any) came with the last read
+            started = lastFill;
+        }
+    }
+
+    // read more data, growing the buffer if full (for a request of up to
+    // size bytes); false on end of stream
+    private boolean fill(int size) throws IOException {
+
+        if (!buffer.hasRemaining()) {
+            buffer = pool.grow(buffer,
+                    RequestParser.grownCapacity(buffer, size));
+        }
+        int n = channel.read(buffer);
+        if (n > 0) {
+            lastFill = System.nanoTime();
+            if (buffer.position() == n) { started = lastFill; }
+            Metrics.BYTES_IN.add(n);
+        }
+        return n >= 0;
+    }
+}
@@ -1,42 +1,123 @@
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.List;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
+import javax.net.ssl.SSLContext;
 
 
-// a simple single-threaded server
+// the server core: a transport takes the requests in (a blocking TCP or
+// TLS acceptor, the NIO selector loops or the UDP receive loops) and passes
+// them to the request handlers, which the concurrency model runs: inline,
+// on a thread each, on a bounded pool or on virtual threads. The parsing
+// (RequestReader, RequestParser), the metrics and the reply path (the
+// pre-encoded responses sent by the reply timer) are the same for all the
+// models, so they can be compared with each other.
 public class Server {
 
-    private static final Logger LOGGER = Logger.getLogger("serverLogger");
+    // FIXME: hopefully multi-thread logging is safe here. At least, looking at
+    // the Logger's docs: "All methods on Logger are multi-thread safe."
+    static final Logger LOGGER = Logger.getLogger("serverLogger");
     private static final String LOG_FILE = "server.log";
 
     private static final String PROP_FILE = "server.properties";
 
-    private static final String RESPONSE = "OK\n";
+    static final String RESPONSE = "OK\n";
+    // the response to a request the server has no capacity for
+    static final String BUSY_RESPONSE = "BUSY\n";
+    static final byte RESPONSE_BYTES[] = RESPONSE.getBytes();
+    static final byte BUSY_RESPONSE_BYTES[] = BUSY_RESPONSE.getBytes();
+
+    // the responses are encoded once; each thread writes them through its
+    // own view of the shared buffer, so nothing is allocated per reply
+    private static final ThreadLocal<ByteBuffer> RESPONSE_VIEW =
+            ThreadLocal.withInitial(readOnlyView(RESPONSE_BYTES)::duplicate);
+    private static final ThreadLocal<ByteBuffer> BUSY_RESPONSE_VIEW =
+            ThreadLocal.withInitial(readOnlyView(BUSY_RESPONSE_BYTES)::duplicate);
+    // binary framing: the response frame is built in a per-thread buffer
+    private static final ThreadLocal<ByteBuffer> RESPONSE_FRAME =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(
+                    Framing.HEADER_SIZE + Math.max(
+                    RESPONSE_BYTES.length, BUSY_RESPONSE_BYTES.length)));
+    // and the sequenced UDP response (see UDPFraming.FLAG_SEQUENCED)
+    private static final ThreadLocal<ByteBuffer> UDP_RESPONSE_FRAME =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(
+                    UDPFraming.HEADER_SIZE + Math.max(
+                    RESPONSE_BYTES.length, BUSY_RESPONSE_BYTES.length)));
 
     // maximum server delay = 20 seconds;
     // in case of increase please fix also timeouts in the client
     private static final int MAX_DELAY = 20000;
 
-    private static final String LN = 
+    static final String LN =
             "__________________________________________________________________";
-    private static final String ENDL = System.getProperty("line.separator");
+    static final String ENDL = System.getProperty("line.separator");
 
-    private static final int MAX_BACKLOG = 0xffff;
+    static final int MAX_BACKLOG = 0xffff;
     private static final int UDP_BUFF_SIZE = 0xffff;
+    // initial TCP read buffer, grown for the longer requests
+    private static final int TCP_BUFF_SIZE = 0x1000;
+    private static final int DEFAULT_BUFFER_POOL_SIZE = 256;
+    // the longest request taken by default (a line, a frame's data,
+    // a UDP message; decompressed)
+    private static final int DEFAULT_MAX_REQUEST_SIZE = 0x100000; // 1 MiB
+    // the longest decompression buffer kept by a thread for the next request
+    private static final int MAX_KEPT_DECOMPRESSED = 0x10000;
+
+    // request log defaults: records in the async log ring and bytes of
+    // each request logged
+    private static final String DEFAULT_REQUEST_LOG_FILE = "requests.log";
+    private static final int DEFAULT_REQUEST_LOG_BUFFER = 0x4000;
+    private static final int DEFAULT_REQUEST_LOG_PREFIX = 256;
+    private static final int MAX_REQUEST_LOG_PREFIX = 0x8000;
+    private static final String DEFAULT_JOURNAL_DIR = "journal";
+    private static final int DEFAULT_JOURNAL_SEGMENT_SIZE = 0x4000000; // 64 MiB
+    private static final int MIN_JOURNAL_SEGMENT_SIZE = 0x10000;
+    private static final int DEFAULT_JOURNAL_SYNC_EVERY = 100;
+
+    // idle kept-alive connection timeout, milliseconds (0 = infinite)
+    private static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 60000;
+
+    private static final List<String> CONCURRENCY_MODELS = List.of(
+            "single", "thread-per-request", "pool", "virtual", "nio");
+
+    // fragmented UDP messages reassembly defaults
+    private static final long DEFAULT_REASSEMBLY_LIMIT = 0x4000000; // 64 MiB
+    private static final int DEFAULT_REASSEMBLY_TIMEOUT = 5000; // ms
+
+    // TLS defaults (see TLSServer)
+    private static final String DEFAULT_TLS_KEY_STORE = "server.p12";
+    private static final String DEFAULT_TLS_KEY_STORE_PASSWORD = "changeit";
+    private static final String DEFAULT_TLS_CERTIFICATE = "server.crt";
+
+    // reply timer: 1 ms resolution, a wheel turn is about 1 second
+    private static final int TIMER_TICK = 1;
+    private static final int TIMER_SLOTS = 1024;
 
 
 
@@ -44,8 +125,71 @@ public class Server {
     private String protocol;
     private int delay;
     private InetAddress address;
+    private String concurrencyModel;
+    private int nioThreads;
+    private int nAcceptors;
+    private boolean keepAlive;
+    private int keepAliveTimeout;
+    private boolean binaryFraming;
+    private int udpSockets;
+    private long reassemblyLimit;
+    private int reassemblyTimeout;
+    private int udpReceiveBuffer;
+    // packets received by each UDP socket
+    private volatile AtomicLongArray udpPackets;
+    private int poolSize;
+    private int poolQueueSize;
+    private String saturationPolicy;
+    private int statsInterval;
+    private int bufferPoolSize;
+    // the longest request taken over TCP and over UDP (the reassembly
+    // limit, if lower), compressed ones once decompressed
+    static int maxRequestSize;
+    static int maxUDPRequestSize;
+    private int metricsPort;
+    // TLS only
+    private SSLContext tlsContext;
+    private String tlsProtocols[]; // null: the JDK defaults
+    private String requestLogMode;
+    private String requestLogFile;
+    private int requestLogBuffer;
+    // log every logSampling-th request, logPrefix bytes of it at most
+    private static boolean logRequests;
+    private static int logSampling;
+    private static int logPrefix;
+    // "async" mode only
+    private static RequestLog requestLog;
+    private boolean journalOn;
+    private String journalDir;
+    private int journalSegmentSize;
+    private String journalSync;
+    private int journalSyncEvery;
+    // null unless journal=on
+    private static Journal journal;
+    // take the compressed requests (see Compression)
+    private static boolean acceptCompressed;
+    // of the binary framing responses (but BUSY_RESPONSE)
+    static byte responseFlags;
+    // the compressed requests are decompressed into a per-thread buffer,
+    // grown as the data come, kept if not longer than MAX_KEPT_DECOMPRESSED
+    private static final ThreadLocal<ByteBuffer> DECOMPRESSED =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(TCP_BUFF_SIZE));
+
+    // the receive buffers (of UDP_BUFF_SIZE or TCP_BUFF_SIZE bytes)
+    static BufferPool bufferPool;
+    // heap allocated by all the threads before the first request
+    private long allocatedAtStart;
 
-    private long nReceived = 0;
+    // runs TCPHandler / UDPHandler tasks
+    private Executor handlerExecutor;
+    // sends the delayed responses
+    private TimerWheel replyTimer;
+    // writes the delayed TCP responses the timer hands over, since a write
+    // may wait for room in the socket buffer (at most keepAliveTimeout,
+    // see TCPHandler.checkIdle)
+    private Executor replyWriters;
+    // the TCP transport with several acceptors, if so configured
+    private volatile TCPAcceptors tcpAcceptors;
 
 
 
@@ -122,7 +266,8 @@ public class Server {
             System.exit(1);
         }
         protocol = protocol.trim().toUpperCase();
-        if (!(protocol.equals("TCP") || protocol.equals("UDP"))) {
+        if (!(protocol.equals("TCP") || protocol.equals("UDP") ||
+              protocol.equals("TLS"))) {
             LOGGER.log(Level.SEVERE,
                 "unsupported protocol: " + protocol);
             System.exit(1);
@@ -136,12 +281,579 @@ public class Server {
             System.exit(1);
         }
         delay = Integer.parseInt(sDelay);
-        if (delay < 1 || delay > MAX_DELAY) {
-            LOGGER.log(Level.SEVERE, "server delay must lie in range [1, " +
+        // 0: respond at once, e.g. to benchmark the exchange itself
+        if (delay < 0 || delay > MAX_DELAY) {
+            LOGGER.log(Level.SEVERE, "server delay must lie in range [0, " +
                     MAX_DELAY + "] milliseconds");
             System.exit(1);
         }
         LOGGER.log(Level.INFO, "server delay = " + delay + " milliseconds" + ENDL);
+
+        concurrencyModel = readConcurrencyModel(config);
+        LOGGER.log(Level.INFO,
+                "concurrency model = " + concurrencyModel + ENDL);
+
+        // optional: number of selector loops for the NIO engine
+        nioThreads = Runtime.getRuntime().availableProcessors();
+        String sNioThreads = config.getProperty("nioThreads");
+        if (sNioThreads != null && !sNioThreads.isEmpty()) {
+            nioThreads = Integer.parseInt(sNioThreads.trim());
+            if (nioThreads < 1) {
+                LOGGER.log(Level.SEVERE,
+                        "number of NIO threads must be positive");
+                System.exit(1);
+            }
+        }
+        if (concurrencyModel.equals("nio") && protocol.equals("TCP")) {
+            LOGGER.log(Level.INFO, "NIO threads = " + nioThreads + ENDL);
+        }
+        if (concurrencyModel.equals("nio") && protocol.equals("TLS")) {
+            LOGGER.log(Level.SEVERE, "TLS is served by the blocking " +
+                    "transport, please select another concurrency model");
+            System.exit(1);
+        }
+        if (protocol.equals("TLS")) { readTLSSettings(config); }
+
+        // optional: number of threads accepting the TCP connections
+        // (blocking transport), more than one listen with SO_REUSEPORT
+        nAcceptors = 1;
+        String sAcceptors = config.getProperty("acceptors");
+        if (sAcceptors != null && !sAcceptors.isEmpty()) {
+            nAcceptors = Integer.parseInt(sAcceptors.trim());
+            if (nAcceptors < 1) {
+                LOGGER.log(Level.SEVERE,
+                        "number of acceptors must be positive");
+                System.exit(1);
+            }
+        }
+        if (protocol.equals("TCP") && !concurrencyModel.equals("nio")) {
+            LOGGER.log(Level.INFO, "acceptors = " + nAcceptors + ENDL);
+        }
+
+        // optional: number of UDP sockets (with their receive loops)
+        // sharing the port, more than one requires SO_REUSEPORT
+        udpSockets = 1;
+        String sUdpSockets = config.getProperty("udpSockets");
+        if (sUdpSockets != null && !sUdpSockets.isEmpty()) {
+            udpSockets = Integer.parseInt(sUdpSockets.trim());
+            if (udpSockets < 1) {
+                LOGGER.log(Level.SEVERE,
+                        "number of UDP sockets must be positive");
+                System.exit(1);
+            }
+        }
+        if (protocol.equals("UDP")) {
+            LOGGER.log(Level.INFO, "UDP sockets = " + udpSockets + ENDL);
+        }
+
+        // optional: memory for the incomplete fragmented UDP messages
+        // (shared by the sockets) and how long to wait for their fragments
+        reassemblyLimit = DEFAULT_REASSEMBLY_LIMIT;
+        String sLimit = config.getProperty("udpReassemblyLimit");
+        if (sLimit != null && !sLimit.isEmpty()) {
+            reassemblyLimit = Long.parseLong(sLimit.trim());
+            if (reassemblyLimit < 1) {
+                LOGGER.log(Level.SEVERE,
+                        "UDP reassembly limit must be positive");
+                System.exit(1);
+            }
+        }
+        reassemblyTimeout = DEFAULT_REASSEMBLY_TIMEOUT;
+        String sReTimeout = config.getProperty("udpReassemblyTimeout");
+        if (sReTimeout != null && !sReTimeout.isEmpty()) {
+            reassemblyTimeout = Integer.parseInt(sReTimeout.trim());
+            if (reassemblyTimeout < 1) {
+                LOGGER.log(Level.SEVERE,
+                        "UDP reassembly timeout must be positive");
+                System.exit(1);
+            }
+        }
+        if (protocol.equals("UDP")) {
+            LOGGER.log(Level.INFO, "UDP reassembly limit = " +
+                    reassemblyLimit + " bytes, timeout = " +
+                    reassemblyTimeout + " milliseconds" + ENDL);
+        }
+
+        // optional: UDP socket receive buffer size (SO_RCVBUF), bytes;
+        // a burst of fragments may not fit into the system default one
+        udpReceiveBuffer = 0; // i.e. the system default
+        String sRcvBuf = config.getProperty("udpReceiveBuffer");
+        if (sRcvBuf != null && !sRcvBuf.isEmpty()) {
+            udpReceiveBuffer = Integer.parseInt(sRcvBuf.trim());
+            if (udpReceiveBuffer < 1) {
+                LOGGER.log(Level.SEVERE,
+                        "UDP receive buffer size must be positive");
+                System.exit(1);
+            }
+            if (protocol.equals("UDP")) {
+                LOGGER.log(Level.INFO, "UDP receive buffer = " +
+                        udpReceiveBuffer + " bytes" + ENDL);
+            }
+        }
+
+        // optional: how many free receive buffers to keep for reuse
+        bufferPoolSize = DEFAULT_BUFFER_POOL_SIZE;
+        String sPoolBuffers = config.getProperty("bufferPoolSize");
+        if (sPoolBuffers != null && !sPoolBuffers.isEmpty()) {
+            bufferPoolSize = Integer.parseInt(sPoolBuffers.trim());
+            if (bufferPoolSize < 1) {
+                LOGGER.log(Level.SEVERE, "buffer pool size must be positive");
+                System.exit(1);
+            }
+        }
+        LOGGER.log(Level.INFO, "buffer pool size = " + bufferPoolSize + ENDL);
+
+        readRequestLogSettings(config);
+        readJournalSettings(config);
+
+        // optional: serve the metrics over HTTP on this local port
+        // (0 = do not; they are available through JMX anyway)
+        metricsPort = 0;
+        String sMetricsPort = config.getProperty("metricsPort");
+        if (sMetricsPort != null && !sMetricsPort.isEmpty()) {
+            metricsPort = Integer.parseInt(sMetricsPort.trim());
+            if (metricsPort != 0 &&
+                    (metricsPort < 0x0400 || metricsPort > 0xffff)) {
+                LOGGER.log(Level.SEVERE, "please select metrics port " +
+                        "number from range [0x0400 .. 0xffff]");
+                System.exit(1);
+            }
+        }
+        LOGGER.log(Level.INFO, "metrics port = " + metricsPort + ENDL);
+
+        // optional: "line" (a text line in, RESPONSE out) or "binary"
+        // (see Framing, multiplexed requests on a persistent connection)
+        String framing = config.getProperty("framing");
+        if (framing == null || framing.isEmpty()) { framing = "line"; }
+        framing = framing.trim().toLowerCase();
+        if (!(framing.equals("line") || framing.equals("binary"))) {
+            LOGGER.log(Level.SEVERE, "unsupported framing: " + framing);
+            System.exit(1);
+        }
+        binaryFraming = framing.equals("binary");
+        LOGGER.log(Level.INFO, "framing = " + framing + ENDL);
+
+        // optional: take the compressed requests (see Compression) of the
+        // binary framing and UDP clients, "on" (default) or "off"; the
+        // binary framing clients are told so in the response flags
+        String sCompression = config.getProperty("compression");
+        if (sCompression == null || sCompression.isEmpty()) {
+            sCompression = "on";
+        }
+        sCompression = sCompression.trim().toLowerCase();
+        if (!(sCompression.equals("on") || sCompression.equals("off"))) {
+            LOGGER.log(Level.SEVERE,
+                    "unsupported compression: " + sCompression);
+            System.exit(1);
+        }
+        acceptCompressed = sCompression.equals("on");
+        responseFlags = acceptCompressed ?
+                Framing.FLAG_ACCEPTS_COMPRESSED : (byte) 0;
+        LOGGER.log(Level.INFO, "compression = " + sCompression + ENDL);
+
+        // optional: the longest request taken, bytes (a line without its
+        // separator, a frame's data, a UDP message; compressed ones once
+        // decompressed); a longer one, or a compressed one claiming more,
+        // is a protocol error which ends its TCP connection, or is dropped
+        // (UDP)
+        maxRequestSize = DEFAULT_MAX_REQUEST_SIZE;
+        String sMaxRequest = config.getProperty("maxRequestSize");
+        if (sMaxRequest != null && !sMaxRequest.isEmpty()) {
+            maxRequestSize = Integer.parseInt(sMaxRequest.trim());
+            if (maxRequestSize < 1 || maxRequestSize > Framing.MAX_PAYLOAD) {
+                LOGGER.log(Level.SEVERE, "max request size must lie in " +
+                        "range [1, " + Framing.MAX_PAYLOAD + "]");
+                System.exit(1);
+            }
+        }
+        maxUDPRequestSize = (int) Math.min(maxRequestSize, reassemblyLimit);
+        LOGGER.log(Level.INFO, "max request size = " + maxRequestSize +
+                " bytes" + ENDL);
+
+        // optional: serve many requests per TCP connection
+        // (always the case for the binary framing)
+        keepAlive = binaryFraming || Boolean.parseBoolean(
+                config.getProperty("keepAlive", "false").trim());
+        LOGGER.log(Level.INFO, "keep-alive = " + keepAlive + ENDL);
+
+        // optional: close the kept-alive connections idle for this long
+        keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+        String sTimeout = config.getProperty("keepAliveTimeout");
+        if (sTimeout != null && !sTimeout.isEmpty()) {
+            keepAliveTimeout = Integer.parseInt(sTimeout.trim());
+            if (keepAliveTimeout < 0) {
+                LOGGER.log(Level.SEVERE,
+                        "keep-alive timeout must not be negative");
+                System.exit(1);
+            }
+        }
+        if (keepAlive) {
+            LOGGER.log(Level.INFO, "keep-alive timeout = " +
+                    keepAliveTimeout + " milliseconds" + ENDL);
+        }
+        // the acceptor would serve a single connection until it closes
+        if (keepAlive && concurrencyModel.equals("single") &&
+                !protocol.equals("UDP")) {
+            LOGGER.log(Level.SEVERE, "the single concurrency model serves " +
+                    "one connection at a time, please turn keep-alive off " +
+                    "and use the line framing, or select another model");
+            System.exit(1);
+        }
+
+        if (concurrencyModel.equals("pool")) { readPoolSettings(config); }
+    }
+
+    // optional: how the requests are handled
+    //   "single"             - by the thread which took them in (the TCP
+    //                          acceptor, a UDP receive loop), one at a time
+    //                          (TCP: one connection at a time, so no
+    //                          keep-alive);
+    //   "thread-per-request" - on a new platform thread each (TCP: each
+    //                          connection), the default;
+    //   "pool"               - on a bounded pool of platform threads;
+    //   "virtual"            - on a new virtual thread each;
+    //   "nio"                - TCP: by the NIO selector loops; UDP: as single
+    // the tcpEngine and handlerThreads settings it replaces are still read
+    private String readConcurrencyModel(Properties config) {
+
+        String model = config.getProperty("concurrencyModel");
+        if (model == null || model.isEmpty()) {
+            model = legacyConcurrencyModel(config);
+        }
+        model = model.trim().toLowerCase();
+        if (!CONCURRENCY_MODELS.contains(model)) {
+            LOGGER.log(Level.SEVERE, "unsupported concurrency model: " + model);
+            System.exit(1);
+        }
+        return model;
+    }
+
+    private String legacyConcurrencyModel(Properties config) {
+
+        String engine = config.getProperty("tcpEngine", "").trim().toLowerCase();
+        String threads =
+                config.getProperty("handlerThreads", "").trim().toLowerCase();
+        if (engine.isEmpty() && threads.isEmpty()) {
+            return "thread-per-request";
+        }
+        LOGGER.log(Level.WARNING, "tcpEngine and handlerThreads are " +
+                "deprecated, please use concurrencyModel" + ENDL);
+        if (engine.equals("nio") && protocol.equals("TCP")) { return "nio"; }
+        if (threads.isEmpty() || threads.equals("platform")) {
+            return "thread-per-request";
+        }
+        return threads;
+    }
+
+    // TLS key and sessions, all the parameters are optional
+    private void readTLSSettings(Properties config) {
+
+        // PKCS12, made with a self-signed certificate if there is none
+        // (see TLSServer), the certificate is exported for the clients
+        String keyStore = config.getProperty("tlsKeyStore");
+        if (keyStore == null || keyStore.isEmpty()) {
+            keyStore = DEFAULT_TLS_KEY_STORE;
+        }
+        keyStore = keyStore.trim();
+        String password = config.getProperty(
+                "tlsKeyStorePassword", DEFAULT_TLS_KEY_STORE_PASSWORD).trim();
+        String certificate = config.getProperty("tlsCertificate");
+        if (certificate == null || certificate.isEmpty()) {
+            certificate = DEFAULT_TLS_CERTIFICATE;
+        }
+        certificate = certificate.trim();
+        LOGGER.log(Level.INFO, "TLS key store = " + keyStore + ENDL);
+
+        // e.g. TLSv1.3,TLSv1.2
+        String sProtocols = config.getProperty("tlsProtocols");
+        if (sProtocols != null && !sProtocols.trim().isEmpty()) {
+            tlsProtocols = sProtocols.trim().split("\\s*,\\s*");
+            LOGGER.log(Level.INFO, "TLS protocols = " +
+                    String.join(",", tlsProtocols) + ENDL);
+        }
+
+        // sessions cached for resumption and their lifetime, seconds
+        // (0 = the JDK defaults)
+        int sessionCache = 0;
+        String sCache = config.getProperty("tlsSessionCache");
+        if (sCache != null && !sCache.isEmpty()) {
+            sessionCache = Integer.parseInt(sCache.trim());
+            if (sessionCache < 0) {
+                LOGGER.log(Level.SEVERE,
+                        "TLS session cache size must not be negative");
+                System.exit(1);
+            }
+        }
+        int sessionTimeout = 0;
+        String sSessionTimeout = config.getProperty("tlsSessionTimeout");
+        if (sSessionTimeout != null && !sSessionTimeout.isEmpty()) {
+            sessionTimeout = Integer.parseInt(sSessionTimeout.trim());
+            if (sessionTimeout < 0) {
+                LOGGER.log(Level.SEVERE,
+                        "TLS session timeout must not be negative");
+                System.exit(1);
+            }
+        }
+        LOGGER.log(Level.INFO, "TLS session cache = " + sessionCache +
+                ", timeout = " + sessionTimeout + " seconds" + ENDL);
+
+        try {
+            tlsContext = TLSServer.context(keyStore, password, certificate,
+                    sessionCache, sessionTimeout);
+        } catch (IOException | GeneralSecurityException e) {
+            LOGGER.log(Level.SEVERE, "cannot set up TLS with " + keyStore +
+                    ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // received requests logging, all the parameters are optional
+    private void readRequestLogSettings(Properties config) {
+
+        // "async" (a background writer, see RequestLog), "logger" (the
+        // server log, synchronously) or "off"
+        requestLogMode = config.getProperty("requestLog");
+        if (requestLogMode == null || requestLogMode.isEmpty()) {
+            requestLogMode = "async";
+        }
+        requestLogMode = requestLogMode.trim().toLowerCase();
+        if (!(requestLogMode.equals("async") ||
+              requestLogMode.equals("logger") ||
+              requestLogMode.equals("off"))) {
+            LOGGER.log(Level.SEVERE,
+                    "unsupported request log: " + requestLogMode);
+            System.exit(1);
+        }
+        LOGGER.log(Level.INFO, "request log = " + requestLogMode + ENDL);
+        logRequests = !requestLogMode.equals("off");
+        if (!logRequests) { return; }
+
+        logSampling = 1;
+        String sSampling = config.getProperty("requestLogSampling");
+        if (sSampling != null && !sSampling.isEmpty()) {
+            logSampling = Integer.parseInt(sSampling.trim());
+            if (logSampling < 1) {
+                LOGGER.log(Level.SEVERE,
+                        "request log sampling must be positive");
+                System.exit(1);
+            }
+        }
+        LOGGER.log(Level.INFO,
+                "request log sampling = 1 in " + logSampling + ENDL);
+
+        logPrefix = DEFAULT_REQUEST_LOG_PREFIX;
+        String sPrefix = config.getProperty("requestLogPrefix");
+        if (sPrefix != null && !sPrefix.isEmpty()) {
+            logPrefix = Integer.parseInt(sPrefix.trim());
+            if (logPrefix < 0 || logPrefix > MAX_REQUEST_LOG_PREFIX) {
+                LOGGER.log(Level.SEVERE, "request log prefix must lie " +
+                        "in range [0, " + MAX_REQUEST_LOG_PREFIX + "] bytes");
+                System.exit(1);
+            }
+        }
+        LOGGER.log(Level.INFO,
+                "request log prefix = " + logPrefix + " bytes" + ENDL);
+
+        if (!requestLogMode.equals("async")) { return; }
+
+        requestLogFile = config.getProperty("requestLogFile");
+        if (requestLogFile == null || requestLogFile.isEmpty()) {
+            requestLogFile = DEFAULT_REQUEST_LOG_FILE;
+        }
+        requestLogFile = requestLogFile.trim();
+        LOGGER.log(Level.INFO, "request log file = " + requestLogFile + ENDL);
+
+        requestLogBuffer = DEFAULT_REQUEST_LOG_BUFFER;
+        String sLogBuffer = config.getProperty("requestLogBuffer");
+        if (sLogBuffer != null && !sLogBuffer.isEmpty()) {
+            requestLogBuffer = Integer.parseInt(sLogBuffer.trim());
+            if (requestLogBuffer < 1) {
+                LOGGER.log(Level.SEVERE,
+                        "request log buffer size must be positive");
+                System.exit(1);
+            }
+        }
+        LOGGER.log(Level.INFO, "request log buffer = " +
+                requestLogBuffer + " records" + ENDL);
+    }
+
+    private void initRequestLog() {
+
+        if (!requestLogMode.equals("async")) { return; }
+        try {
+            requestLog = new RequestLog(
+                    requestLogFile, requestLogBuffer, logPrefix);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "cannot open " + requestLogFile +
+                    ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // journal of all the received requests (see Journal), all the
+    // parameters are optional
+    private void readJournalSettings(Properties config) {
+
+        String sJournal = config.getProperty("journal");
+        if (sJournal == null || sJournal.isEmpty()) { sJournal = "off"; }
+        sJournal = sJournal.trim().toLowerCase();
+        if (!(sJournal.equals("on") || sJournal.equals("off"))) {
+            LOGGER.log(Level.SEVERE, "unsupported journal: " + sJournal);
+            System.exit(1);
+        }
+        LOGGER.log(Level.INFO, "journal = " + sJournal + ENDL);
+        journalOn = sJournal.equals("on");
+        if (!journalOn) { return; }
+
+        journalDir = config.getProperty("journalDir");
+        if (journalDir == null || journalDir.isEmpty()) {
+            journalDir = DEFAULT_JOURNAL_DIR;
+        }
+        journalDir = journalDir.trim();
+        LOGGER.log(Level.INFO, "journal directory = " + journalDir + ENDL);
+
+        journalSegmentSize = DEFAULT_JOURNAL_SEGMENT_SIZE;
+        String sSegmentSize = config.getProperty("journalSegmentSize");
+        if (sSegmentSize != null && !sSegmentSize.isEmpty()) {
+            journalSegmentSize = Integer.parseInt(sSegmentSize.trim());
+            if (journalSegmentSize < MIN_JOURNAL_SEGMENT_SIZE) {
+                LOGGER.log(Level.SEVERE, "journal segment size must be " +
+                        "at least " + MIN_JOURNAL_SEGMENT_SIZE + " bytes");
+                System.exit(1);
+            }
+        }
+        LOGGER.log(Level.INFO, "journal segment size = " +
+                journalSegmentSize + " bytes" + ENDL);
+
+        journalSync = config.getProperty("journalSync");
+        if (journalSync == null || journalSync.isEmpty()) {
+            journalSync = "none";
+        }
+        journalSync = journalSync.trim().toLowerCase();
+        if (!(journalSync.equals("none") ||
+              journalSync.equals("interval") ||
+              journalSync.equals("count"))) {
+            LOGGER.log(Level.SEVERE,
+                    "unsupported journal sync policy: " + journalSync);
+            System.exit(1);
+        }
+        LOGGER.log(Level.INFO, "journal sync = " + journalSync + ENDL);
+        if (journalSync.equals("none")) { return; }
+
+        // milliseconds ("interval") or records ("count")
+        journalSyncEvery = DEFAULT_JOURNAL_SYNC_EVERY;
+        String sSyncEvery = config.getProperty("journalSyncEvery");
+        if (sSyncEvery != null && !sSyncEvery.isEmpty()) {
+            journalSyncEvery = Integer.parseInt(sSyncEvery.trim());
+            if (journalSyncEvery < 1) {
+                LOGGER.log(Level.SEVERE,
+                        "journal sync period must be positive");
+                System.exit(1);
+            }
+        }
+        LOGGER.log(Level.INFO, "journal sync every " + journalSyncEvery +
+                (journalSync.equals("interval") ?
+                        " milliseconds" : " records") + ENDL);
+    }
+
+    private void initJournal() {
+
+        if (!journalOn) { return; }
+        try {
+            journal = new Journal(journalDir,
+                    journalSegmentSize, journalSync, journalSyncEvery);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "cannot open the journal in " +
+                    journalDir + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // bounded pool configuration, all the parameters are optional
+    private void readPoolSettings(Properties config) {
+
+        poolSize = 2 * Runtime.getRuntime().availableProcessors();
+        String sPoolSize = config.getProperty("poolSize");
+        if (sPoolSize != null && !sPoolSize.isEmpty()) {
+            poolSize = Integer.parseInt(sPoolSize.trim());
+            if (poolSize < 1) {
+                LOGGER.log(Level.SEVERE, "pool size must be positive");
+                System.exit(1);
+            }
+        }
+        LOGGER.log(Level.INFO, "pool size = " + poolSize + ENDL);
+
+        poolQueueSize = 1024;
+        String sQueueSize = config.getProperty("poolQueueSize");
+        if (sQueueSize != null && !sQueueSize.isEmpty()) {
+            poolQueueSize = Integer.parseInt(sQueueSize.trim());
+            if (poolQueueSize < 1) {
+                LOGGER.log(Level.SEVERE, "pool queue size must be positive");
+                System.exit(1);
+            }
+        }
+        LOGGER.log(Level.INFO, "pool queue size = " + poolQueueSize + ENDL);
+
+        saturationPolicy = config.getProperty("saturationPolicy");
+        if (saturationPolicy == null || saturationPolicy.isEmpty()) {
+            saturationPolicy = "block";
+        }
+        saturationPolicy = saturationPolicy.trim().toLowerCase();
+        if (!(saturationPolicy.equals("block") ||
+              saturationPolicy.equals("busy") ||
+              saturationPolicy.equals("drop-oldest"))) {
+            LOGGER.log(Level.SEVERE,
+                    "unsupported saturation policy: " + saturationPolicy);
+            System.exit(1);
+        }
+        LOGGER.log(Level.INFO,
+                "saturation policy = " + saturationPolicy + ENDL);
+
+        statsInterval = 0;
+        String sInterval = config.getProperty("statsInterval");
+        if (sInterval != null && !sInterval.isEmpty()) {
+            statsInterval = Integer.parseInt(sInterval.trim());
+            if (statsInterval < 0) {
+                LOGGER.log(Level.SEVERE,
+                        "stats interval must not be negative");
+                System.exit(1);
+            }
+        }
+        LOGGER.log(Level.INFO,
+                "stats interval = " + statsInterval + " seconds" + ENDL);
+    }
+
+    private void initHandlerExecutor() {
+
+        if (concurrencyModel.equals("virtual")) {
+            // a new virtual thread per task, so the blocking handlers
+            // (sleep and socket I/O) do not pin any carrier thread
+            handlerExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        } else if (concurrencyModel.equals("pool")) {
+            HandlerPool pool =
+                    new HandlerPool(poolSize, poolQueueSize, saturationPolicy);
+            handlerExecutor = pool;
+            Metrics.setPool(pool);
+            if (statsInterval > 0) { startPoolReporter(pool); }
+        } else if (concurrencyModel.equals("thread-per-request")) {
+            handlerExecutor = task -> (new Thread(task)).start();
+        } else { // "single", "nio" (UDP): in the transport thread
+            handlerExecutor = Runnable::run;
+        }
+    }
+
+    // periodically log the pool state, to size the pool for the peak load
+    private void startPoolReporter(HandlerPool pool) {
+
+        Thread reporter = new Thread(() -> {
+            while (true) {
+                try { Thread.sleep(statsInterval * 1000L); }
+                catch (InterruptedException e) { return; }
+                LOGGER.log(Level.INFO, pool.report() + ENDL);
+            }
+        }, "pool-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
     }
 
     // need this to get received messages count on Ctrl + C
@@ -150,18 +862,70 @@ public class Server {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
+                long nReceived = Metrics.REQUESTS.sum();
                 System.out.println("\n\n" + nReceived + " messages received");
                 LOGGER.log(Level.INFO,
                         "number of received messages: " + nReceived);
+                long allocated = allocatedBytes() - allocatedAtStart;
+                if (allocatedAtStart >= 0 && nReceived > 0) {
+                    String report = "heap allocated per request: " +
+                            allocated / nReceived + " bytes";
+                    System.out.println(report);
+                    LOGGER.log(Level.INFO, report);
+                }
+                System.out.println(bufferPool.report());
+                LOGGER.log(Level.INFO, bufferPool.report());
+                if (requestLog != null) {
+                    requestLog.close(); // flush the records left
+                    System.out.println(requestLog.report());
+                    LOGGER.log(Level.INFO, requestLog.report());
+                }
+                if (journal != null) {
+                    journal.close(); // force the records left
+                    System.out.println(journal.report());
+                    LOGGER.log(Level.INFO, journal.report());
+                }
+                if (acceptCompressed) {
+                    System.out.println(Compression.report());
+                    LOGGER.log(Level.INFO, Compression.report());
+                }
+                if (tlsContext != null) {
+                    System.out.println(TLSServer.report());
+                    LOGGER.log(Level.INFO, TLSServer.report());
+                }
+                TCPAcceptors acceptors = tcpAcceptors;
+                if (acceptors != null) {
+                    System.out.println(acceptors.report());
+                    LOGGER.log(Level.INFO, acceptors.report());
+                }
+                AtomicLongArray packets = udpPackets;
+                if (packets != null) {
+                    System.out.println(Reassembler.report());
+                    LOGGER.log(Level.INFO, Reassembler.report());
+                }
+                if (packets != null && packets.length() > 1) {
+                    for (int i = 0; i < packets.length(); ++i) {
+                        String report = "UDP socket #" + i + ": " +
+                                packets.get(i) + " packets";
+                        System.out.println(report);
+                        LOGGER.log(Level.INFO, report);
+                    }
+                }
+                if (handlerExecutor instanceof HandlerPool) {
+                    String report = ((HandlerPool) handlerExecutor).report();
+                    System.out.println(report);
+                    LOGGER.log(Level.INFO, report);
+                }
             }
         });
     }
 
     private void runTCPLoop() {
 
-        ServerSocket serverSocket;
+        ServerSocketChannel serverChannel;
         try {
-            serverSocket = new ServerSocket(port, MAX_BACKLOG, address);
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(address, port), MAX_BACKLOG);
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "cannot create server socket on port " +
                     Long.toString(port) + ": " + e.getMessage() + ENDL);
@@ -174,50 +938,49 @@ public class Server {
 
         while (true) {
 
-            Socket connectionSocket;
+            SocketChannel channel;
 
             try {
-                connectionSocket = serverSocket.accept();
+                channel = serverChannel.accept();
             } catch (IOException e) {
                 LOGGER.log(Level.SEVERE, "error accepting the socket: " +
                         e.getMessage() + ENDL);
-                continue; // return?
-            }
-
-            try {
-                BufferedReader fromClient = new BufferedReader(
-                    new InputStreamReader(connectionSocket.getInputStream()));
-                String clientSentence = fromClient.readLine();
-                ++nReceived;
-                LOGGER.log(Level.INFO, "received " + clientSentence + ENDL);
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING,
-                        "error while reading from client socket: " +
-                        e.getMessage() + ENDL);
                 continue;
             }
+            Metrics.CONNECTIONS_OPENED.increment();
 
-            try { Thread.sleep(delay); }
-            catch (InterruptedException dummy) {}
-
-            try {
-                DataOutputStream toClient =
-                new DataOutputStream(connectionSocket.getOutputStream());
-                toClient.writeBytes(RESPONSE);
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING,
-                        "error while writing to client socket: " +
-                        e.getMessage() + ENDL);
-            }
+            handlerExecutor.execute(new TCPHandler(channel,
+                    channel.socket().getRemoteSocketAddress(), delay,
+                    keepAlive, keepAliveTimeout, binaryFraming, replyTimer,
+                    replyWriters));
         }
     }
 
     private void runUDPLoop() {
 
-        DatagramSocket serverSocket;
+        DatagramChannel channels[] = new DatagramChannel[udpSockets];
         try {
-            serverSocket = new DatagramSocket(port, address);
-        } catch (SocketException e) {
+            for (int i = 0; i < udpSockets; ++i) {
+                DatagramChannel channel = DatagramChannel.open();
+                if (udpSockets > 1) {
+                    // the kernel spreads the datagrams among the sockets
+                    // bound to the same port (by the source address hash)
+                    if (!channel.supportedOptions().contains(
+                            StandardSocketOptions.SO_REUSEPORT)) {
+                        LOGGER.log(Level.SEVERE,
+                                "SO_REUSEPORT is not supported" + ENDL);
+                        return;
+                    }
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                if (udpReceiveBuffer > 0) {
+                    channel.setOption(
+                            StandardSocketOptions.SO_RCVBUF, udpReceiveBuffer);
+                }
+                channel.bind(new InetSocketAddress(address, port));
+                channels[i] = channel;
+            }
+        } catch (IOException e) {
             LOGGER.log(Level.SEVERE,
                     "cannot create server socket on port " + 
                     Long.toString(port) + ": " + e.getMessage() + ENDL);
@@ -227,40 +990,171 @@ public class Server {
         LOGGER.log(Level.INFO, "UDP server started on port " +
                 Long.toString(port) + ENDL + LN + ENDL);
 
-        byte inData[] = new byte[UDP_BUFF_SIZE];
+        udpPackets = new AtomicLongArray(udpSockets);
+        for (int i = 1; i < udpSockets; ++i) {
+            final int n = i;
+            (new Thread(() -> receiveUDP(channels[n], n),
+                    "udp-receiver-" + n)).start();
+        }
+        receiveUDP(channels[0], 0);
+    }
 
-        while (true) {
+    // receive loop of the n-th UDP socket, the responses
+    // are sent from the same socket
+    private void receiveUDP(DatagramChannel channel, int n) {
 
-            DatagramPacket receivePacket =
-                    new DatagramPacket(inData, UDP_BUFF_SIZE);
+        // the fragments are copied out of the pooled buffers to be reassembled
+        byte fragment[] = new byte[UDP_BUFF_SIZE];
+        Reassembler reassembler = new Reassembler(
+                reassemblyLimit / udpSockets, reassemblyTimeout);
 
+        while (true) {
+
+            // the handler (which may be queued for a while) owns the
+            // buffer and gives it back to the pool
+            ByteBuffer data = bufferPool.acquire();
+            SocketAddress source;
             try {
-                serverSocket.receive(receivePacket);
+                source = channel.receive(data);
             } catch (IOException e) {
+                bufferPool.release(data);
                 LOGGER.log(Level.WARNING, "error while receiving a packet: " +
                         e.getMessage() + ENDL);
                 continue;
             }
+            udpPackets.incrementAndGet(n);
+            data.flip();
+            Metrics.BYTES_IN.add(data.remaining());
 
-            String clientSentence =
-                    (new String(receivePacket.getData())).trim();
-            ++nReceived;
-            LOGGER.log(Level.INFO, "received " + clientSentence + ENDL);
+            byte flags = 0;
+            int messageId = 0;
+            if (UDPFraming.isFragment(data)) {
+                int length = data.remaining();
+                data.get(fragment, 0, length);
+                bufferPool.release(data);
+                flags = UDPFraming.flags(fragment);
+                messageId = UDPFraming.messageId(fragment);
+                byte message[] = reassembler.add(source, fragment, length);
+                if (message == null) { continue; } // not complete yet
+                data = ByteBuffer.wrap(message);
+            }
 
-            try { Thread.sleep(delay); }
-            catch (InterruptedException dummy) {}
+            handlerExecutor.execute(new UDPHandler(channel, data, source,
+                    flags, messageId, delay, replyTimer));
+        }
+    }
 
-            byte reData[] = RESPONSE.getBytes();
-            DatagramPacket sendPacket = new DatagramPacket(
-                    reData, reData.length,
-                    receivePacket.getAddress(), receivePacket.getPort());
-            try {
-                serverSocket.send(sendPacket);
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "error while sending a packet: " +
-                        e.getMessage() + ENDL);
-            }
+    // count the request (length bytes of b starting at offset), journal
+    // it (source: see journalSource()) and log it if sampled; with the
+    // async log nothing is decoded here, in the "logger" mode it is
+    // decoded only if the log is going to take it
+    static void received(ByteBuffer b, int offset, int length,
+                         byte source[]) {
+
+        Metrics.REQUESTS.increment();
+        if (journal != null) { journal.append(b, offset, length, source); }
+        // 1 in logSampling on average: a shared sequence would be
+        // a contention point the counters above are meant to avoid
+        if (!logRequests || (logSampling > 1 &&
+                ThreadLocalRandom.current().nextInt(logSampling) != 0)) {
+            return;
+        }
+
+        if (requestLog != null) {
+            requestLog.publish(b, offset, length);
+        } else if (LOGGER.isLoggable(Level.INFO)) {
+            String tail = length > logPrefix ?
+                    " ... (" + length + " bytes)" : "";
+            LOGGER.log(Level.INFO, "received " +
+                    decode(b, offset, Math.min(length, logPrefix)) +
+                    tail + ENDL);
+        }
+    }
+
+    // the same for a compressed request (see Compression), decompressed
+    // into a buffer of the calling thread first; maxLength: of the
+    // decompressed request (maxRequestSize, maxUDPRequestSize)
+    static void receivedCompressed(ByteBuffer b, int offset, int length,
+                                   byte source[], int maxLength)
+            throws IOException {
+
+        if (!acceptCompressed) {
+            throw new IOException("compressed requests are not accepted");
+        }
+        int original = Compression.originalLength(
+                b, offset, length, maxLength);
+        ByteBuffer out = Compression.decompress(
+                b, offset, length, original, DECOMPRESSED.get());
+        if (out.capacity() <= MAX_KEPT_DECOMPRESSED) { DECOMPRESSED.set(out); }
+        received(out, 0, original, source);
+    }
+
+    // the client address as the journal records it, null if there
+    // is no journal
+    static byte[] journalSource(SocketAddress client) {
+        return journal == null ? null : Journal.source(client);
+    }
+
+    // the received bytes only, with the surrounding white space trimmed;
+    // plain ASCII (the usual case) is taken as is, without a decoder
+    static String decode(ByteBuffer b, int offset, int length) {
+
+        byte data[] = new byte[length];
+        b.get(offset, data);
+
+        int from = 0, to = length;
+        while (from < to && (data[from] & 0xff) <= ' ') { ++from; }
+        while (to > from && (data[to - 1] & 0xff) <= ' ') { --to; }
+
+        for (int i = from; i < to; ++i) {
+            if (data[i] < 0) { return new String(data, from, to - from); }
+        }
+        return new String(data, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    // a view of the pre-encoded response, valid in the calling thread
+    // until its next call
+    private static ByteBuffer response(boolean busy) {
+        ByteBuffer b = (busy ? BUSY_RESPONSE_VIEW : RESPONSE_VIEW).get();
+        b.clear();
+        return b;
+    }
+
+    // the same for the binary framing
+    private static ByteBuffer responseFrame(int id, boolean busy) {
+        ByteBuffer b = RESPONSE_FRAME.get();
+        b.clear();
+        Framing.put(b, id, busy ? Framing.FLAG_BUSY : responseFlags,
+                busy ? BUSY_RESPONSE_BYTES : RESPONSE_BYTES);
+        b.flip();
+        return b;
+    }
+
+    // and for a sequenced UDP request: its sequence number echoed
+    private static ByteBuffer udpResponseFrame(int sequence, boolean busy) {
+        ByteBuffer b = UDP_RESPONSE_FRAME.get();
+        b.clear();
+        UDPFraming.put(b, sequence, UDPFraming.FLAG_SEQUENCED,
+                busy ? BUSY_RESPONSE_BYTES : RESPONSE_BYTES);
+        b.flip();
+        return b;
+    }
+
+    private static ByteBuffer readOnlyView(byte data[]) {
+        ByteBuffer b = ByteBuffer.allocateDirect(data.length);
+        b.put(data).flip();
+        return b.asReadOnlyBuffer();
+    }
+
+    // heap allocated by all the threads so far, -1 if not supported
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+                ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getTotalThreadAllocatedBytes();
         }
+        return -1;
     }
 
     public void start() {
@@ -268,12 +1162,402 @@ public class Server {
         // initialize
         initLogger();
         readSettings();
+        initHandlerExecutor();
+        replyTimer = new TimerWheel("reply-timer", TIMER_TICK, TIMER_SLOTS);
+        replyWriters = Executors.newFixedThreadPool(
+                2 * Runtime.getRuntime().availableProcessors(), task -> {
+            Thread t = new Thread(task, "reply-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        bufferPool = new BufferPool(protocol.equals("UDP") ?
+                UDP_BUFF_SIZE : TCP_BUFF_SIZE, bufferPoolSize);
+        initRequestLog();
+        initJournal();
+        Metrics.start(metricsPort);
+        allocatedAtStart = allocatedBytes();
         addNReceivedHook();
 
         // start listening
-        if (protocol.equals("TCP")) { runTCPLoop(); }
-        else if (protocol.equals("UDP")) { runUDPLoop(); }
-        // else {} -- not reachable
+        RequestHandler.Factory tcpHandlers = (channel, client) ->
+                new TCPHandler(channel, client, delay, keepAlive,
+                        keepAliveTimeout, binaryFraming, replyTimer,
+                        replyWriters);
+        Transport transport;
+        if (protocol.equals("UDP")) {
+            transport = this::runUDPLoop;
+        } else if (protocol.equals("TLS")) {
+            transport = new TLSServer(address, port, tlsContext, tlsProtocols,
+                    handlerExecutor, tcpHandlers);
+        } else if (concurrencyModel.equals("nio")) {
+            transport = new NioTCPServer(address, port, delay, nioThreads,
+                    keepAlive, keepAliveTimeout, binaryFraming);
+        } else if (nAcceptors > 1) {
+            tcpAcceptors = new TCPAcceptors(address, port, nAcceptors,
+                    handlerExecutor, tcpHandlers);
+            transport = tcpAcceptors;
+        } else {
+            transport = this::runTCPLoop;
+        }
+        transport.run();
+    }
+
+    // the requests of a TCP (or TLS, see TLSServer) connection
+    private static class TCPHandler implements RequestHandler {
+
+        private final ByteChannel channel;
+        private final SocketAddress client;
+        private final int handlerDelay;
+        private final boolean keepAlive;
+        private final int keepAliveTimeout;
+        private final boolean binary;
+        private final TimerWheel timer;
+        private final Executor writers;
+        // the ids of the responses due (after the delay), written in order
+        // by a single writer task at a time (so a client which does not
+        // read holds one writer at most)
+        private final Queue<Integer> due = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean writing = new AtomicBoolean();
+        // keep-alive: the idle connections, and those whose client does
+        // not read the responses any more, are closed by the timer
+        private volatile long lastActive;
+        private volatile long writeStarted; // 0: no write under way
+        private volatile boolean idleClosed = false;
+        private final AtomicInteger nPending = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private byte source[]; // for the journal
+
+        public TCPHandler(ByteChannel channel, SocketAddress client, int delay,
+                          boolean keepAlive, int keepAliveTimeout,
+                          boolean binary, TimerWheel timer,
+                          Executor writers) {
+            this.channel = channel;
+            this.client = client;
+            handlerDelay = delay;
+            this.keepAlive = keepAlive;
+            this.keepAliveTimeout = keepAliveTimeout;
+            this.binary = binary;
+            this.timer = timer;
+            this.writers = writers;
+        }
+
+        @Override
+        public void run() {
+
+            Metrics.ACTIVE_HANDLERS.increment();
+            source = journalSource(client);
+            RequestReader reader =
+                    new RequestReader(channel, bufferPool, maxRequestSize);
+            try {
+                if (binary) {
+                    serveFrames(reader);
+                } else if (keepAlive) {
+                    serveConnection(reader);
+                } else {
+                    serveRequest(reader);
+                }
+            } finally {
+                reader.release();
+                Metrics.ACTIVE_HANDLERS.decrement();
+            }
+        }
+
+        private void serveRequest(RequestReader reader) {
+
+            try {
+                if (!reader.nextLine()) {
+                    close(); // nothing to answer
+                    return;
+                }
+                received(reader);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING,
+                        "error while reading from client socket: " +
+                        e.getMessage() + ENDL);
+                close();
+                return;
+            }
+
+            // do not hold the thread for the delay, the response is
+            // written after it (see scheduleResponse)
+            scheduleResponse(0);
+        }
+
+        // keep-alive: read the requests until the client closes
+        // the connection (or it is idle for too long)
+        private void serveConnection(RequestReader reader) {
+
+            watchIdle();
+            try {
+                while (reader.nextLine()) {
+                    received(reader);
+                    scheduleResponse(0);
+                }
+            } catch (IOException e) {
+                readFailed(e);
+            } finally {
+                close();
+            }
+        }
+
+        // binary framing: read the frames until the client closes the
+        // connection, each response goes (after the delay) with the id
+        // of its request, so the client need not wait for it to send more
+        private void serveFrames(RequestReader reader) {
+
+            watchIdle();
+            try {
+                while (reader.nextFrame()) {
+                    received(reader);
+                    scheduleResponse(reader.id());
+                }
+            } catch (IOException e) {
+                readFailed(e);
+            } finally {
+                close();
+            }
+        }
+
+        private void received(RequestReader reader) throws IOException {
+            lastActive = System.nanoTime();
+            Metrics.READ.record(lastActive - reader.started());
+            if (binary && (reader.flags() & Framing.FLAG_COMPRESSED) != 0) {
+                receivedCompressed(reader.buffer(), reader.offset(),
+                        reader.length(), source, maxRequestSize);
+            } else {
+                Server.received(reader.buffer(),
+                        reader.offset(), reader.length(), source);
+            }
+        }
+
+        // id: the request id (binary framing only)
+        private void scheduleResponse(int id) {
+
+            if (keepAlive) { nPending.incrementAndGet(); }
+            if (handlerDelay == 0) {
+                respond(id);
+                return;
+            }
+            Metrics.PENDING_REPLIES.increment();
+            long scheduled = System.nanoTime();
+            timer.schedule(() -> {
+                Metrics.DELAY.record(System.nanoTime() - scheduled);
+                Metrics.PENDING_REPLIES.decrement();
+                // the write may block (the socket buffer is full, TLS
+                // writes through the socket streams), and the timer thread
+                // is shared by all the connections
+                due.add(id);
+                if (writing.compareAndSet(false, true)) {
+                    writers.execute(this::writeDue);
+                }
+            }, handlerDelay);
+        }
+
+        private void writeDue() {
+            while (true) {
+                Integer id;
+                while ((id = due.poll()) != null) { respond(id); }
+                writing.set(false);
+                // one added after the poll and before the set is ours
+                if (due.isEmpty() || !writing.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        // SO_TIMEOUT does not apply to the channel reads nor writes, so the
+        // idle connections and the stalled writes are looked for by the timer
+        private void watchIdle() {
+            if (keepAliveTimeout == 0) { return; } // never
+            lastActive = System.nanoTime();
+            timer.schedule(this::checkIdle, keepAliveTimeout);
+        }
+
+        private void checkIdle() {
+
+            if (closed.get()) { return; }
+            long now = System.nanoTime();
+            long idle = (now - lastActive) / 1000000;
+            long started = writeStarted;
+            if (started != 0 && (now - started) / 1000000 >= keepAliveTimeout) {
+                // the socket buffer stays full: the client sends but does
+                // not read, the writer thread is not held any longer
+                LOGGER.log(Level.WARNING, "closing connection, the client " +
+                        "does not read the responses" + ENDL);
+                close(); // the blocked write fails
+            } else if (idle >= keepAliveTimeout && nPending.get() == 0) {
+                idleClosed = true;
+                close(); // the blocked read fails
+            } else {
+                timer.schedule(this::checkIdle,
+                        Math.max(keepAliveTimeout - idle, 1));
+            }
+        }
+
+        private void readFailed(IOException e) {
+            if (idleClosed) {
+                LOGGER.log(Level.INFO, "closing idle connection" + ENDL);
+            } else {
+                LOGGER.log(Level.WARNING,
+                        "error while reading from client socket: " +
+                        e.getMessage() + ENDL);
+            }
+        }
+
+        @Override
+        public void reject() {
+            // the whole connection is refused
+            write(binary ? responseFrame(0, true) : response(true));
+            close();
+        }
+
+        // the client is waiting for the response anyway, let it know
+        @Override
+        public void drop() { reject(); }
+
+        private void respond(int id) {
+            write(binary ? responseFrame(id, false) : response(false));
+            if (keepAlive) {
+                nPending.decrementAndGet();
+            } else {
+                close();
+            }
+        }
+
+        // blocks while the socket buffer is full (kept-alive connections:
+        // until checkIdle closes it)
+        private void write(ByteBuffer response) {
+
+            long start = System.nanoTime();
+            lastActive = start;
+            try {
+                int n = 0;
+                synchronized (channel) {
+                    writeStarted = System.nanoTime();
+                    try {
+                        while (response.hasRemaining()) {
+                            n += channel.write(response);
+                        }
+                    } finally {
+                        writeStarted = 0;
+                    }
+                }
+                Metrics.WRITE.record(System.nanoTime() - start);
+                Metrics.BYTES_OUT.add(n);
+            } catch (ClosedChannelException e) {
+                LOGGER.log(Level.WARNING,
+                        "client socket closed before the response" + ENDL);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING,
+                        "error while writing to client socket: " +
+                        e.getMessage() + ENDL);
+            }
+        }
+
+        private void close() {
+            if (closed.getAndSet(true)) { return; }
+            Metrics.CONNECTIONS_CLOSED.increment();
+            try { channel.close(); }
+            catch (IOException dummy) {}
+        }
+    }
+
+    private static class UDPHandler implements RequestHandler {
+
+        private final DatagramChannel channel;
+        private final ByteBuffer request;
+        private final SocketAddress source;
+        private final boolean compressed;
+        // the response echoes the sequence number (see UDPFraming)
+        private final boolean sequenced;
+        private final int sequence;
+        private final long receivedAt; // System.nanoTime()
+        private final int handlerDelay;
+        private final TimerWheel timer;
+
+        // flags, messageId: of the fragments, 0 for a plain datagram
+        public UDPHandler(DatagramChannel channel, ByteBuffer request,
+                          SocketAddress source, byte flags, int messageId,
+                          int delay, TimerWheel timer) {
+            receivedAt = System.nanoTime();
+            this.channel = channel;
+            this.request = request;
+            this.source = source;
+            compressed = (flags & UDPFraming.FLAG_COMPRESSED) != 0;
+            sequenced = (flags & UDPFraming.FLAG_SEQUENCED) != 0;
+            sequence = messageId;
+            handlerDelay = delay;
+            this.timer = timer;
+        }
+
+        @Override
+        public void run() {
+
+            Metrics.ACTIVE_HANDLERS.increment();
+            long scheduled = System.nanoTime();
+            Metrics.READ.record(scheduled - receivedAt);
+            try {
+                if (compressed) {
+                    receivedCompressed(request, 0, request.limit(),
+                            journalSource(source), maxUDPRequestSize);
+                } else if (request.limit() > maxUDPRequestSize) {
+                    throw new IOException(request.limit() + " bytes, more " +
+                            "than the max request size");
+                } else {
+                    received(request, 0, request.limit(),
+                            journalSource(source));
+                }
+            } catch (IOException e) {
+                // not answered, as a lost datagram
+                LOGGER.log(Level.WARNING, "dropping a UDP message: " +
+                        e.getMessage() + ENDL);
+                bufferPool.release(request);
+                Metrics.ACTIVE_HANDLERS.decrement();
+                return;
+            }
+            bufferPool.release(request);
+
+            if (handlerDelay == 0) {
+                send(reply(false));
+                Metrics.ACTIVE_HANDLERS.decrement();
+                return;
+            }
+            Metrics.PENDING_REPLIES.increment();
+            timer.schedule(() -> {
+                Metrics.DELAY.record(System.nanoTime() - scheduled);
+                Metrics.PENDING_REPLIES.decrement();
+                send(reply(false));
+            }, handlerDelay);
+            Metrics.ACTIVE_HANDLERS.decrement();
+        }
+
+        @Override
+        public void reject() {
+            bufferPool.release(request);
+            send(reply(true));
+        }
+
+        private ByteBuffer reply(boolean busy) {
+            return sequenced ?
+                    udpResponseFrame(sequence, busy) : response(busy);
+        }
+
+        // a lost datagram is what the UDP client has to expect anyway
+        @Override
+        public void drop() { bufferPool.release(request); }
+
+        private void send(ByteBuffer response) {
+
+            try {
+                long start = System.nanoTime();
+                int n = channel.send(response, source);
+                Metrics.WRITE.record(System.nanoTime() - start);
+                Metrics.BYTES_OUT.add(n);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "error while sending a packet: " +
+                        e.getMessage() + ENDL);
+            }
+        }
     }
 
     public static void main(String argv[]) { (new Server()).start(); }
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+
+// blocking TCP transport with several acceptors (acceptors > 1): with a
+// connection per request the single accept loop caps the throughput, all
+// the more since it also starts the handlers. Here each acceptor thread
+// has a listening socket of its own bound to the port with SO_REUSEPORT
+// (the kernel spreads the connections among them), or, where that is not
+// supported, they all accept on one shared socket. An acceptor does
+// nothing but accept: the connections go through a lock-free handoff
+// queue to its dispatcher thread, which makes the handlers and gives them
+// to the executor of the concurrency model. The connections accepted by
+// each acceptor and its accept rate are reported.
+class TCPAcceptors implements Transport {
+
+    private final InetAddress address;
+    private final int port;
+    private final Executor executor;
+    private final RequestHandler.Factory handlers;
+    private final Acceptor acceptors[];
+
+    public TCPAcceptors(InetAddress address, int port, int nAcceptors,
+                        Executor executor, RequestHandler.Factory handlers) {
+        this.address = address;
+        this.port = port;
+        this.executor = executor;
+        this.handlers = handlers;
+        acceptors = new Acceptor[nAcceptors];
+    }
+
+    @Override
+    public void run() {
+
+        ServerSocketChannel channels[] = new ServerSocketChannel[acceptors.length];
+        try {
+            ServerSocketChannel first = ServerSocketChannel.open();
+            boolean reusePort = first.supportedOptions().contains(
+                    StandardSocketOptions.SO_REUSEPORT);
+            if (!reusePort) {
+                Server.LOGGER.log(Level.WARNING, "SO_REUSEPORT is not " +
+                        "supported, the acceptors share one socket" +
+                        Server.ENDL);
+            }
+            for (int i = 0; i < channels.length; ++i) {
+                if (i > 0 && !reusePort) {
+                    channels[i] = channels[0];
+                    continue;
+                }
+                ServerSocketChannel channel =
+                        i == 0 ? first : ServerSocketChannel.open();
+                if (reusePort) {
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                channel.bind(new InetSocketAddress(address, port),
+                        Server.MAX_BACKLOG);
+                channels[i] = channel;
+            }
+        } catch (IOException e) {
+            Server.LOGGER.log(Level.SEVERE,
+                    "cannot create server socket on port " +
+                    Long.toString(port) + ": " + e.getMessage() + Server.ENDL);
+            return;
+        }
+
+        Thread threads[] = new Thread[acceptors.length];
+        for (int i = 0; i < acceptors.length; ++i) {
+            acceptors[i] = new Acceptor(channels[i]);
+            Thread dispatcher = new Thread(
+                    acceptors[i]::dispatch, "tcp-dispatcher-" + i);
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+            acceptors[i].dispatcher = dispatcher;
+            threads[i] = new Thread(acceptors[i]::accept, "tcp-acceptor-" + i);
+        }
+
+        Server.LOGGER.log(Level.INFO, "TCP server started on port " +
+                Long.toString(port) + " (" + acceptors.length +
+                " acceptors)" + Server.ENDL + Server.LN + Server.ENDL);
+
+        for (Thread t: threads) { t.start(); }
+        // as the other transports, serve until the process ends
+        for (Thread t: threads) {
+            try { t.join(); }
+            catch (InterruptedException e) { return; }
+        }
+    }
+
+    public String report() {
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < acceptors.length; ++i) {
+            Acceptor a = acceptors[i];
+            if (a == null) { continue; } // not started
+            if (sb.length() > 0) { sb.append(Server.ENDL); }
+            sb.append("TCP acceptor #").append(i).append(": ")
+                    .append(a.report());
+        }
+        return sb.toString();
+    }
+
+    private class Acceptor {
+
+        private final ServerSocketChannel serverChannel;
+        // single producer (the acceptor), single consumer (the dispatcher)
+        private final Queue<SocketChannel> handoff =
+                new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private volatile Thread dispatcher;
+        // the dispatcher is about to park, the acceptor must unpark it
+        private volatile boolean idle = false;
+
+        private final LongAdder accepted = new LongAdder();
+        private volatile int maxDepth = 0;
+        // System.nanoTime() of the first and the last connection accepted
+        private volatile long firstAccept = 0;
+        private volatile long lastAccept = 0;
+
+        Acceptor(ServerSocketChannel serverChannel) {
+            this.serverChannel = serverChannel;
+        }
+
+        void accept() {
+
+            while (true) {
+
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (IOException e) {
+                    Server.LOGGER.log(Level.SEVERE,
+                            "error accepting the socket: " +
+                            e.getMessage() + Server.ENDL);
+                    if (!serverChannel.isOpen()) { return; }
+                    continue;
+                }
+                Metrics.CONNECTIONS_OPENED.increment();
+
+                long now = System.nanoTime();
+                if (firstAccept == 0) { firstAccept = now; }
+                lastAccept = now;
+                accepted.increment();
+
+                handoff.offer(channel);
+                int d = depth.incrementAndGet();
+                if (d > maxDepth) { maxDepth = d; } // this thread only
+                if (idle) { LockSupport.unpark(dispatcher); }
+            }
+        }
+
+        void dispatch() {
+
+            while (true) {
+                SocketChannel channel = handoff.poll();
+                if (channel == null) {
+                    idle = true;
+                    // recheck: an offer may have missed the flag
+                    if (handoff.isEmpty()) { LockSupport.park(this); }
+                    idle = false;
+                    continue;
+                }
+                depth.decrementAndGet();
+                executor.execute(handlers.create(
+                        channel, channel.socket().getRemoteSocketAddress()));
+            }
+        }
+
+        String report() {
+
+            long n = accepted.sum();
+            String s = n + " connections";
+            long span = lastAccept - firstAccept;
+            if (n > 1 && span > 0) {
+                s += String.format(", %.0f accepts/s", (n - 1) * 1e9 / span);
+            }
+            return s + ", max handoff queue " + maxDepth;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+
+// TLS transport (protocol=TLS): the blocking TCP one over an SSLServerSocket.
+// The acceptor only accepts, the handshake is done by the request handler
+// (on its first read or write), then the requests and the responses are
+// the same as over TCP: the handlers see the connection as a ByteChannel.
+// The handshakes are counted as full or resumed (the session was created
+// before the handshake started, i.e. taken from the session cache or
+// a ticket) with their durations, which is what resumption saves.
+class TLSServer implements Transport {
+
+    private static final String KEY_ALIAS = "server";
+
+    private static final Handshakes FULL = new Handshakes();
+    private static final Handshakes RESUMED = new Handshakes();
+
+    private final InetAddress address;
+    private final int port;
+    private final SSLContext context;
+    private final String protocols[]; // null: the JDK defaults
+    private final Executor executor;
+    private final RequestHandler.Factory handlers;
+
+    private static final class Handshakes {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long d) {
+            count.increment();
+            nanos.add(d);
+            max.accumulate(d);
+        }
+
+        @Override
+        public String toString() {
+            long n = count.sum();
+            return n + (n == 0 ? "" : String.format(
+                    " (mean %.1f us, max %.1f us)",
+                    nanos.sum() / 1e3 / n, max.get() / 1e3));
+        }
+    }
+
+    public TLSServer(InetAddress address, int port, SSLContext context,
+                     String protocols[], Executor executor,
+                     RequestHandler.Factory handlers) {
+        this.address = address;
+        this.port = port;
+        this.context = context;
+        this.protocols = protocols;
+        this.executor = executor;
+        this.handlers = handlers;
+    }
+
+    // the server context with the key of the keyStore (PKCS12), which is
+    // created (a self-signed certificate for localhost, exported to
+    // certificate for the clients) if there is no such file; sessionCache:
+    // sessions cached (0 = the JDK default), sessionTimeout: seconds
+    // (0 = the JDK default)
+    static SSLContext context(String keyStore, String password,
+                              String certificate, int sessionCache,
+                              int sessionTimeout)
+            throws IOException, GeneralSecurityException {
+
+        if (!(new File(keyStore)).exists()) {
+            generateKeyStore(keyStore, password, certificate);
+        }
+
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(keyStore)) {
+            ks.load(in, password.toCharArray());
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(ks, password.toCharArray());
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        SSLSessionContext sessions = context.getServerSessionContext();
+        if (sessionCache > 0) { sessions.setSessionCacheSize(sessionCache); }
+        if (sessionTimeout > 0) { sessions.setSessionTimeout(sessionTimeout); }
+        return context;
+    }
+
+    // with the keytool of the running JDK
+    private static void generateKeyStore(String keyStore, String password,
+                                         String certificate)
+            throws IOException {
+
+        String keytool = System.getProperty("java.home") +
+                File.separator + "bin" + File.separator + "keytool";
+        Server.LOGGER.log(Level.INFO, "generating a self-signed " +
+                "certificate in " + keyStore + Server.ENDL);
+        keytool(keytool, "-genkeypair", "-alias", KEY_ALIAS,
+                "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-validity", "3650",
+                "-storetype", "PKCS12", "-keystore", keyStore,
+                "-storepass", password);
+        keytool(keytool, "-exportcert", "-rfc", "-alias", KEY_ALIAS,
+                "-keystore", keyStore, "-storepass", password,
+                "-file", certificate);
+        Server.LOGGER.log(Level.INFO, "the certificate for the clients " +
+                "is in " + certificate + Server.ENDL);
+    }
+
+    private static void keytool(String... command) throws IOException {
+        Process p = (new ProcessBuilder(command))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        try {
+            if (p.waitFor() != 0) {
+                throw new IOException(command[1] + " failed");
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted");
+        }
+    }
+
+    @Override
+    public void run() {
+
+        SSLServerSocket serverSocket;
+        try {
+            serverSocket = (SSLServerSocket) context.getServerSocketFactory()
+                    .createServerSocket(port, Server.MAX_BACKLOG, address);
+            if (protocols != null) { serverSocket.setEnabledProtocols(protocols); }
+        } catch (IOException | IllegalArgumentException e) {
+            Server.LOGGER.log(Level.SEVERE,
+                    "cannot create server socket on port " +
+                    Long.toString(port) + ": " + e.getMessage() + Server.ENDL);
+            return;
+        }
+
+        Server.LOGGER.log(Level.INFO, "TLS server started on port " +
+                Long.toString(port) + Server.ENDL + Server.LN + Server.ENDL);
+
+        while (true) {
+
+            SSLSocket socket;
+            SecureChannel channel;
+            try {
+                socket = (SSLSocket) serverSocket.accept();
+                // the handshake flights and the records are small writes,
+                // Nagle would hold them for the delayed ACKs
+                socket.setTcpNoDelay(true);
+                channel = new SecureChannel(socket);
+            } catch (IOException e) {
+                Server.LOGGER.log(Level.SEVERE, "error accepting the socket: " +
+                        e.getMessage() + Server.ENDL);
+                continue;
+            }
+            Metrics.CONNECTIONS_OPENED.increment();
+
+            executor.execute(handlers.create(
+                    channel, socket.getRemoteSocketAddress()));
+        }
+    }
+
+    public static String report() {
+        return "TLS handshakes: " + FULL + " full, " + RESUMED + " resumed";
+    }
+
+    // a TLS socket seen as a blocking channel; the data are copied through
+    // an array of its own, the streams of a socket take nothing else
+    private static class SecureChannel implements ByteChannel {
+
+        private static final int BUFF_SIZE = 0x1000;
+
+        private final SSLSocket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte inBuff[] = new byte[BUFF_SIZE];
+        private final byte outBuff[] = new byte[BUFF_SIZE];
+        private volatile boolean handshaken = false;
+
+        SecureChannel(SSLSocket socket) throws IOException {
+            this.socket = socket;
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            handshake();
+            int n = in.read(inBuff, 0, Math.min(inBuff.length, dst.remaining()));
+            if (n > 0) { dst.put(inBuff, 0, n); }
+            return n;
+        }
+
+        // the whole buffer, in pieces of outBuff
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            handshake();
+            int total = src.remaining();
+            while (src.hasRemaining()) {
+                int n = Math.min(outBuff.length, src.remaining());
+                src.get(outBuff, 0, n);
+                out.write(outBuff, 0, n);
+            }
+            out.flush();
+            return total;
+        }
+
+        // the first read or write does it (the reads and writes of a
+        // connection are not concurrent until then)
+        private void handshake() throws IOException {
+
+            if (handshaken) { return; }
+            if (socket.isClosed()) { throw new ClosedChannelException(); }
+            long startMillis = System.currentTimeMillis();
+            long start = System.nanoTime();
+            socket.startHandshake();
+            long d = System.nanoTime() - start;
+            handshaken = true;
+            // a resumed session is as old as its first handshake
+            (socket.getSession().getCreationTime() < startMillis ?
+                    RESUMED : FULL).record(d);
+        }
+
+        @Override
+        public boolean isOpen() { return !socket.isClosed(); }
+
+        @Override
+        public void close() throws IOException { socket.close(); }
+    }
+}
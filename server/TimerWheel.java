@@ -0,0 +1,108 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+
+// hashed timer wheel: the tasks are put into the wheel slots by their
+// deadlines, a single thread advances the wheel each tick and runs the
+// expired ones; so a pending task costs a small node instead of a sleeping
+// thread. The tasks must be short and must not block.
+class TimerWheel {
+
+    private static final class Timeout {
+
+        private final Runnable task;
+        private final long deadline; // nanoseconds since the wheel start
+        private long rounds;         // full wheel turns left
+        private Timeout next;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+
+    private final long tickNanos;
+    private final Timeout slots[];
+    private final int mask;
+    private final long startTime = System.nanoTime();
+    // scheduling threads never touch the wheel itself
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+
+    // the tick (in milliseconds) is also the timer resolution;
+    // the number of slots is rounded up to a power of 2
+    public TimerWheel(String name, int tickMillis, int nSlots) {
+
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int n = Integer.highestOneBit(Math.max(nSlots - 1, 1)) << 1;
+        slots = new Timeout[n];
+        mask = n - 1;
+
+        Thread worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public void schedule(Runnable task, long delayMillis) {
+        long deadline = System.nanoTime() - startTime +
+                TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        newTimeouts.add(new Timeout(task, deadline));
+    }
+
+    private void run() {
+
+        long tick = 0;
+        while (true) {
+
+            // wait for the end of the current tick
+            long tickEnd = (tick + 1) * tickNanos;
+            long now;
+            while ((now = System.nanoTime() - startTime) < tickEnd) {
+                LockSupport.parkNanos(tickEnd - now);
+            }
+
+            transferNewTimeouts(tick);
+            expire(tick);
+            ++tick;
+        }
+    }
+
+    private void transferNewTimeouts(long tick) {
+
+        Timeout t;
+        while ((t = newTimeouts.poll()) != null) {
+            // never put a timeout into the past
+            long target = Math.max(t.deadline / tickNanos, tick);
+            t.rounds = (target - tick) / slots.length;
+            int i = (int) (target & mask);
+            t.next = slots[i];
+            slots[i] = t;
+        }
+    }
+
+    private void expire(long tick) {
+
+        int i = (int) (tick & mask);
+        Timeout prev = null;
+        Timeout t = slots[i];
+        while (t != null) {
+            Timeout next = t.next;
+            if (t.rounds > 0) {
+                --t.rounds;
+                prev = t;
+            } else {
+                if (prev == null) { slots[i] = next; }
+                else { prev.next = next; }
+                try {
+                    t.task.run();
+                } catch (RuntimeException e) {
+                    Server.LOGGER.log(Level.WARNING, "timer task failed: " +
+                            e + Server.ENDL);
+                }
+            }
+            t = next;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+// the network side of the server: binds the port, takes the requests in
+// (accepts the connections or receives the datagrams) and hands them over
+// to the request handlers; run() serves until the process ends and
+// returns only if the transport cannot start or fails
+interface Transport {
+
+    void run();
+}
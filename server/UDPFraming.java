@@ -0,0 +1,89 @@
+import java.nio.ByteBuffer;
+
+
+// application level fragmentation of the UDP messages: a message is sent
+// as a series of datagrams, each one starting with the header
+//
+//   | MARKER (byte) | flags (byte) | message id (int) |
+//   | fragment index (unsigned short) | fragment count (unsigned short) |
+//
+// (big-endian) followed by the fragment data. The text messages never
+// start with MARKER, so the server tells the fragments from the plain
+// datagrams by the first byte. A compressed message (see Compression)
+// is always sent this way, as a single fragment if it fits. So is
+// a sequenced one (see the client ReliableUDPClient): its message id is
+// the sequence number, which the server echoes in the response, sent as
+// a single fragment with the same flag.
+// NB: this file is shared by the client and the server, keep them in sync.
+class UDPFraming {
+
+    static final byte MARKER = 0x00;
+    static final int HEADER_SIZE = 10;
+    static final int MAX_FRAGMENTS = 0xffff;
+
+    // all the fragments of a compressed message carry it
+    static final byte FLAG_COMPRESSED = 0x01;
+    // all the fragments of a sequenced message and its response
+    static final byte FLAG_SEQUENCED = 0x02;
+
+    private UDPFraming() {}
+
+    // split the message into datagrams carrying up to fragmentSize bytes
+    // of data each; the message must not need more than MAX_FRAGMENTS
+    static byte[][] fragment(byte message[], int messageId, int fragmentSize) {
+        return fragment(message, messageId, fragmentSize, (byte) 0);
+    }
+
+    static byte[][] fragment(byte message[], int messageId, int fragmentSize,
+                             byte flags) {
+
+        int count = Math.max(
+                (message.length + fragmentSize - 1) / fragmentSize, 1);
+        if (count > MAX_FRAGMENTS) {
+            throw new IllegalArgumentException("message too long: " +
+                    message.length + " bytes");
+        }
+
+        byte datagrams[][] = new byte[count][];
+        for (int i = 0; i < count; ++i) {
+            int offset = i * fragmentSize;
+            int length = Math.min(fragmentSize, message.length - offset);
+            ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + length);
+            b.put(MARKER).put(flags).putInt(messageId)
+                    .putShort((short) i).putShort((short) count)
+                    .put(message, offset, length);
+            datagrams[i] = b.array();
+        }
+        return datagrams;
+    }
+
+    // a whole message as a single fragment, into b from its position on
+    static void put(ByteBuffer b, int messageId, byte flags, byte data[]) {
+        b.put(MARKER).put(flags).putInt(messageId)
+                .putShort((short) 0).putShort((short) 1).put(data);
+    }
+
+    static boolean isFragment(byte datagram[], int length) {
+        return length >= HEADER_SIZE && datagram[0] == MARKER;
+    }
+
+    // the datagram is [position, limit) of the buffer
+    static boolean isFragment(ByteBuffer datagram) {
+        return datagram.remaining() >= HEADER_SIZE &&
+                datagram.get(datagram.position()) == MARKER;
+    }
+
+    static byte flags(byte fragment[]) { return fragment[1]; }
+
+    static int messageId(byte fragment[]) {
+        return ByteBuffer.wrap(fragment).getInt(2);
+    }
+
+    static int index(byte fragment[]) {
+        return ByteBuffer.wrap(fragment).getShort(6) & 0xffff;
+    }
+
+    static int count(byte fragment[]) {
+        return ByteBuffer.wrap(fragment).getShort(8) & 0xffff;
+    }
+}
@@ -0,0 +1,108 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+
+class CompressionTest {
+
+    private static final byte TEXT[] = ("the quick brown fox jumps over the " +
+            "lazy dog ").repeat(200).getBytes();
+
+    private static ByteBuffer payload(byte data[]) {
+        return ByteBuffer.wrap(
+                Compression.compress(Compression.DEFLATE, data, 0, data.length));
+    }
+
+    // the payload with another original length in its header
+    private static ByteBuffer claiming(ByteBuffer payload, int original) {
+        ByteBuffer b = ByteBuffer.wrap(payload.array().clone());
+        b.putInt(1, original);
+        return b;
+    }
+
+    private static ByteBuffer decompress(ByteBuffer p, int maxLength,
+                                         ByteBuffer out) throws IOException {
+        int original = Compression.originalLength(p, 0, p.limit(), maxLength);
+        return Compression.decompress(p, 0, p.limit(), original, out);
+    }
+
+    @Test
+    void decompressesWhatIsCompressed() throws IOException {
+        ByteBuffer p = payload(TEXT);
+        assertTrue(p.limit() < TEXT.length / 10);
+        // the buffer grows from a byte
+        ByteBuffer out = decompress(p, Integer.MAX_VALUE, ByteBuffer.allocate(1));
+        assertEquals(TEXT.length, out.position());
+        assertArrayEquals(TEXT, Arrays.copyOf(out.array(), out.position()));
+
+        // into a buffer large enough, which is reused
+        ByteBuffer large = ByteBuffer.allocate(TEXT.length + 100);
+        large.put(new byte[50]); // cleared first
+        assertEquals(large, decompress(p, Integer.MAX_VALUE, large));
+        assertEquals(TEXT.length, large.position());
+    }
+
+    @Test
+    void theIncompressibleDataAreSentAsTheyAre() {
+        assertNull(Compression.compress(Compression.DEFLATE, new byte[4], 0, 4));
+    }
+
+    @Test
+    void rejectsTheOriginalLengthsBeyondTheLimit() {
+        ByteBuffer p = payload(TEXT);
+        assertThrows(IOException.class, () ->
+                decompress(p, TEXT.length - 1, ByteBuffer.allocate(16)));
+        assertThrows(IOException.class, () -> decompress(
+                claiming(p, -1), Integer.MAX_VALUE, ByteBuffer.allocate(16)));
+        assertThrows(IOException.class, () -> Compression.originalLength(
+                ByteBuffer.allocate(4), 0, 4, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void theClaimedLengthIsNotAllocatedUpFront() throws IOException {
+        // ~2 GiB claimed for a few KiB: no OutOfMemoryError, an error as
+        // the data end early
+        ByteBuffer p = claiming(payload(TEXT), Integer.MAX_VALUE - 16);
+        assertThrows(IOException.class, () ->
+                decompress(p, Integer.MAX_VALUE, ByteBuffer.allocate(16)));
+    }
+
+    @Test
+    void theDataMustComeToTheClaimedLength() {
+        ByteBuffer p = payload(TEXT);
+        assertThrows(IOException.class, () -> decompress(claiming(
+                p, TEXT.length + 1), Integer.MAX_VALUE, ByteBuffer.allocate(16)));
+        assertThrows(IOException.class, () -> decompress(claiming(
+                p, TEXT.length - 1), Integer.MAX_VALUE, ByteBuffer.allocate(16)));
+        assertThrows(IOException.class, () -> decompress(claiming(
+                p, 0), Integer.MAX_VALUE, ByteBuffer.allocate(16)));
+    }
+
+    @Test
+    void rejectsTheCorruptAndTruncatedData() {
+        ByteBuffer p = payload(TEXT);
+        ByteBuffer truncated = ByteBuffer.wrap(
+                Arrays.copyOf(p.array(), p.limit() - 4));
+        assertThrows(IOException.class, () ->
+                decompress(truncated, Integer.MAX_VALUE, ByteBuffer.allocate(16)));
+
+        ByteBuffer corrupt = ByteBuffer.wrap(p.array().clone());
+        for (int i = Compression.HEADER_SIZE; i < corrupt.limit(); ++i) {
+            corrupt.put(i, (byte) 0xff);
+        }
+        assertThrows(IOException.class, () ->
+                decompress(corrupt, Integer.MAX_VALUE, ByteBuffer.allocate(16)));
+
+        ByteBuffer unknown = ByteBuffer.wrap(p.array().clone());
+        unknown.put(0, (byte) 9);
+        assertThrows(IOException.class, () ->
+                decompress(unknown, Integer.MAX_VALUE, ByteBuffer.allocate(16)));
+    }
+}
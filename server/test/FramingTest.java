@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+
+class FramingTest {
+
+    private static DataInputStream stream(byte b[]) {
+        return new DataInputStream(new ByteArrayInputStream(b));
+    }
+
+    private static byte[] header(int length) {
+        return ByteBuffer.allocate(Framing.HEADER_SIZE).putInt(length).putInt(7)
+                .put((byte) 0).array();
+    }
+
+    @Test
+    void readsWhatIsWritten() throws IOException {
+        byte payload[] = "hello\n".getBytes();
+        ByteBuffer b = Framing.encode(42, Framing.FLAG_BUSY, payload);
+        assertEquals(Framing.HEADER_SIZE + payload.length, b.remaining());
+
+        Framing.Frame f = Framing.read(stream(b.array()));
+        assertEquals(42, f.id);
+        assertEquals(Framing.FLAG_BUSY, f.flags);
+        assertArrayEquals(payload, f.payload);
+    }
+
+    @Test
+    void theEndOfTheStreamBetweenTheFramesIsClean() throws IOException {
+        assertNull(Framing.read(stream(new byte[0])));
+    }
+
+    @Test
+    void aTruncatedFrameIsAnError() {
+        byte frame[] = Framing.encode(1, (byte) 0, new byte[10]).array();
+        assertThrows(EOFException.class, () ->
+                Framing.read(stream(Arrays.copyOf(frame, 5))));
+        assertThrows(EOFException.class, () ->
+                Framing.read(stream(Arrays.copyOf(frame, frame.length - 1))));
+    }
+
+    @Test
+    void aPayloadLongerThanItsFirstBufferIsRead() throws IOException {
+        byte payload[] = new byte[100000];
+        for (int i = 0; i < payload.length; ++i) { payload[i] = (byte) i; }
+        Framing.Frame f = Framing.read(
+                stream(Framing.encode(3, (byte) 0, payload).array()));
+        assertArrayEquals(payload, f.payload);
+    }
+
+    @Test
+    void aHeaderAloneIsATruncatedFrameWhateverItsLength() {
+        byte frame[] = Arrays.copyOf(header(Framing.MAX_PAYLOAD), 1000);
+        assertThrows(EOFException.class, () -> Framing.read(stream(frame)));
+    }
+
+    @Test
+    void rejectsTheInvalidLengthsBeforeReadingThePayload() {
+        assertThrows(IOException.class, () -> Framing.read(stream(header(-1))));
+        assertThrows(IOException.class, () ->
+                Framing.read(stream(header(Framing.MAX_PAYLOAD + 1))));
+        assertThrows(IOException.class, () ->
+                Framing.checkLength(Integer.MIN_VALUE));
+    }
+}
@@ -0,0 +1,91 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import org.junit.jupiter.api.Test;
+
+
+class ReassemblerTest {
+
+    private static final SocketAddress A = new InetSocketAddress("127.0.0.1", 1000);
+    private static final SocketAddress B = new InetSocketAddress("127.0.0.1", 2000);
+    private static final byte MESSAGE[] = "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n".getBytes();
+
+    private static byte[] add(Reassembler r, SocketAddress source, byte d[]) {
+        return r.add(source, d, d.length);
+    }
+
+    @Test
+    void aSingleFragmentIsTheMessage() {
+        Reassembler r = new Reassembler(1 << 20, 1000);
+        byte d[][] = UDPFraming.fragment(MESSAGE, 1, 100);
+        assertArrayEquals(MESSAGE, add(r, A, d[0]));
+    }
+
+    @Test
+    void joinsTheFragmentsInAnyOrder() {
+        Reassembler r = new Reassembler(1 << 20, 1000);
+        byte d[][] = UDPFraming.fragment(MESSAGE, 1, 5);
+        for (int i = d.length - 1; i > 0; --i) { assertNull(add(r, A, d[i])); }
+        assertArrayEquals(MESSAGE, add(r, A, d[0]));
+    }
+
+    @Test
+    void keepsTheSourcesApart() {
+        Reassembler r = new Reassembler(1 << 20, 1000);
+        byte d[][] = UDPFraming.fragment(MESSAGE, 1, 20);
+        assertNull(add(r, A, d[0]));
+        assertNull(add(r, B, d[1])); // the same message id, another source
+        assertArrayEquals(MESSAGE, add(r, A, d[1]));
+    }
+
+    @Test
+    void ignoresTheDuplicatesAndTheMalformedFragments() {
+        Reassembler r = new Reassembler(1 << 20, 1000);
+        byte d[][] = UDPFraming.fragment(MESSAGE, 1, 10);
+        assertNull(add(r, A, d[0]));
+        assertNull(add(r, A, d[0]));
+
+        // index beyond the count, count 0, a count other than the first one
+        byte bad[] = d[1].clone();
+        bad[6] = 0; bad[7] = 9;
+        assertNull(add(r, A, bad));
+        bad = d[1].clone();
+        bad[8] = 0; bad[9] = 0;
+        assertNull(add(r, A, bad));
+        bad = d[1].clone();
+        bad[9] = 7;
+        assertNull(add(r, A, bad));
+
+        assertNull(add(r, A, d[1]));
+        assertArrayEquals(MESSAGE, add(r, A, d[2]));
+    }
+
+    @Test
+    void dropsTheOldestMessagesOverTheMemoryLimit() {
+        // 10 + 10 + 7 bytes each
+        Reassembler r = new Reassembler(25, 1000);
+        byte first[][] = UDPFraming.fragment(MESSAGE, 1, 10);
+        byte second[][] = UDPFraming.fragment(MESSAGE, 2, 10);
+        assertNull(add(r, A, first[0]));
+        assertNull(add(r, A, second[0]));
+        assertNull(add(r, A, second[1])); // 30 bytes: the first one goes
+        assertArrayEquals(MESSAGE, add(r, A, second[2]));
+
+        assertNull(add(r, A, first[1]));
+        assertNull(add(r, A, first[2]));
+    }
+
+    @Test
+    void dropsTheMessagesOlderThanTheTimeout() throws InterruptedException {
+        Reassembler r = new Reassembler(1 << 20, 1);
+        byte d[][] = UDPFraming.fragment(MESSAGE, 1, 10);
+        assertNull(add(r, A, d[0]));
+        assertNull(add(r, A, d[1]));
+        Thread.sleep(10);
+        assertNull(add(r, A, d[2])); // the first two are gone
+        assertNull(add(r, A, d[0]));
+        assertArrayEquals(MESSAGE, add(r, A, d[1]));
+    }
+}
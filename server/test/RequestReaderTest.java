@@ -0,0 +1,144 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+
+class RequestReaderTest {
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final int MAX_LENGTH = 100000;
+
+    // the given data, at most chunk bytes per read, then the end of stream
+    private static final class Chunks implements ReadableByteChannel {
+
+        private final ByteBuffer data;
+        private final int chunk;
+
+        Chunks(byte data[], int chunk) {
+            this.data = ByteBuffer.wrap(data);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!data.hasRemaining()) { return -1; }
+            int n = Math.min(Math.min(chunk, dst.remaining()), data.remaining());
+            ByteBuffer part = data.slice();
+            part.limit(n);
+            dst.put(part);
+            data.position(data.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() { return true; }
+
+        @Override
+        public void close() {}
+    }
+
+    private static RequestReader reader(byte data[], int chunk) {
+        return new RequestReader(new Chunks(data, chunk),
+                new BufferPool(BUFFER_SIZE, 4), MAX_LENGTH);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int n = 0;
+        for (byte p[]: parts) { n += p.length; }
+        ByteBuffer b = ByteBuffer.allocate(n);
+        for (byte p[]: parts) { b.put(p); }
+        return b.array();
+    }
+
+    private static byte[] frame(int id, int length) {
+        byte payload[] = new byte[length];
+        Arrays.fill(payload, (byte) 'x');
+        return Framing.encode(id, (byte) 0, payload).array();
+    }
+
+    private static byte[] line(int length) {
+        byte line[] = new byte[length + 2];
+        Arrays.fill(line, (byte) 'x');
+        line[length] = '\r';
+        line[length + 1] = '\n';
+        return line;
+    }
+
+    @Test
+    void readsTheLines() throws IOException {
+        RequestReader r = reader(concat(line(3), "abc\n".getBytes()), 2);
+        assertTrue(r.nextLine());
+        assertEquals(3, r.length());
+        assertTrue(r.nextLine());
+        assertEquals(3, r.length());
+        assertFalse(r.nextLine());
+    }
+
+    @Test
+    void aLineOfTheMaxLengthIsTaken() throws IOException {
+        RequestReader r = reader(line(MAX_LENGTH), 1000);
+        assertTrue(r.nextLine());
+        assertEquals(MAX_LENGTH, r.length());
+    }
+
+    @Test
+    void aLongerLineIsRejected() {
+        RequestReader r = reader(line(MAX_LENGTH + 1), 1000);
+        IOException e = assertThrows(IOException.class, r::nextLine);
+        assertFalse(e instanceof EOFException);
+    }
+
+    @Test
+    void readsTheFrames() throws IOException {
+        RequestReader r = reader(concat(frame(1, 10), frame(2, MAX_LENGTH)), 1000);
+        assertTrue(r.nextFrame());
+        assertEquals(1, r.id());
+        assertEquals(10, r.length());
+        assertTrue(r.nextFrame());
+        assertEquals(2, r.id());
+        assertEquals(MAX_LENGTH, r.length());
+        assertFalse(r.nextFrame());
+    }
+
+    @Test
+    void aLongerFrameIsRejectedOnItsHeader() {
+        // only the header comes
+        byte header[] = Arrays.copyOf(frame(1, MAX_LENGTH + 1),
+                Framing.HEADER_SIZE);
+        RequestReader r = reader(header, 1000);
+        IOException e = assertThrows(IOException.class, r::nextFrame);
+        assertFalse(e instanceof EOFException);
+        assertEquals(BUFFER_SIZE, r.buffer().capacity());
+    }
+
+    @Test
+    void theBufferGrowsAsTheDataCome() {
+        // a frame of the max length, cut after 10000 bytes
+        byte cut[] = Arrays.copyOf(frame(1, MAX_LENGTH), 10000);
+        RequestReader r = reader(cut, 1000);
+        assertThrows(EOFException.class, r::nextFrame);
+        assertTrue(r.buffer().capacity() <= 4 * BUFFER_SIZE);
+    }
+
+    @Test
+    void theBufferIsPooledAgainAfterALongRequest() throws IOException {
+        RequestReader r = reader(concat(frame(1, MAX_LENGTH), frame(2, 10),
+                line(0)), 1000);
+        assertTrue(r.nextFrame());
+        assertTrue(r.buffer().capacity() > BUFFER_SIZE);
+        assertTrue(r.nextFrame());
+        assertEquals(2, r.id());
+        assertEquals(BUFFER_SIZE, r.buffer().capacity());
+        // the bytes read with the long request are kept
+        assertTrue(r.nextLine());
+        assertEquals(0, r.length());
+    }
+}
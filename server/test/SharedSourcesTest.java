@@ -0,0 +1,28 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+
+
+// the wire formats the client and the server share are copied in both
+// modules, a change to one copy must be made to the other
+class SharedSourcesTest {
+
+    private static final String SHARED[] = {
+            "Framing.java", "UDPFraming.java", "Compression.java"};
+
+    @Test
+    void theClientHasTheSameCopies() throws IOException {
+        Path server = Path.of(System.getProperty("basedir", "."))
+                .toAbsolutePath().normalize();
+        Path client = server.resolveSibling("client");
+        for (String name: SHARED) {
+            // the offset of the first difference, -1 if none
+            assertEquals(-1L, Files.mismatch(server.resolve(name),
+                    client.resolve(name)),
+                    "client/" + name + " differs from server/" + name);
+        }
+    }
+}
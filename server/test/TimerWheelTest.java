@@ -0,0 +1,64 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+
+// the wheel is driven by the clock, so the bounds leave room for a slow
+// (or loaded) machine: never early, in the deadline order
+class TimerWheelTest {
+
+    private static final int TICK = 1; // milliseconds
+    private static final int SLOTS = 8;
+
+    @Test
+    void runsTheTasksNoEarlierThanTheirDelays() throws InterruptedException {
+
+        TimerWheel wheel = new TimerWheel("test-timer", TICK, SLOTS);
+        long delays[] = {2, 5, 30, 75}; // the last two take full turns
+        long ran[] = new long[delays.length];
+        CountDownLatch done = new CountDownLatch(delays.length);
+        long start = System.nanoTime();
+        for (int i = delays.length - 1; i >= 0; --i) {
+            int k = i;
+            wheel.schedule(() -> {
+                ran[k] = System.nanoTime() - start;
+                done.countDown();
+            }, delays[i]);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS), "not all the tasks ran");
+        for (int i = 0; i < delays.length; ++i) {
+            // a tick of rounding down at most
+            assertTrue(ran[i] >= TimeUnit.MILLISECONDS.toNanos(delays[i] - TICK),
+                    "task " + i + " ran after " + ran[i] + " ns");
+            if (i > 0) { assertTrue(ran[i] >= ran[i - 1], "out of order"); }
+        }
+    }
+
+    @Test
+    void runsThePastDeadlinesOnTheNextTick() throws InterruptedException {
+
+        TimerWheel wheel = new TimerWheel("test-timer", TICK, SLOTS);
+        CountDownLatch done = new CountDownLatch(2);
+        wheel.schedule(done::countDown, 0);
+        wheel.schedule(done::countDown, -100);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void keepsGoingAfterAFailedTask() throws InterruptedException {
+
+        TimerWheel wheel = new TimerWheel("test-timer", TICK, SLOTS);
+        List<String> ran = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        wheel.schedule(() -> { throw new IllegalStateException("test"); }, 1);
+        wheel.schedule(() -> { ran.add("after"); done.countDown(); }, 3);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("after"), ran);
+    }
+}
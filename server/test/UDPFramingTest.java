@@ -0,0 +1,67 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+
+class UDPFramingTest {
+
+    @Test
+    void theFragmentsCarryTheirHeaders() {
+
+        byte message[] = new byte[2500];
+        for (int i = 0; i < message.length; ++i) { message[i] = (byte) ('a' + i % 26); }
+        byte d[][] = UDPFraming.fragment(message, 0x12345678, 1000,
+                UDPFraming.FLAG_COMPRESSED);
+        assertEquals(3, d.length);
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 0; i < d.length; ++i) {
+            assertTrue(UDPFraming.isFragment(d[i], d[i].length));
+            assertEquals(UDPFraming.FLAG_COMPRESSED, UDPFraming.flags(d[i]));
+            assertEquals(0x12345678, UDPFraming.messageId(d[i]));
+            assertEquals(i, UDPFraming.index(d[i]));
+            assertEquals(3, UDPFraming.count(d[i]));
+            joined.write(d[i], UDPFraming.HEADER_SIZE,
+                    d[i].length - UDPFraming.HEADER_SIZE);
+        }
+        assertArrayEquals(message, joined.toByteArray());
+    }
+
+    @Test
+    void anEmptyMessageIsOneFragment() {
+        byte d[][] = UDPFraming.fragment(new byte[0], 1, 1000);
+        assertEquals(1, d.length);
+        assertEquals(UDPFraming.HEADER_SIZE, d[0].length);
+    }
+
+    @Test
+    void theIndexAndCountAreUnsigned() {
+        byte d[] = UDPFraming.fragment(new byte[1], 1, 1000)[0];
+        d[6] = (byte) 0xff; d[7] = (byte) 0xfe;
+        d[8] = (byte) 0xff; d[9] = (byte) 0xff;
+        assertEquals(0xfffe, UDPFraming.index(d));
+        assertEquals(UDPFraming.MAX_FRAGMENTS, UDPFraming.count(d));
+    }
+
+    @Test
+    void tellsTheFragmentsFromThePlainDatagrams() {
+        byte text[] = "hello\n".getBytes();
+        assertFalse(UDPFraming.isFragment(text, text.length));
+        byte d[] = UDPFraming.fragment(text, 1, 1000)[0];
+        assertFalse(UDPFraming.isFragment(d, UDPFraming.HEADER_SIZE - 1));
+        assertTrue(UDPFraming.isFragment(ByteBuffer.wrap(d)));
+        assertFalse(UDPFraming.isFragment(ByteBuffer.wrap(d, 0, 4)));
+    }
+
+    @Test
+    void refusesTooManyFragments() {
+        assertThrows(IllegalArgumentException.class, () -> UDPFraming.fragment(
+                new byte[UDPFraming.MAX_FRAGMENTS + 1], 1, 1));
+    }
+}